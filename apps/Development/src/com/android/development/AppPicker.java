@@ -17,45 +17,76 @@
 
 package com.android.development;
 
-import com.android.development.PackageBrowser.MyPackageInfo;
-
 import android.app.ActivityManagerNative;
 import android.app.ListActivity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.RemoteException;
 import android.provider.Settings;
 import android.view.View;
-import android.view.ViewGroup;
-import android.view.LayoutInflater;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 public class AppPicker extends ListActivity
+        implements PackageIndex.Listener, PackageLoader.Callback
 {
     @Override
     protected void onCreate(Bundle icicle)
     {
         super.onCreate(icicle);
 
+        mHandler = new Handler();
+        mDefaultIcon = getPackageManager().getDefaultActivityIcon();
         mAdapter = new AppListAdapter(this);
-        if (mAdapter.getCount() <= 0) {
-            finish();
-        } else {
-            setListAdapter(mAdapter);
+        setListAdapter(mAdapter);
+        // "(none)" shows at once, the applications as their labels load
+        mPackageLoader = PackageLoader.get(this);
+        mPackageIndex = PackageIndex.get(this);
+        mPackageIndex.addListener(this);
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        mPackageIndex.removeListener(this);
+        mPackageLoader.cancel(this);
+        mHandler.removeCallbacks(mRefresh);
+    }
+
+    public void onPackagesIndexed(PackageIndex.Snapshot snapshot)
+    {
+        mAdapter.clear();
+        mPackageLoader.load(snapshot.getPackages(), this);
+    }
+
+    public void onPackagesLoaded(List<PackageLoader.Entry> page)
+    {
+        mAdapter.add(page);
+    }
+
+    public void onIconLoaded(String packageName)
+    {
+        // icons tend to come in bursts, a row each
+        if (!mRefreshPending) {
+            mRefreshPending = true;
+            mHandler.post(mRefresh);
         }
     }
+
+    private final Runnable mRefresh = new Runnable() {
+        public void run() {
+            mRefreshPending = false;
+            mAdapter.notifyDataSetChanged();
+        }
+    };
     
     @Override
     protected void onResume()
@@ -72,7 +103,7 @@ public class AppPicker extends ListActivity
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id)
     {
-        MyApplicationInfo app = mAdapter.itemForPosition(position);
+        PackageLoader.Entry app = mAdapter.itemForPosition(position);
         Intent intent = new Intent();
         if (app.info != null) intent.setAction(app.info.packageName);
         setResult(RESULT_OK, intent);
@@ -88,38 +119,38 @@ public class AppPicker extends ListActivity
         finish();
     }
 
-    class MyApplicationInfo {
-        ApplicationInfo info;
-        String label;
-    }
-    
-    public class AppListAdapter extends ArrayAdapter<MyApplicationInfo> {
-        private List<MyApplicationInfo> mPackageInfoList = new ArrayList<MyApplicationInfo>();
+    public class AppListAdapter extends ArrayAdapter<PackageLoader.Entry> {
+        private List<PackageLoader.Entry> mPackageInfoList = new ArrayList<PackageLoader.Entry>();
 
         public AppListAdapter(Context context) {
             super(context, R.layout.package_list_item);
-            List<ApplicationInfo> pkgs = context.getPackageManager().getInstalledApplications(0);
-            for (int i=0; i<pkgs.size(); i++) {
-                MyApplicationInfo info = new MyApplicationInfo();
-                info.info = pkgs.get(i);
-                info.label = info.info.loadLabel(getPackageManager()).toString();
-                mPackageInfoList.add(info);
-            }
-            Collections.sort(mPackageInfoList, sDisplayNameComparator);
-            MyApplicationInfo info = new MyApplicationInfo();
-            info.label = "(none)";
-            mPackageInfoList.add(0, info);
+            clear();
             setSource(mPackageInfoList);
         }
+
+        /**
+         * Leaves only "(none)".
+         */
+        public void clear() {
+            mPackageInfoList.clear();
+            mPackageInfoList.add(new PackageLoader.Entry(null, "(none)"));
+            notifyDataSetChanged();
+        }
+
+        public void add(List<PackageLoader.Entry> page) {
+            PackageLoader.addByLabel(mPackageInfoList, 1, page);
+            notifyDataSetChanged();
+        }
     
         @Override
-        public void bindView(View view, MyApplicationInfo info) {
+        public void bindView(View view, PackageLoader.Entry info) {
             ImageView icon = (ImageView)view.findViewById(R.id.icon);
             TextView name = (TextView)view.findViewById(R.id.name);
             TextView description = (TextView)view.findViewById(R.id.description);
             name.setText(info.label);
             if (info.info != null) {
-                icon.setImageDrawable(info.info.loadIcon(getPackageManager()));
+                Drawable drawable = mPackageLoader.getIcon(info.info, AppPicker.this);
+                icon.setImageDrawable(drawable != null ? drawable : mDefaultIcon);
                 description.setText(info.info.packageName);
             } else {
                 icon.setImageDrawable(null);
@@ -128,16 +159,11 @@ public class AppPicker extends ListActivity
         }
     }
 
-    private final static Comparator<MyApplicationInfo> sDisplayNameComparator
-            = new Comparator<MyApplicationInfo>() {
-        public final int
-        compare(MyApplicationInfo a, MyApplicationInfo b) {
-            return collator.compare(a.label, b.label);
-        }
-
-        private final Collator   collator = Collator.getInstance();
-    };
-
     private AppListAdapter mAdapter;
+    private Handler mHandler;
+    private PackageIndex mPackageIndex;
+    private PackageLoader mPackageLoader;
+    private Drawable mDefaultIcon;
+    private boolean mRefreshPending;
 }
 
@@ -17,57 +17,73 @@
 package com.android.development;
 
 import android.app.ListActivity;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
 
 import java.util.ArrayList;
 
-public class DataList extends ListActivity
+public class DataList extends ListActivity implements PagedQuery.Callback
 {
+    // how long to let changes to the provider's data pile up before
+    // reloading the rows
+    private static final int REFRESH_DELAY_MS = 500;
+
     public void onCreate(Bundle icicle)
     {
         super.onCreate(icicle);
 
         Intent intent = getIntent();
 
-        mCursor = getContentResolver().query(intent.getData(), null, null, null, null);
         mDisplay = intent.getStringExtra("display");
         if (mDisplay == null) {
             mDisplay = "_id";
         }
-        
-        if (mCursor != null) {
-            setListAdapter(new SimpleCursorAdapter(
-                    this,
-                    R.layout.url_list,
-                    mCursor,
-                    new String[] {mDisplay},
-                    new int[] {android.R.id.text1}));
-        }
+
+        // the rows are queried a page at a time off the main thread, and
+        // show up as they come
+        mHandler = new Handler();
+        mQuery = new PagedQuery(getContentResolver(), intent.getData(), this);
+        mAdapter = new RowAdapter(this);
+        setListAdapter(mAdapter);
+        getContentResolver().registerContentObserver(intent.getData(), true, mObserver);
+    }
+
+    public void onDestroy()
+    {
+        super.onDestroy();
+
+        getContentResolver().unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mRefresh);
+        mQuery.quit();
     }
 
     public void onStop()
     {
         super.onStop();
 
-        if (mCursor != null) {
-            mCursor.deactivate();
-        }
+        mStopped = true;
     }
 
     public void onResume()
     {
         super.onResume();
 
-        if (mCursor != null) {
-            mCursor.requery();
+        mStopped = false;
+        if (mChanged) {
+            mChanged = false;
+            mQuery.refresh();
         }
         
         setTitle("Showing " + mDisplay);
@@ -80,55 +96,132 @@ public class DataList extends ListActivity
         return true;
     }
 
+    public void onRowsChanged()
+    {
+        String[] columnNames = mQuery.getColumnNames();
+        if (mDisplayColumn < 0 && columnNames != null) {
+            for (int i=0; i<columnNames.length; i++) {
+                if (columnNames[i].equals(mDisplay)) {
+                    mDisplayColumn = i;
+                }
+            }
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
     protected void onListItemClick(ListView l, View v, int position, long id)
     {
-        mCursor.moveToPosition(position);
+        String[] row = mQuery.getRow(position);
+        if (row == null) {
+            // not loaded yet
+            return;
+        }
 
         ArrayList<ColumnData> data = new ArrayList<ColumnData>();
 
-        String[] columnNames = mCursor.getColumnNames();
+        String[] columnNames = mQuery.getColumnNames();
         for (int i=0; i<columnNames.length; i++) {
-            String str = mCursor.getString(i);
-            ColumnData cd = new ColumnData(columnNames[i], str);
+            ColumnData cd = new ColumnData(columnNames[i], row[i]);
             data.add(cd);
         }
 
 
         Uri uri = null;
-        int idCol = mCursor.getColumnIndex("_id");
-        if (idCol >= 0) {
-            uri = Uri.withAppendedPath(getIntent().getData(), mCursor.getString(idCol));
+        for (int i=0; i<columnNames.length; i++) {
+            if (columnNames[i].equals("_id")) {
+                uri = Uri.withAppendedPath(getIntent().getData(), row[i]);
+            }
         }
         Intent intent = new Intent(Intent.ACTION_VIEW, uri);
         intent.setClass(this, Details.class);
 
         intent.putExtra("data", data);
-        int displayColumn = mCursor.getColumnIndex(mDisplay);
-        if (displayColumn >= 0) {
+        if (mDisplayColumn >= 0) {
             intent.putExtra("title",
-                                ((ColumnData)data.get(displayColumn)).value);
+                                ((ColumnData)data.get(mDisplayColumn)).value);
         }
 
         startActivity(intent);
     }
 
+    private class RowAdapter extends BaseAdapter
+    {
+        RowAdapter(Context context)
+        {
+            mInflater = (LayoutInflater)context.getSystemService(
+                Context.LAYOUT_INFLATER_SERVICE);
+        }
+
+        public int getCount()
+        {
+            return mQuery.getCount();
+        }
+
+        public Object getItem(int position)
+        {
+            return mQuery.getRow(position);
+        }
+
+        public long getItemId(int position)
+        {
+            long id = mQuery.getId(position);
+            return id >= 0 ? id : position;
+        }
+
+        public View getView(int position, View convertView, ViewGroup parent)
+        {
+            TextView view = (TextView)convertView;
+            if (view == null) {
+                view = (TextView)mInflater.inflate(R.layout.url_list, parent, false);
+            }
+            String[] row = mQuery.getRow(position);
+            if (row == null) {
+                view.setText("\u2026");
+            } else if (mDisplayColumn >= 0) {
+                view.setText(row[mDisplayColumn]);
+            } else {
+                view.setText("");
+            }
+            return view;
+        }
+
+        private final LayoutInflater mInflater;
+    }
+
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        public void onChange(boolean selfChange) {
+            if (mStopped) {
+                // caught up with when the list is back on the screen
+                mChanged = true;
+            } else if (!mRefreshPending) {
+                mRefreshPending = true;
+                mHandler.postDelayed(mRefresh, REFRESH_DELAY_MS);
+            }
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        public void run() {
+            mRefreshPending = false;
+            mQuery.refresh();
+        }
+    };
+
     MenuItem.OnMenuItemClickListener mRequery = new MenuItem.OnMenuItemClickListener() {
         public boolean onMenuItemClick(MenuItem item) {
-            // Should just do requery on cursor, but 
-            // doesn't work right now.  So do this instead.
-            mCursor.requery();
-            if (mCursor != null) {
-                setListAdapter(new SimpleCursorAdapter(
-                        DataList.this,
-                        R.layout.url_list,
-                        mCursor,
-                        new String[] {mDisplay},
-                        new int[] {android.R.id.text1}));
-            }
+            // only the rows in memory are queried again; the others are
+            // when they are next shown
+            mQuery.refresh();
             return true;
         }
     };
 
     private String mDisplay;
-    private Cursor mCursor;
+    private int mDisplayColumn = -1;
+    private PagedQuery mQuery;
+    private RowAdapter mAdapter;
+    private Handler mHandler;
+    private boolean mStopped;
+    private boolean mChanged;
+    private boolean mRefreshPending;
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.development;
+
+import java.util.AbstractList;
+
+/**
+ * A list of bounded size: once it is full, adding an item drops the oldest
+ * one. Not thread safe.
+ */
+class LogRing<E> extends AbstractList<E> {
+    private final Object[] mItems;
+    private int mStart;
+    private int mSize;
+
+    public LogRing(int capacity) {
+        mItems = new Object[capacity];
+    }
+
+    @Override
+    public boolean add(E item) {
+        int capacity = mItems.length;
+        int end = mStart + mSize;
+        if (end >= capacity) {
+            end -= capacity;
+        }
+        mItems[end] = item;
+        if (mSize < capacity) {
+            mSize++;
+        } else {
+            mStart = end + 1 == capacity ? 0 : end + 1;
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException(index + " of " + mSize);
+        }
+        int i = mStart + index;
+        if (i >= mItems.length) {
+            i -= mItems.length;
+        }
+        return (E) mItems[i];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            int j = mStart + i;
+            mItems[j >= mItems.length ? j - mItems.length : j] = null;
+        }
+        mStart = 0;
+        mSize = 0;
+    }
+}
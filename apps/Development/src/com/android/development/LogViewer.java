@@ -1,141 +1,337 @@
 /*
 ** Copyright 2007, The Android Open Source Project
 **
-** Licensed under the Apache License, Version 2.0 (the "License"); 
-** you may not use this file except in compliance with the License. 
-** You may obtain a copy of the License at 
+** Licensed under the Apache License, Version 2.0 (the "License");
+** you may not use this file except in compliance with the License.
+** You may obtain a copy of the License at
 **
-**     http://www.apache.org/licenses/LICENSE-2.0 
+**     http://www.apache.org/licenses/LICENSE-2.0
 **
-** Unless required by applicable law or agreed to in writing, software 
-** distributed under the License is distributed on an "AS IS" BASIS, 
-** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
-** See the License for the specific language governing permissions and 
+** Unless required by applicable law or agreed to in writing, software
+** distributed under the License is distributed on an "AS IS" BASIS,
+** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+** See the License for the specific language governing permissions and
 ** limitations under the License.
 */
 
 package com.android.development;
 
-import static com.android.internal.util.CharSequences.forAsciiBytes;
-
-import java.io.DataInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.FileOutputStream;
-import java.net.Socket;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
 
-import android.app.Activity;
-import android.os.Handler;
+import android.app.ListActivity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
-import android.graphics.Typeface;
-import android.view.Gravity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.TextView;
 
 /**
  * Views the device log.
+ * <p>
+ * A reader thread blocks on the log device, parses each entry out of a
+ * direct buffer it reuses, drops the entries the filter doesn't take, and
+ * hands the rest to the UI thread in batches. The UI keeps the last
+ * {@link #MAX_ENTRIES} lines in a ring and shows them in a list, which
+ * only binds the rows on screen.
  */
-public class LogViewer extends Activity {
+public class LogViewer extends ListActivity {
 
     static final String TAG = LogViewer.class.getSimpleName();
 
-    FileOutputStream logger;
+    private static final String LOG_DEVICE = "/dev/log/main";
+
+    // struct logger_entry: payload length, padding, pid, tid, sec, nsec
+    private static final int HEADER_SIZE = 20;
+    // LOGGER_ENTRY_MAX_LEN; a read of the device fails with a smaller buffer
+    private static final int MAX_ENTRY_SIZE = 5 * 1024;
+
+    private static final int MAX_ENTRIES = 5000;
+    // how long the reader lets entries pile up before the list is updated
+    private static final int UPDATE_DELAY_MS = 100;
+
+    private static final String PRIORITIES = "??VDIWEF";
+    // the menu's choices of lowest priority, from Log.VERBOSE to Log.ERROR
+    private static final String[] PRIORITY_NAMES = {
+        "Verbose", "Debug", "Info", "Warning", "Error",
+    };
+    private static final int[] PRIORITY_COLORS = {
+        0xffcccccc, 0xffcccccc, 0xffcccccc, 0xff99ccff,
+        0xffcccccc, 0xffffcc66, 0xffff6666, 0xffff6666,
+    };
+
+    /**
+     * One line of a log entry.
+     */
+    static class LogEntry {
+        final int priority;
+        final int pid;
+        final String tag;
+        final String message;
+
+        LogEntry(int priority, int pid, String tag, String message) {
+            this.priority = priority;
+            this.pid = pid;
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The entries the reader passes on: those at or above a priority, and
+     * if any tags are given, only those with one of them.
+     */
+    static class LogFilter {
+        final int minPriority;
+        final HashSet<String> tags;
+
+        LogFilter(int minPriority, HashSet<String> tags) {
+            this.minPriority = minPriority;
+            this.tags = tags;
+        }
 
-    volatile boolean active = true;
-    Handler handler;
-    LogTextBox text;
+        boolean takesPriority(int priority) {
+            return priority >= minPriority;
+        }
+
+        boolean takesTag(String tag) {
+            return tags.isEmpty() || tags.contains(tag);
+        }
+    }
 
     @Override
     protected void onCreate(Bundle icicle) {
         super.onCreate(icicle);
         setContentView(R.layout.log_viewer);
-        this.handler = new Handler();
+        mHandler = new Handler();
+
+        mAdapter = new LogAdapter();
+        mAdapter.setSource(mEntries);
+        setListAdapter(mAdapter);
 
-        text = (LogTextBox) findViewById(R.id.text);
+        mTagFilter = (EditText) findViewById(R.id.tag_filter);
+        mTagFilter.addTextChangedListener(new TextWatcher() {
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
 
-        text.setTextSize(10);
-        text.setHorizontallyScrolling(true);
-        text.setTypeface(Typeface.MONOSPACE);
-        text.setGravity(Gravity.BOTTOM | Gravity.LEFT);
+            public void afterTextChanged(Editable s) {
+                setFilter(mFilter.minPriority, s.toString());
+            }
+        });
 
-        this.active = true;
         try {
-            logger = new FileOutputStream("/tmp/logviewer.txt");
-            new Thread(new LogReader()).start();
+            mReader = new LogReader();
+            mReader.start();
         } catch (IOException e) {
             appendThrowable(e);
         }
     }
 
-    private void appendThrowable(Throwable t) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("Error reading log: ");
-        builder.append(Log.getStackTraceString(t));
-        text.getText().append(builder);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mUpdate);
+        if (mReader != null) {
+            // a reader blocked on the device notices at its next entry
+            mReader.finish();
+        }
     }
 
-    private class LogReader implements Runnable {
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        for (int priority = Log.VERBOSE; priority <= Log.ERROR; priority++) {
+            final int minPriority = priority;
+            menu.add(0, priority, 0, PRIORITY_NAMES[priority - Log.VERBOSE])
+                    .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+                public boolean onMenuItemClick(MenuItem item) {
+                    setFilter(minPriority, mTagFilter.getText().toString());
+                    return true;
+                }
+            });
+        }
+        menu.setGroupCheckable(0, true, true);
+        menu.add(1, 0, 0, "Clear").setOnMenuItemClickListener(
+                new MenuItem.OnMenuItemClickListener() {
+            public boolean onMenuItemClick(MenuItem item) {
+                mEntries.clear();
+                mAdapter.notifyDataSetChanged();
+                return true;
+            }
+        });
+        return true;
+    }
 
-        final Socket socket;
-        final DataInputStream in;
-        StringBuilder builder = new StringBuilder();
-        long lastTime = System.currentTimeMillis();
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(mFilter.minPriority).setChecked(true);
+        return true;
+    }
+
+    /**
+     * Replaces the filter; the reader applies it from its next entry on.
+     */
+    private void setFilter(int minPriority, String tags) {
+        HashSet<String> tagSet = new HashSet<String>();
+        for (String tag : tags.split("[,\\s]+")) {
+            if (tag.length() > 0) {
+                tagSet.add(tag);
+            }
+        }
+        mFilter = new LogFilter(minPriority, tagSet);
+    }
 
-        private static final int HEADER_SIZE = 24;
+    private void appendThrowable(Throwable t) {
+        String[] lines = ("Error reading log: " + Log.getStackTraceString(t)).split("\n");
+        for (String line : lines) {
+            mEntries.add(new LogEntry(Log.ERROR, android.os.Process.myPid(), TAG, line));
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private class LogReader extends Thread {
+
+        private final FileInputStream mIn;
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer;
+        private final byte[] mBytes = new byte[MAX_ENTRY_SIZE];
+        private volatile boolean mActive = true;
 
         public LogReader() throws IOException {
-            this.socket = new Socket("127.0.0.1", 5040);
-            this.in = new DataInputStream(this.socket.getInputStream());
-            // Write two newlines to indicate "no reader args"
-            this.socket.getOutputStream().write('\n');
-            this.socket.getOutputStream().write('\n');
+            super("LogReader");
+            mIn = new FileInputStream(LOG_DEVICE);
+            mChannel = mIn.getChannel();
+            mBuffer = ByteBuffer.allocateDirect(MAX_ENTRY_SIZE);
+            mBuffer.order(ByteOrder.nativeOrder());
+        }
+
+        void finish() {
+            mActive = false;
+            try {
+                mIn.close();
+            } catch (IOException e) {
+                // the reader stops all the same
+            }
         }
 
+        @Override
         public void run() {
-            while (active) {
-                try {
-                    while (in.available() > 0) {
-                        logger.write("Reading message.\n".getBytes());
-
-                        int length = in.readInt();
-                        byte[] bytes = new byte[length];
-                        in.readFully(bytes);
-
-                        int tagEnd = next0(bytes, HEADER_SIZE);
-                        int fileEnd = next0(bytes, tagEnd + 1);
-                        int messageEnd = next0(bytes, fileEnd + 1);
-
-                        CharSequence tag
-                                = forAsciiBytes(bytes, HEADER_SIZE, tagEnd);
-                        CharSequence message
-                                = forAsciiBytes(bytes, fileEnd + 1, messageEnd);
-
-                        builder.append(tag)
-                                .append(": ")
-                                .append(message)
-                                .append("\n");
+            try {
+                // each read blocks until there is an entry, and returns one
+                while (mActive) {
+                    mBuffer.clear();
+                    int read = mChannel.read(mBuffer);
+                    if (read < 0) {
+                        break;
                     }
+                    if (read >= HEADER_SIZE + 1) {
+                        parseEntry(read);
+                    }
+                }
+            } catch (final IOException e) {
+                if (mActive) {
+                    mHandler.post(new AppendThrowable(e));
+                }
+            }
+        }
+
+        /**
+         * Parses the entry in mBuffer: the priority, then the tag and the
+         * message, each ending with a zero. The message is only decoded if
+         * the filter takes the entry, and is split into lines.
+         */
+        private void parseEntry(int read) {
+            LogFilter filter = mFilter;
+            int priority = mBuffer.get(HEADER_SIZE);
+            if (!filter.takesPriority(priority)) {
+                return;
+            }
 
-                    logger.write("Updating UI.\n".getBytes());
-                    handler.post(new AppendCharacters(builder));
-                    builder = new StringBuilder();
+            int length = Math.min(mBuffer.getShort(0) & 0xffff, read - HEADER_SIZE) - 1;
+            if (length <= 0) {
+                return;
+            }
+            int pid = mBuffer.getInt(4);
+            mBuffer.position(HEADER_SIZE + 1);
+            mBuffer.get(mBytes, 0, length);
+
+            int tagEnd = next0(mBytes, 0, length);
+            String tag = decode(mBytes, 0, tagEnd);
+            if (!filter.takesTag(tag)) {
+                return;
+            }
 
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {}
-                } catch (final IOException e) {
-                    handler.post(new AppendThrowable(e));
+            int messageEnd = next0(mBytes, tagEnd + 1, length);
+            int start = tagEnd + 1;
+            while (start < messageEnd) {
+                int end = start;
+                while (end < messageEnd && mBytes[end] != '\n') {
+                    end++;
+                }
+                post(new LogEntry(priority, pid, tag, decode(mBytes, start, end)));
+                start = end + 1;
+            }
+        }
+
+        /**
+         * Queues an entry for the UI thread, and schedules an update of the
+         * list unless one is already due.
+         */
+        private void post(LogEntry entry) {
+            synchronized (mPending) {
+                mPending.add(entry);
+                if (!mUpdatePosted) {
+                    mUpdatePosted = true;
+                    mHandler.postDelayed(mUpdate, UPDATE_DELAY_MS);
                 }
             }
         }
     }
 
-    static int next0(byte[] bytes, int start) {
-        for (int current = start; current < bytes.length; current++) {
+    static int next0(byte[] bytes, int start, int end) {
+        for (int current = start; current < end; current++) {
             if (bytes[current] == 0)
                 return current;
         }
-        return bytes.length;
+        return end;
+    }
+
+    static String decode(byte[] bytes, int start, int end) {
+        try {
+            return new String(bytes, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
     }
 
+    /**
+     * Moves the entries the reader queued into the ring the list shows.
+     */
+    private final Runnable mUpdate = new Runnable() {
+        public void run() {
+            synchronized (mPending) {
+                for (int i = 0; i < mPending.size(); i++) {
+                    mEntries.add(mPending.get(i));
+                }
+                mPending.clear();
+                mUpdatePosted = false;
+            }
+            mAdapter.notifyDataSetChanged();
+        }
+    };
+
     private class AppendThrowable implements Runnable {
 
         private final Throwable t;
@@ -149,21 +345,39 @@ public class LogViewer extends Activity {
         }
     }
 
-    private class AppendCharacters implements Runnable {
+    private class LogAdapter extends ArrayAdapter<LogEntry> {
+        private final StringBuilder mBuilder = new StringBuilder();
 
-        private final CharSequence message;
-
-        public AppendCharacters(CharSequence message) {
-            this.message = message;
+        public LogAdapter() {
+            super(LogViewer.this, R.layout.log_viewer_item);
         }
 
-        public void run() {
-            text.getText().append(message);
-//            try {
-//                logger.write(builder.toString().getBytes());
-//            } catch (IOException e) {
-//                appendThrowable(e);
-//            }
+        @Override
+        public void bindView(View view, LogEntry entry) {
+            // brief format, as logcat prints it: I/Tag(  123): message
+            StringBuilder builder = mBuilder;
+            builder.setLength(0);
+            builder.append(PRIORITIES.charAt(entry.priority & 7)).append('/')
+                    .append(entry.tag).append('(');
+            for (int pid = entry.pid, width = 10000; width > 1 && pid < width; width /= 10) {
+                builder.append(' ');
+            }
+            builder.append(entry.pid).append("): ").append(entry.message);
+
+            TextView text = (TextView) view;
+            text.setText(builder.toString());
+            text.setTextColor(PRIORITY_COLORS[entry.priority & 7]);
         }
     }
+
+    private Handler mHandler;
+    private LogAdapter mAdapter;
+    private EditText mTagFilter;
+    private LogReader mReader;
+    private volatile LogFilter mFilter = new LogFilter(Log.VERBOSE, new HashSet<String>());
+    // read by the list, on the UI thread only
+    private final LogRing<LogEntry> mEntries = new LogRing<LogEntry>(MAX_ENTRIES);
+    // filled by the reader, guarded by itself
+    private final LogRing<LogEntry> mPending = new LogRing<LogEntry>(MAX_ENTRIES);
+    private boolean mUpdatePosted;
 }
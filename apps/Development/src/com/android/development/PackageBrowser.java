@@ -21,9 +21,7 @@ import android.app.ListActivity;
 import android.content.Context;
 import android.content.pm.IPackageDeleteObserver;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.BroadcastReceiver;
-import android.content.pm.PackageInfo;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.RemoteException;
@@ -35,94 +33,88 @@ import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
-public class PackageBrowser extends ListActivity {
-    static class MyPackageInfo {
-        PackageInfo info;
-        String label;
-    }
-    
+public class PackageBrowser extends ListActivity
+        implements PackageIndex.Listener, PackageLoader.Callback {
     private PackageListAdapter mAdapter;
-    private List<MyPackageInfo> mPackageInfoList = new ArrayList<MyPackageInfo>();
+    private List<PackageLoader.Entry> mPackageInfoList = new ArrayList<PackageLoader.Entry>();
     private Handler mHandler;
-    private BroadcastReceiver mRegisteredReceiver;
+    private PackageIndex mPackageIndex;
+    private PackageLoader mPackageLoader;
+    private Drawable mDefaultIcon;
+    private boolean mRefreshPending;
 
-    public class PackageListAdapter extends ArrayAdapter<MyPackageInfo> {
+    public class PackageListAdapter extends ArrayAdapter<PackageLoader.Entry> {
 
         public PackageListAdapter(Context context) {
             super(context, R.layout.package_list_item);
-            List<PackageInfo> pkgs = context.getPackageManager().getInstalledPackages(0);
-            for (int i=0; i<pkgs.size(); i++) {
-                MyPackageInfo info = new MyPackageInfo();
-                info.info = pkgs.get(i);
-                info.label = info.info.applicationInfo.loadLabel(getPackageManager()).toString();
-                mPackageInfoList.add(info);
-            }
-            if (mPackageInfoList != null) {
-                Collections.sort(mPackageInfoList, sDisplayNameComparator);
-            }
             setSource(mPackageInfoList);
         }
     
         @Override
-        public void bindView(View view, MyPackageInfo info) {
+        public void bindView(View view, PackageLoader.Entry info) {
             ImageView icon = (ImageView)view.findViewById(R.id.icon);
             TextView name = (TextView)view.findViewById(R.id.name);
             TextView description = (TextView)view.findViewById(R.id.description);
-            icon.setImageDrawable(info.info.applicationInfo.loadIcon(getPackageManager()));
+            Drawable drawable = mPackageLoader.getIcon(info.info, PackageBrowser.this);
+            icon.setImageDrawable(drawable != null ? drawable : mDefaultIcon);
             name.setText(info.label);
             description.setText(info.info.packageName);
         }
     }
 
-    /**
-     * Receives notifications when applications are added/removed.
-     */
-    private class ApplicationsIntentReceiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            // todo: this is a bit brute force.  We should probably get the action and package name
-            //       from the intent and just add to or delete from the mPackageInfoList
-            setupAdapter();
-        }
-    }
-
-    private final static Comparator<MyPackageInfo> sDisplayNameComparator
-            = new Comparator<MyPackageInfo>() {
-        public final int
-        compare(MyPackageInfo a, MyPackageInfo b) {
-            return collator.compare(a.label, b.label);
-        }
-
-        private final Collator   collator = Collator.getInstance();
-    };
-
     @Override
     protected void onCreate(Bundle icicle) {
         super.onCreate(icicle);
-        setupAdapter();
         mHandler= new Handler();
-        registerIntentReceivers();
+        mDefaultIcon = getPackageManager().getDefaultActivityIcon();
+        mAdapter = new PackageListAdapter(this);
+        setListAdapter(mAdapter);
+        // the list is filled in, a page of labels at a time, once the package
+        // index is built, and again whenever applications are added or removed
+        mPackageLoader = PackageLoader.get(this);
+        mPackageIndex = PackageIndex.get(this);
+        mPackageIndex.addListener(this);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (mRegisteredReceiver != null) {
-            unregisterReceiver(mRegisteredReceiver);
-        }
+        mPackageIndex.removeListener(this);
+        mPackageLoader.cancel(this);
+        mHandler.removeCallbacks(mRefresh);
     }
 
-    private void setupAdapter() {
-        mAdapter = new PackageListAdapter(this);
-        setListAdapter(mAdapter);
+    public void onPackagesIndexed(PackageIndex.Snapshot snapshot) {
+        // the labels still cached come back in the first page, so the list
+        // is only empty for a moment
+        mPackageInfoList.clear();
+        mAdapter.notifyDataSetChanged();
+        mPackageLoader.load(snapshot.getPackages(), this);
     }
 
+    public void onPackagesLoaded(List<PackageLoader.Entry> page) {
+        PackageLoader.addByLabel(mPackageInfoList, 0, page);
+        mAdapter.notifyDataSetChanged();
+    }
+
+    public void onIconLoaded(String packageName) {
+        // icons tend to come in bursts, a row each
+        if (!mRefreshPending) {
+            mRefreshPending = true;
+            mHandler.post(mRefresh);
+        }
+    }
+
+    private final Runnable mRefresh = new Runnable() {
+        public void run() {
+            mRefreshPending = false;
+            mAdapter.notifyDataSetChanged();
+        }
+    };
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         menu.add(0, 0, 0, "Delete package").setOnMenuItemClickListener(
@@ -139,15 +131,15 @@ public class PackageBrowser extends ListActivity {
         final int curSelection = getSelectedItemPosition();
         if (curSelection >= 0) {
             // todo: verification dialog for package deletion
-            final MyPackageInfo packageInfo = mAdapter.itemForPosition(curSelection);
+            final PackageLoader.Entry packageInfo = mAdapter.itemForPosition(curSelection);
             if (packageInfo != null) {
                 getPackageManager().deletePackage(packageInfo.info.packageName,
                                                   new IPackageDeleteObserver.Stub() {
                     public void packageDeleted(boolean succeeded) throws RemoteException {
                         if (succeeded) {
-                            mPackageInfoList.remove(curSelection);
                             mHandler.post(new Runnable() {
                                     public void run() {
+                                        mPackageInfoList.remove(packageInfo);
                                         mAdapter.notifyDataSetChanged();
                                     }
                                 });
@@ -174,18 +166,9 @@ public class PackageBrowser extends ListActivity {
         }
     }
 
-    private void registerIntentReceivers() {
-        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
-        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
-        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
-        filter.addDataScheme("package");
-        mRegisteredReceiver = new ApplicationsIntentReceiver();
-        registerReceiver(mRegisteredReceiver, filter);
-    }
-
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
-        MyPackageInfo info =
+        PackageLoader.Entry info =
             mAdapter.itemForPosition(position);
         if (info != null) {
             Intent intent = new Intent(
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.development;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The installed packages, indexed by name, by the permissions they request
+ * and by user id, shared by the activities that browse packages and
+ * permissions.
+ * <p>
+ * The index is built on a background thread, once, and again whenever a
+ * package is added, removed or changed. Listeners hear about each new
+ * {@link Snapshot} on the main thread; a snapshot never changes, so they
+ * may keep it and look things up in it from the main thread at no cost.
+ */
+final class PackageIndex {
+
+    /**
+     * Told about each snapshot, on the main thread.
+     */
+    interface Listener {
+        void onPackagesIndexed(Snapshot snapshot);
+    }
+
+    /**
+     * The installed packages at one point in time.
+     */
+    static final class Snapshot {
+        private static final PackageInfo[] NO_PACKAGES = new PackageInfo[0];
+
+        private final List<PackageInfo> mPackages;
+        private final HashMap<String, PackageInfo> mByName;
+        private final HashMap<String, PackageInfo[]> mByPermission;
+        private final HashMap<Integer, String[]> mByUid;
+
+        Snapshot(List<PackageInfo> packages) {
+            mPackages = Collections.unmodifiableList(packages);
+            mByName = new HashMap<String, PackageInfo>();
+
+            HashMap<String, ArrayList<PackageInfo>> byPermission =
+                    new HashMap<String, ArrayList<PackageInfo>>();
+            HashMap<Integer, ArrayList<String>> byUid = new HashMap<Integer, ArrayList<String>>();
+            for (PackageInfo pkg : packages) {
+                mByName.put(pkg.packageName, pkg);
+                if (pkg.applicationInfo != null) {
+                    Integer uid = pkg.applicationInfo.uid;
+                    ArrayList<String> names = byUid.get(uid);
+                    if (names == null) {
+                        names = new ArrayList<String>(1);
+                        byUid.put(uid, names);
+                    }
+                    names.add(pkg.packageName);
+                }
+                if (pkg.requestedPermissions == null) {
+                    continue;
+                }
+                for (String perm : pkg.requestedPermissions) {
+                    String key = permissionKey(perm);
+                    ArrayList<PackageInfo> requesters = byPermission.get(key);
+                    if (requesters == null) {
+                        requesters = new ArrayList<PackageInfo>();
+                        byPermission.put(key, requesters);
+                    }
+                    // a package may list a permission twice
+                    if (requesters.isEmpty() || requesters.get(requesters.size() - 1) != pkg) {
+                        requesters.add(pkg);
+                    }
+                }
+            }
+
+            mByPermission = new HashMap<String, PackageInfo[]>(byPermission.size() * 2);
+            for (String key : byPermission.keySet()) {
+                ArrayList<PackageInfo> requesters = byPermission.get(key);
+                mByPermission.put(key, requesters.toArray(new PackageInfo[requesters.size()]));
+            }
+            mByUid = new HashMap<Integer, String[]>(byUid.size() * 2);
+            for (Integer uid : byUid.keySet()) {
+                ArrayList<String> names = byUid.get(uid);
+                String[] group = names.toArray(new String[names.size()]);
+                Arrays.sort(group);
+                mByUid.put(uid, group);
+            }
+        }
+
+        /**
+         * All the installed packages, with their requested permissions.
+         */
+        List<PackageInfo> getPackages() {
+            return mPackages;
+        }
+
+        PackageInfo getPackage(String packageName) {
+            return mByName.get(packageName);
+        }
+
+        /**
+         * The packages requesting a permission; the name is matched without
+         * regard to case. Don't change the array.
+         */
+        PackageInfo[] getPackagesRequesting(String permission) {
+            PackageInfo[] requesters = mByPermission.get(permissionKey(permission));
+            return requesters != null ? requesters : NO_PACKAGES;
+        }
+
+        /**
+         * The names of the packages running as a user id, sorted; more than
+         * one if they share it. Don't change the array.
+         */
+        String[] getPackagesForUid(int uid) {
+            return mByUid.get(uid);
+        }
+
+        private static String permissionKey(String permission) {
+            return permission.toLowerCase(Locale.US);
+        }
+    }
+
+    private static PackageIndex sInstance;
+
+    static synchronized PackageIndex get(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PackageIndex(Context context) {
+        mContext = context;
+        mHandler = new Handler(Looper.getMainLooper());
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+
+    /**
+     * Adds a listener, which is told about the current snapshot right away
+     * if there is one, and about every snapshot after that. Call on the
+     * main thread.
+     */
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+        if (mSnapshot != null) {
+            listener.onPackagesIndexed(mSnapshot);
+        }
+        if (mSnapshot == null || mStale) {
+            startBuild();
+        }
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Drops the current snapshot for a new one, which is built now if
+     * anyone is listening and otherwise when someone next does.
+     */
+    void invalidate() {
+        mStale = true;
+        if (!mListeners.isEmpty()) {
+            startBuild();
+        }
+    }
+
+    private void startBuild() {
+        if (mBuilding) {
+            // the build under way picks up the latest packages when it ends
+            return;
+        }
+        mBuilding = true;
+        mStale = false;
+        new Thread("PackageIndex") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                List<PackageInfo> packages = mContext.getPackageManager()
+                        .getInstalledPackages(PackageManager.GET_PERMISSIONS);
+                final Snapshot snapshot = new Snapshot(packages);
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        publish(snapshot);
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private void publish(Snapshot snapshot) {
+        mSnapshot = snapshot;
+        mBuilding = false;
+        if (mStale) {
+            startBuild();
+        }
+        // a listener may remove itself when told
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onPackagesIndexed(snapshot);
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    // the rest is used on the main thread only
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private Snapshot mSnapshot;
+    private boolean mBuilding;
+    private boolean mStale;
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.development;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the labels and icons of installed packages on a background thread
+ * for the activities that list packages, so a list can show at once and
+ * fill in as they come.
+ * <p>
+ * Labels are handed to the main thread a page at a time. Icons are loaded
+ * when a row first asks for one, the latest request first, as the rows
+ * asked for earlier may have scrolled away. Both are kept in LRU caches
+ * shared by all the lists, keyed by package name and version code, and a
+ * package's are dropped when it is added, removed or changed.
+ */
+final class PackageLoader {
+    private static final String TAG = "PackageLoader";
+
+    // labels to load before handing a page over; cached ones are free
+    private static final int PAGE_SIZE = 20;
+    private static final int MAX_LABELS = 1000;
+    // icons hold bitmaps, so keep only a few screenfuls
+    private static final int MAX_ICONS = 64;
+    private static final int MAX_ICON_REQUESTS = 32;
+
+    /**
+     * A package and its label.
+     */
+    static final class Entry {
+        final PackageInfo info;
+        final String label;
+
+        Entry(PackageInfo info, String label) {
+            this.info = info;
+            this.label = label;
+        }
+    }
+
+    /**
+     * Told about what has been loaded, on the main thread.
+     */
+    interface Callback {
+        /**
+         * More of the packages given to {@link PackageLoader#load}, in no
+         * particular order.
+         */
+        void onPackagesLoaded(List<Entry> page);
+
+        /**
+         * The icon of a package that {@link PackageLoader#getIcon} didn't
+         * have is now cached.
+         */
+        void onIconLoaded(String packageName);
+    }
+
+    /**
+     * Inserts a page of entries into a list sorted by label, from start on.
+     */
+    static void addByLabel(List<Entry> entries, int start, List<Entry> page) {
+        List<Entry> sorted = entries.subList(start, entries.size());
+        for (Entry entry : page) {
+            int i = Collections.binarySearch(sorted, entry, sLabelComparator);
+            sorted.add(i < 0 ? -i - 1 : i, entry);
+        }
+    }
+
+    private static final Comparator<Entry> sLabelComparator = new Comparator<Entry>() {
+        public final int compare(Entry a, Entry b) {
+            return collator.compare(a.label, b.label);
+        }
+
+        private final Collator collator = Collator.getInstance();
+    };
+
+    private static PackageLoader sInstance;
+
+    static synchronized PackageLoader get(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PackageLoader(Context context) {
+        mPackageManager = context.getPackageManager();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                if (data != null) {
+                    forget(data.getSchemeSpecificPart());
+                }
+            }
+        }, filter);
+    }
+
+    /**
+     * Loads the labels of some packages for a callback, in place of any
+     * load it had going. The callback is held, to be told about the icons
+     * it asks for too, until it is cancelled. Call on the main thread.
+     */
+    void load(List<PackageInfo> packages, Callback callback) {
+        Job job = mJobs.get(callback);
+        if (job != null) {
+            job.mCancelled = true;
+        }
+        job = new Job(packages, callback);
+        mJobs.put(callback, job);
+        mHandler.post(job);
+    }
+
+    /**
+     * Stops loading labels and icons for a callback and lets it go. Call
+     * on the main thread.
+     */
+    void cancel(Callback callback) {
+        Job job = mJobs.remove(callback);
+        if (job != null) {
+            job.mCancelled = true;
+        }
+        synchronized (mIconRequests) {
+            for (Iterator<IconRequest> it = mIconRequests.iterator(); it.hasNext(); ) {
+                if (it.next().callback == callback) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * The icon of a package if it is cached. If not, returns null, loads
+     * the icon and tells the callback when it has. Call on the main thread.
+     */
+    Drawable getIcon(PackageInfo info, Callback callback) {
+        Drawable icon;
+        synchronized (mIcons) {
+            icon = mIcons.get(cacheKey(info));
+        }
+        if (icon != null) {
+            // a drawable can only be in one view at a time
+            Drawable.ConstantState state = icon.getConstantState();
+            return state != null ? state.newDrawable() : icon;
+        }
+
+        synchronized (mIconRequests) {
+            for (Iterator<IconRequest> it = mIconRequests.iterator(); it.hasNext(); ) {
+                IconRequest request = it.next();
+                if (request.callback == callback
+                        && request.info.packageName.equals(info.packageName)) {
+                    it.remove();
+                }
+            }
+            mIconRequests.add(new IconRequest(info, callback));
+            if (mIconRequests.size() > MAX_ICON_REQUESTS) {
+                mIconRequests.remove(0);
+            }
+            if (!mLoadingIcons) {
+                mLoadingIcons = true;
+                mHandler.post(mLoadIcon);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads the labels of a list of packages, a page at a time, giving the
+     * icons asked for in the meantime a turn between pages.
+     */
+    private final class Job implements Runnable {
+        final List<PackageInfo> mPackages;
+        final Callback mCallback;
+        int mNext;
+        volatile boolean mCancelled;
+
+        Job(List<PackageInfo> packages, Callback callback) {
+            mPackages = packages;
+            mCallback = callback;
+        }
+
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final ArrayList<Entry> page = new ArrayList<Entry>();
+            int loaded = 0;
+            while (mNext < mPackages.size() && loaded < PAGE_SIZE) {
+                PackageInfo info = mPackages.get(mNext++);
+                String key = cacheKey(info);
+                String label;
+                synchronized (mLabels) {
+                    label = mLabels.get(key);
+                }
+                if (label == null) {
+                    label = loadLabel(info);
+                    loaded++;
+                    synchronized (mLabels) {
+                        mLabels.put(key, label);
+                    }
+                }
+                page.add(new Entry(info, label));
+            }
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onPackagesLoaded(page);
+                    }
+                }
+            });
+            if (mNext < mPackages.size()) {
+                mHandler.post(this);
+            }
+        }
+    }
+
+    private static final class IconRequest {
+        final PackageInfo info;
+        final Callback callback;
+
+        IconRequest(PackageInfo info, Callback callback) {
+            this.info = info;
+            this.callback = callback;
+        }
+    }
+
+    private final Runnable mLoadIcon = new Runnable() {
+        public void run() {
+            final IconRequest request;
+            synchronized (mIconRequests) {
+                if (mIconRequests.isEmpty()) {
+                    mLoadingIcons = false;
+                    return;
+                }
+                request = mIconRequests.remove(mIconRequests.size() - 1);
+            }
+            String key = cacheKey(request.info);
+            boolean cached;
+            synchronized (mIcons) {
+                cached = mIcons.containsKey(key);
+            }
+            if (!cached) {
+                Drawable icon = loadIcon(request.info);
+                synchronized (mIcons) {
+                    mIcons.put(key, icon);
+                }
+            }
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    if (mJobs.containsKey(request.callback)) {
+                        request.callback.onIconLoaded(request.info.packageName);
+                    }
+                }
+            });
+            // one at a time, so the pages of labels get their turns
+            mHandler.post(this);
+        }
+    };
+
+    private String loadLabel(PackageInfo info) {
+        if (info.applicationInfo == null) {
+            return info.packageName;
+        }
+        return info.applicationInfo.loadLabel(mPackageManager).toString();
+    }
+
+    private Drawable loadIcon(PackageInfo info) {
+        if (info.applicationInfo == null) {
+            return mPackageManager.getDefaultActivityIcon();
+        }
+        return info.applicationInfo.loadIcon(mPackageManager);
+    }
+
+    /**
+     * Drops the cached label and icon of a package, whatever its version.
+     */
+    private void forget(String packageName) {
+        String prefix = packageName + '@';
+        synchronized (mLabels) {
+            removeKeys(mLabels, prefix);
+        }
+        synchronized (mIcons) {
+            removeKeys(mIcons, prefix);
+        }
+    }
+
+    private static void removeKeys(Map<String, ?> map, String prefix) {
+        for (Iterator<String> it = map.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String cacheKey(PackageInfo info) {
+        return info.packageName + '@' + info.versionCode;
+    }
+
+    /**
+     * A map that drops its least recently used entries beyond a size.
+     */
+    private static final class LruMap<V> extends LinkedHashMap<String, V> {
+        private final int mMaxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            mMaxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > mMaxSize;
+        }
+    }
+
+    private final PackageManager mPackageManager;
+    private final Handler mMainHandler;
+    private final Handler mHandler;
+    private final LruMap<String> mLabels = new LruMap<String>(MAX_LABELS);
+    private final LruMap<Drawable> mIcons = new LruMap<Drawable>(MAX_ICONS);
+    // the latest request is at the end
+    private final ArrayList<IconRequest> mIconRequests = new ArrayList<IconRequest>();
+    private boolean mLoadingIcons;
+    // used on the main thread only
+    private final HashMap<Callback, Job> mJobs = new HashMap<Callback, Job>();
+}
@@ -40,9 +40,10 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 
-public class PackageSummary extends Activity {
+public class PackageSummary extends Activity implements PackageIndex.Listener {
 
     String mPackageName;
+    private PackageIndex mPackageIndex;
     private TextView mPackage;
     private ImageView mIconImage;
     private TextView mClass;
@@ -59,6 +60,7 @@ public class PackageSummary extends Activity {
     private TextView mUid;
     private TextView mSource;
     private TextView mData;
+    private LinearLayout mPermissions;
 
     @Override
     protected void onCreate(Bundle icicle) {
@@ -84,6 +86,7 @@ public class PackageSummary extends Activity {
         mProcess = (TextView)findViewById(R.id.process);
         mSource = (TextView)findViewById(R.id.source);
         mData = (TextView)findViewById(R.id.data);
+        mPermissions = (LinearLayout)findViewById(R.id.permissions);
 
         mPackageName = getIntent().getData().getSchemeSpecificPart();
         PackageInfo info = null;
@@ -241,6 +244,11 @@ public class PackageSummary extends Activity {
                 instrumentation.setVisibility(View.GONE);
             }
 
+            // the requested permissions and the packages sharing the user id
+            // are filled in from the package index, once it is built
+            mPermissions.setVisibility(View.GONE);
+            mPackageIndex = PackageIndex.get(this);
+            mPackageIndex.addListener(this);
         }
         
         // Put focus here, so a button doesn't get focus and cause the
@@ -248,12 +256,78 @@ public class PackageSummary extends Activity {
         mPackage.requestFocus();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mPackageIndex != null) {
+            mPackageIndex.removeListener(this);
+        }
+    }
+
+    public void onPackagesIndexed(PackageIndex.Snapshot snapshot) {
+        PackageInfo info = snapshot.getPackage(mPackageName);
+        if (info == null || info.applicationInfo == null) {
+            return;
+        }
+
+        int uid = info.applicationInfo.uid;
+        String[] shared = snapshot.getPackagesForUid(uid);
+        if (shared != null && shared.length > 1) {
+            StringBuilder text = new StringBuilder();
+            text.append(uid).append(" (shared with");
+            for (String name : shared) {
+                if (!name.equals(mPackageName)) {
+                    text.append(' ').append(name);
+                }
+            }
+            mUid.setText(text.append(')'));
+        } else {
+            mUid.setText(Integer.toString(uid));
+        }
+
+        // keep the header, drop the permissions of an earlier snapshot
+        mPermissions.removeViews(1, mPermissions.getChildCount() - 1);
+        if (info.requestedPermissions == null) {
+            mPermissions.setVisibility(View.GONE);
+            return;
+        }
+        final LayoutInflater inflate =
+            (LayoutInflater)getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.WRAP_CONTENT,
+            LinearLayout.LayoutParams.WRAP_CONTENT);
+        for (String perm : info.requestedPermissions) {
+            Button view = (Button)inflate.inflate(
+                R.layout.package_item, null, false);
+            int requesters = snapshot.getPackagesRequesting(perm).length;
+            view.setText(perm.substring(perm.lastIndexOf('.')+1)
+                    + " (" + requesters + (requesters == 1 ? " package)" : " packages)"));
+            view.setOnClickListener(new PermissionOnClick(perm));
+            mPermissions.addView(view, lp);
+        }
+        mPermissions.setVisibility(View.VISIBLE);
+    }
+
     private final static void setItemText(Button item, PackageInfo pi,
                                           String className)
     {
         item.setText(className.substring(className.lastIndexOf('.')+1));
     }
 
+    private final class PermissionOnClick implements View.OnClickListener
+    {
+        private final String mPermission;
+        PermissionOnClick(String permission) {
+            mPermission = permission;
+        }
+
+        public void onClick(View v) {
+            Intent intent = new Intent("com.android.development.VIEW_PERMISSION");
+            intent.putExtra("permission", mPermission);
+            startActivity(intent);
+        }
+    }
+
     private final class ActivityOnClick implements View.OnClickListener
     {
         private final ComponentName mClassName;
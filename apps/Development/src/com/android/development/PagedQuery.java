@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.development;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The rows of a content provider query, read a page at a time on a
+ * background thread, with only the pages around those last asked for kept
+ * in memory.
+ * <p>
+ * Where the provider takes it, each page is a query of its own, for the
+ * rows after the last _id of the page before, in _id order, with a LIMIT
+ * tacked on to the sort order. Providers that reject that, ignore the
+ * LIMIT on the first page or have no _id are queried once, as they were
+ * asked, and the pages are read from that cursor, which fills its own
+ * window as it goes. So are providers that turn down or ignore the _id
+ * selection on a later page; the pages read by _id are dropped then, and
+ * read again from the cursor. Either way the main thread never waits on
+ * the provider: a row that isn't in memory yet is loaded, and the callback
+ * told when it is.
+ * <p>
+ * When paging by _id the number of rows isn't known up front; it grows
+ * as the pages past the last one known are asked for.
+ */
+final class PagedQuery {
+    private static final String TAG = "PagedQuery";
+
+    static final int PAGE_SIZE = 50;
+    // pages kept in memory, the least recently used dropped first
+    private static final int MAX_PAGES = 8;
+
+    private static final String ID = "_id";
+
+    private static final int MODE_UNKNOWN = 0;
+    private static final int MODE_KEYSET = 1;
+    private static final int MODE_CURSOR = 2;
+
+    /**
+     * Told, on the main thread, when rows have been loaded or the number of
+     * them has changed.
+     */
+    interface Callback {
+        void onRowsChanged();
+    }
+
+    /**
+     * Some rows, as read on the loader thread.
+     */
+    private static final class Page {
+        final int index;
+        // the _id the page's rows come after, when paging by _id
+        final long after;
+        String[] columns;
+        String[][] rows;
+        long[] ids;
+        // the rows in all, when reading a page at a time from one cursor
+        int count = -1;
+
+        Page(int index, long after) {
+            this.index = index;
+            this.after = after;
+        }
+
+        long lastId() {
+            return ids.length > 0 ? ids[ids.length - 1] : after;
+        }
+    }
+
+    PagedQuery(ContentResolver resolver, Uri uri, Callback callback) {
+        mResolver = resolver;
+        mUri = uri;
+        mCallback = callback;
+        mMainHandler = new Handler();
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        request(0);
+    }
+
+    /**
+     * The names of the columns, null until the first page is loaded.
+     */
+    String[] getColumnNames() {
+        return mColumns;
+    }
+
+    /**
+     * The rows known so far.
+     */
+    int getCount() {
+        if (mCount >= 0) {
+            return mCount;
+        }
+        return mPageCount == 0 ? 0 : (mPageCount - 1) * PAGE_SIZE + mLastPageSize;
+    }
+
+    /**
+     * The values of a row, as strings. Null if the row isn't in memory;
+     * it is loaded then, and the callback told when it has been.
+     */
+    String[] getRow(int position) {
+        int index = position / PAGE_SIZE;
+        Page page = mWindow.get(index);
+        if (page == null) {
+            request(index);
+            return null;
+        }
+        int i = position % PAGE_SIZE;
+        if (mCount < 0 && !mComplete && index == mPageCount - 1 && i >= PAGE_SIZE / 2) {
+            // nearing the end of what is known; find out what comes next
+            request(mPageCount);
+        }
+        return i < page.rows.length ? page.rows[i] : null;
+    }
+
+    /**
+     * The _id of a row, or -1 if it is not in memory or has none.
+     */
+    long getId(int position) {
+        Page page = mWindow.get(position / PAGE_SIZE);
+        int i = position % PAGE_SIZE;
+        if (page == null || page.ids == null || i >= page.ids.length) {
+            return -1;
+        }
+        return page.ids[i];
+    }
+
+    /**
+     * Reloads the pages in memory, after the provider's data has changed.
+     * Rows added after the last page known show up as it is reloaded.
+     */
+    void refresh() {
+        if (mMode == MODE_CURSOR) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    closeCursor();
+                }
+            });
+        }
+        ArrayList<Integer> indexes = new ArrayList<Integer>(mWindow.keySet());
+        // the last page known, for the rows added after it
+        int last = Math.max(0, mPageCount - 1);
+        if (mMode != MODE_CURSOR && !indexes.contains(last)) {
+            indexes.add(last);
+        }
+        Collections.sort(indexes);
+        for (Integer index : indexes) {
+            load(index);
+        }
+    }
+
+    /**
+     * Closes the query and lets the loader thread go.
+     */
+    void quit() {
+        mQuit = true;
+        mHandler.post(new Runnable() {
+            public void run() {
+                closeCursor();
+                Looper.myLooper().quit();
+            }
+        });
+    }
+
+    private void request(int index) {
+        if (!mRequested.contains(index)) {
+            load(index);
+        }
+    }
+
+    private void load(final int index) {
+        final long after;
+        if (mMode == MODE_KEYSET) {
+            if (index > mPageCount) {
+                return;
+            }
+            after = mAfter[index];
+        } else {
+            after = Long.MIN_VALUE;
+        }
+        mRequested.add(index);
+        mHandler.post(new Runnable() {
+            public void run() {
+                final Page page = readPage(index, after);
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        mRequested.remove(index);
+                        if (!mQuit) {
+                            addPage(page);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void addPage(Page page) {
+        if (page.count < 0 && mMode == MODE_CURSOR) {
+            // read by _id before the loader gave up on that
+            return;
+        }
+        if (mColumns == null) {
+            mColumns = page.columns;
+        }
+        if (page.count >= 0) {
+            if (mMode == MODE_KEYSET) {
+                // the loader gave up paging by _id; the rows come from one
+                // cursor now, in its order
+                mWindow.clear();
+            }
+            mMode = MODE_CURSOR;
+            mCount = page.count;
+            mComplete = true;
+        } else {
+            mMode = MODE_KEYSET;
+            if (page.index > mPageCount || mAfter[page.index] != page.after) {
+                // the pages before it have changed since it was asked for
+                return;
+            }
+            int size = page.rows.length;
+            if (page.index == mPageCount || size < PAGE_SIZE
+                    || page.lastId() != mAfter[page.index + 1]) {
+                // the pages after this one, if any, no longer follow it
+                mPageCount = page.index + 1;
+                if (mAfter.length <= mPageCount) {
+                    long[] after = new long[mAfter.length * 2];
+                    System.arraycopy(mAfter, 0, after, 0, mAfter.length);
+                    mAfter = after;
+                }
+                mAfter[mPageCount] = page.lastId();
+                mLastPageSize = size;
+                mComplete = size < PAGE_SIZE;
+                for (Iterator<Integer> it = mWindow.keySet().iterator(); it.hasNext(); ) {
+                    if (it.next() > page.index) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        mWindow.put(page.index, page);
+        mCallback.onRowsChanged();
+    }
+
+    // the rest runs on the loader thread
+
+    private Page readPage(int index, long after) {
+        Page page = new Page(index, after);
+        if (mLoaderMode == MODE_UNKNOWN) {
+            Cursor cursor = queryAfter(after);
+            if (cursor != null && cursor.getColumnIndex(ID) >= 0
+                    && cursor.getCount() <= PAGE_SIZE) {
+                mLoaderMode = MODE_KEYSET;
+                readRows(page, cursor, cursor.getCount());
+                cursor.close();
+                return page;
+            }
+            mLoaderMode = MODE_CURSOR;
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (mLoaderMode == MODE_KEYSET) {
+            Cursor cursor = queryAfter(after);
+            if (cursor != null) {
+                // a provider may ignore the LIMIT past the first page
+                readRows(page, cursor, Math.min(PAGE_SIZE, cursor.getCount()));
+                cursor.close();
+                if (followsAfter(page)) {
+                    return page;
+                }
+            }
+            // the provider turned the selection down, or ignored it
+            Log.i(TAG, "Can't page " + mUri + " by " + ID + " past " + after
+                    + ", reading it from one cursor");
+            mLoaderMode = MODE_CURSOR;
+            page = new Page(index, after);
+        }
+
+        if (mCursor == null) {
+            mCursor = mResolver.query(mUri, null, null, null, null);
+        }
+        if (mCursor == null) {
+            page.columns = new String[0];
+            page.rows = new String[0][];
+            page.count = 0;
+            return page;
+        }
+        page.count = mCursor.getCount();
+        int first = index * PAGE_SIZE;
+        if (first < page.count) {
+            mCursor.moveToPosition(first - 1);
+        } else {
+            mCursor.moveToLast();
+        }
+        readRows(page, mCursor, Math.max(0, Math.min(PAGE_SIZE, page.count - first)));
+        return page;
+    }
+
+    /**
+     * Whether the rows of a page read by _id all come after its _id, as
+     * they do if the provider took the selection.
+     */
+    private static boolean followsAfter(Page page) {
+        if (page.ids == null) {
+            return false;
+        }
+        for (long id : page.ids) {
+            if (id <= page.after) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queries the page of rows after an _id, or null if the provider won't.
+     * The first page is asked for the same way, after the smallest _id
+     * there can be, so the provider is tried on the selection from the
+     * start.
+     */
+    private Cursor queryAfter(long after) {
+        String selection = ID + " > " + after;
+        try {
+            return mResolver.query(mUri, null, selection, null,
+                    ID + " LIMIT " + PAGE_SIZE);
+        } catch (RuntimeException e) {
+            // providers turn down a sort order they don't like in their own ways
+            Log.i(TAG, "Can't page " + mUri + " by " + ID + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads some rows, from after the cursor's position, into a page.
+     */
+    private void readRows(Page page, Cursor cursor, int count) {
+        page.columns = cursor.getColumnNames();
+        page.rows = new String[count][];
+        int idColumn = cursor.getColumnIndex(ID);
+        if (idColumn >= 0) {
+            page.ids = new long[count];
+        }
+        for (int i = 0; i < count && cursor.moveToNext(); i++) {
+            String[] row = new String[page.columns.length];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = cursor.getString(j);
+            }
+            page.rows[i] = row;
+            if (idColumn >= 0) {
+                page.ids[i] = cursor.getLong(idColumn);
+            }
+        }
+    }
+
+    private void closeCursor() {
+        if (mCursor != null) {
+            mCursor.close();
+            mCursor = null;
+        }
+    }
+
+    /**
+     * A map that drops its least recently used entries beyond MAX_PAGES.
+     */
+    private static final class PageMap extends LinkedHashMap<Integer, Page> {
+        PageMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final Callback mCallback;
+    private final Handler mMainHandler;
+    private final Handler mHandler;
+    // used on the main thread only
+    private final PageMap mWindow = new PageMap();
+    private final HashSet<Integer> mRequested = new HashSet<Integer>();
+    private int mMode = MODE_UNKNOWN;
+    private String[] mColumns;
+    // when paging by _id: the _id each known page's rows come after, and
+    // the one the rows of the next page will
+    private long[] mAfter = new long[] { Long.MIN_VALUE, 0 };
+    private int mPageCount;
+    private int mLastPageSize;
+    private boolean mComplete;
+    // when reading from one cursor, its rows
+    private int mCount = -1;
+    private boolean mQuit;
+    // used on the loader thread only
+    private int mLoaderMode = MODE_UNKNOWN;
+    private Cursor mCursor;
+}
@@ -19,8 +19,7 @@ package com.android.development;
 
 import com.android.development.R;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 
 import android.app.Activity;
@@ -36,9 +35,6 @@ import android.content.pm.PackageManager;
 import android.content.pm.PermissionInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -54,9 +50,12 @@ import android.widget.AdapterView.OnItemClickListener;
  * This activity displays permission details including
  * the list of apps using a permission.
  */
-public class PermissionDetails extends Activity implements OnCancelListener, OnItemClickListener {
+public class PermissionDetails extends Activity
+        implements OnCancelListener, OnItemClickListener, PackageIndex.Listener {
     private static final String TAG = "PermissionDetails";
     PackageManager mPm;
+    private PackageIndex mPackageIndex;
+    private PermissionInfo mPermInfo;
     // layout inflater object used to inflate views
     private LayoutInflater mInflater;
     private AppListAdapter mAdapter;
@@ -69,21 +68,6 @@ public class PermissionDetails extends Activity implements OnCancelListener, OnI
     private static final String PROTECTION_SIGNATURE="Signature";
     private static final String PROTECTION_SIGNATURE_OR_SYSTEM="SignatureOrSystem";
 
-    private static final String KEY_APPS_USING_PERM="AppsUsingPerm";
-
-    private static final int HANDLER_MSG_BASE = 0;
-    private static final int HANDLER_MSG_GET_APPS = HANDLER_MSG_BASE + 1;
-    private Handler mHandler = new Handler() {
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-            case HANDLER_MSG_GET_APPS:
-                ArrayList<PackageInfo> appList = msg.getData().getParcelableArrayList(KEY_APPS_USING_PERM);
-                createAppList(appList);
-                break;
-            }
-        }
-    };
-
     // View Holder used when displaying views
     static class AppViewHolder {
         TextView pkgName;
@@ -141,10 +125,6 @@ public class PermissionDetails extends Activity implements OnCancelListener, OnI
     }
 
     private void createAppList(List<PackageInfo> list) {
-        Log.i(TAG, "list.size=" + list.size());
-        for (PackageInfo pkg : list) {
-            Log.i(TAG, "Adding pkg : " +  pkg.packageName);
-        }
         ListView listView = (ListView)findViewById(android.R.id.list);
         mAdapter = new AppListAdapter(list);
         ListView lv= (ListView) findViewById(android.R.id.list);
@@ -154,29 +134,36 @@ public class PermissionDetails extends Activity implements OnCancelListener, OnI
         listView.setAdapter(mAdapter);
     }
 
-    private  void getAppsUsingPerm(PermissionInfo pInfo) {
-        List<PackageInfo> list = mPm.getInstalledPackages(PackageManager.GET_PERMISSIONS);
-        HashSet<PackageInfo> set = new HashSet<PackageInfo>();
-        for (PackageInfo pkg : list) {
-            if (pkg.requestedPermissions == null) {
-                continue;
-            }
-            for (String perm : pkg.requestedPermissions) {
-                if (perm.equalsIgnoreCase(pInfo.name)) {
-                    Log.i(TAG, "Pkg:" + pkg.packageName+" uses permission");
-                    set.add(pkg);
-                    break;
-                }
-            }
+    /**
+     * Fills in what the package index knows: the apps requesting the
+     * permission, and the packages sharing a user id with the one that
+     * defines it.
+     */
+    public void onPackagesIndexed(PackageIndex.Snapshot snapshot) {
+        createAppList(Arrays.asList(snapshot.getPackagesRequesting(mPermInfo.name)));
+
+        // List of apps acquiring access via shared user id
+        LinearLayout sharedPanel = (LinearLayout) findViewById(R.id.shared_pkgs_panel);
+        PackageInfo source = snapshot.getPackage(mPermInfo.packageName);
+        String[] sharedList = null;
+        if (source != null && source.applicationInfo != null) {
+            sharedList = snapshot.getPackagesForUid(source.applicationInfo.uid);
         }
-        ArrayList<PackageInfo> retList = new ArrayList<PackageInfo>();
-        for (PackageInfo pkg : set) {
-            retList.add(pkg);
+        if ((sharedList != null) && (sharedList.length > 1)) {
+            TextView label = (TextView) sharedPanel.findViewById(R.id.shared_pkgs_label);
+            TextView sharedView = (TextView) sharedPanel.findViewById(R.id.shared_pkgs);
+            label.setVisibility(View.VISIBLE);
+            StringBuilder buff = new StringBuilder();
+            buff.append(sharedList[0]);
+            for (int i = 1; i < sharedList.length; i++) {
+                buff.append(", ");
+                buff.append(sharedList[i]);
+            }
+            sharedView.setText(buff.toString());
+            sharedPanel.setVisibility(View.VISIBLE);
+        } else {
+            sharedPanel.setVisibility(View.GONE);
         }
-        Message msg = mHandler.obtainMessage(HANDLER_MSG_GET_APPS);
-        Bundle data = msg.getData();
-        data.putParcelableArrayList(KEY_APPS_USING_PERM, retList);
-        mHandler.dispatchMessage(msg);
     }
 
     @Override
@@ -187,6 +174,7 @@ public class PermissionDetails extends Activity implements OnCancelListener, OnI
         String permName = intent.getStringExtra("permission");
         if(permName == null) {
             showDialogInner(DLG_ERROR);
+            return;
         }
         mPm = getPackageManager();
         mInflater = (LayoutInflater)getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -196,44 +184,25 @@ public class PermissionDetails extends Activity implements OnCancelListener, OnI
                 PackageManager.GET_PERMISSIONS);
         } catch (NameNotFoundException e) {
             showDialogInner(DLG_ERROR);
+            return;
         }
+        mPermInfo = pInfo;
         setTextView(R.id.perm_name, pInfo.name);
         setTextView(R.id.perm_desc, pInfo.descriptionRes);
         setTextView(R.id.perm_group, pInfo.group);
         setProtectionLevel(R.id.perm_protection, pInfo.protectionLevel);
         setTextView(R.id.perm_source, pInfo.packageName);
-        ApplicationInfo appInfo = null;
         try {
-            appInfo =  mPm.getApplicationInfo(pInfo.packageName, 0);
+            ApplicationInfo appInfo = mPm.getApplicationInfo(pInfo.packageName, 0);
             String uidStr = mPm.getNameForUid(appInfo.uid);
             setTextView(R.id.source_uid, uidStr);
         } catch (NameNotFoundException e) {
         }
-        boolean sharedVisibility = false;
-        // List of apps acquiring access via shared user id
-        LinearLayout sharedPanel = (LinearLayout) findViewById(R.id.shared_pkgs_panel);
-        if (appInfo != null) {
-            String[] sharedList = mPm.getPackagesForUid(appInfo.uid);
-            if ((sharedList != null) && (sharedList.length > 1)) {
-                sharedVisibility = true;
-                TextView label = (TextView) sharedPanel.findViewById(R.id.shared_pkgs_label);
-                TextView sharedView = (TextView) sharedPanel.findViewById(R.id.shared_pkgs);
-                label.setVisibility(View.VISIBLE);
-                StringBuilder buff = new StringBuilder();
-                buff.append(sharedList[0]);
-                for (int i = 1; i < sharedList.length; i++) {
-                    buff.append(", ");
-                    buff.append(sharedList[i]);
-                }
-                sharedView.setText(buff.toString());
-            }
-        }
-        if (sharedVisibility) {
-            sharedPanel.setVisibility(View.VISIBLE);
-        } else {
-            sharedPanel.setVisibility(View.GONE);
-        }
-        getAppsUsingPerm(pInfo);
+        findViewById(R.id.shared_pkgs_panel).setVisibility(View.GONE);
+
+        // the lists are filled in from the package index, once it is built
+        mPackageIndex = PackageIndex.get(this);
+        mPackageIndex.addListener(this);
     }
 
     private void setProtectionLevel(int viewId, int protectionLevel) {
@@ -294,6 +263,14 @@ public class PermissionDetails extends Activity implements OnCancelListener, OnI
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mPackageIndex != null) {
+            mPackageIndex.removeListener(this);
+        }
+    }
+
     public void onCancel(DialogInterface dialog) {
         finish();
     }
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.development;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Samples the running application processes on a background thread, every
+ * so often: the CPU each used since the last sample, from /proc/pid/stat
+ * against /proc/stat, and its resident set, from /proc/pid/statm. Each
+ * sample goes to a callback on the main thread, and, while a trace is
+ * being kept, to a CSV file.
+ */
+final class ProcessSampler {
+    private static final String TAG = "ProcessSampler";
+
+    // statm counts pages
+    private static final int PAGE_KB = 4;
+    // the fields of /proc/pid/stat after the command name, from the state
+    private static final int STAT_UTIME = 14 - 3;
+    private static final int STAT_STIME = 15 - 3;
+
+    /**
+     * Told about each sample, on the main thread.
+     */
+    interface Callback {
+        void onSample(Sample sample);
+    }
+
+    /**
+     * The running processes at one time; the arrays run in parallel.
+     */
+    static final class Sample {
+        final long time;
+        final ActivityManager.RunningAppProcessInfo[] processes;
+        // percent of all the CPUs since the last sample
+        final float[] cpuPercent;
+        final int[] rssKb;
+
+        Sample(long time, int count) {
+            this.time = time;
+            processes = new ActivityManager.RunningAppProcessInfo[count];
+            cpuPercent = new float[count];
+            rssKb = new int[count];
+        }
+    }
+
+    ProcessSampler(Context context, Callback callback) {
+        mActivityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mCallback = callback;
+        mMainHandler = new Handler();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    void setInterval(int intervalMs) {
+        mIntervalMs = intervalMs;
+    }
+
+    int getInterval() {
+        return mIntervalMs;
+    }
+
+    /**
+     * Takes a sample now, and then every interval until stopped.
+     */
+    void start() {
+        mHandler.removeCallbacks(mSample);
+        mHandler.post(mSample);
+    }
+
+    void stop() {
+        mHandler.removeCallbacks(mSample);
+    }
+
+    /**
+     * Writes the samples from now on to a stream, as CSV, until the trace
+     * is stopped.
+     */
+    void startTrace(final OutputStream out) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                closeTrace();
+                mTrace = new PrintStream(out);
+                mTrace.println("time_ms,pid,process,cpu_percent,rss_kb");
+            }
+        });
+    }
+
+    void stopTrace() {
+        mHandler.post(new Runnable() {
+            public void run() {
+                closeTrace();
+            }
+        });
+    }
+
+    /**
+     * Stops sampling, closes the trace and lets the thread go.
+     */
+    void quit() {
+        stop();
+        mHandler.post(new Runnable() {
+            public void run() {
+                closeTrace();
+                Looper.myLooper().quit();
+            }
+        });
+    }
+
+    private final Runnable mSample = new Runnable() {
+        public void run() {
+            final Sample sample = sample();
+            if (sample != null) {
+                if (mTrace != null) {
+                    writeTrace(sample);
+                }
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        mCallback.onSample(sample);
+                    }
+                });
+            }
+            mHandler.postDelayed(this, mIntervalMs);
+        }
+    };
+
+    private Sample sample() {
+        List<ActivityManager.RunningAppProcessInfo> processes =
+                mActivityManager.getRunningAppProcesses();
+        if (processes == null) {
+            return null;
+        }
+        long totalTime = readTotalTime();
+        long elapsed = totalTime - mLastTotalTime;
+        mLastTotalTime = totalTime;
+        mGeneration++;
+
+        Sample sample = new Sample(System.currentTimeMillis(), processes.size());
+        for (int i = 0; i < sample.processes.length; i++) {
+            ActivityManager.RunningAppProcessInfo process = processes.get(i);
+            sample.processes[i] = process;
+
+            long[] last = mLastTimes.get(process.pid);
+            if (last == null) {
+                last = new long[2];
+                // nothing to measure against until the next sample
+                last[0] = -1;
+                mLastTimes.put(process.pid, last);
+            }
+            long time = readProcessTime(process.pid);
+            if (last[0] >= 0 && time >= last[0] && elapsed > 0) {
+                sample.cpuPercent[i] = 100f * (time - last[0]) / elapsed;
+            }
+            last[0] = time;
+            last[1] = mGeneration;
+            sample.rssKb[i] = readRssKb(process.pid);
+        }
+
+        // forget the processes that are gone
+        for (Iterator<long[]> it = mLastTimes.values().iterator(); it.hasNext(); ) {
+            if (it.next()[1] != mGeneration) {
+                it.remove();
+            }
+        }
+        return sample;
+    }
+
+    private void writeTrace(Sample sample) {
+        for (int i = 0; i < sample.processes.length; i++) {
+            String name = sample.processes[i].processName;
+            if (name.indexOf(',') >= 0) {
+                name = '"' + name + '"';
+            }
+            mTrace.print(sample.time);
+            mTrace.print(',');
+            mTrace.print(sample.processes[i].pid);
+            mTrace.print(',');
+            mTrace.print(name);
+            mTrace.print(',');
+            mTrace.print(Math.round(sample.cpuPercent[i] * 10) / 10f);
+            mTrace.print(',');
+            mTrace.println(sample.rssKb[i]);
+        }
+        if (mTrace.checkError()) {
+            Log.w(TAG, "Error writing the trace; stopping it");
+            closeTrace();
+        }
+    }
+
+    private void closeTrace() {
+        if (mTrace != null) {
+            mTrace.close();
+            mTrace = null;
+        }
+    }
+
+    /**
+     * The jiffies all the CPUs have spent, from the cpu line of /proc/stat.
+     */
+    private long readTotalTime() {
+        int length = readFile("/proc/stat");
+        long total = 0;
+        int i = 0;
+        // skip "cpu"
+        while (i < length && mBuffer[i] != ' ') {
+            i++;
+        }
+        while (i < length && mBuffer[i] != '\n') {
+            i = skipSpaces(i, length);
+            total += parseLong(i, length);
+            i = skipField(i, length);
+        }
+        return total;
+    }
+
+    /**
+     * The jiffies a process has spent in user and kernel mode, or -1.
+     */
+    private long readProcessTime(int pid) {
+        int length = readFile("/proc/" + pid + "/stat");
+        // the command name is in parentheses and may hold spaces
+        int i = length - 1;
+        while (i >= 0 && mBuffer[i] != ')') {
+            i--;
+        }
+        if (i < 0) {
+            return -1;
+        }
+        i++;
+        long time = 0;
+        for (int field = 0; field <= STAT_STIME && i < length; field++) {
+            i = skipSpaces(i, length);
+            if (field == STAT_UTIME || field == STAT_STIME) {
+                time += parseLong(i, length);
+            }
+            i = skipField(i, length);
+        }
+        return time;
+    }
+
+    /**
+     * The resident set of a process, the second field of statm, or 0.
+     */
+    private int readRssKb(int pid) {
+        int length = readFile("/proc/" + pid + "/statm");
+        int i = skipField(skipSpaces(0, length), length);
+        return (int) parseLong(skipSpaces(i, length), length) * PAGE_KB;
+    }
+
+    /**
+     * Reads a file into mBuffer, returning its length, 0 if it can't be
+     * read.
+     */
+    private int readFile(String path) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            int length = 0;
+            int n;
+            while (length < mBuffer.length
+                    && (n = in.read(mBuffer, length, mBuffer.length - length)) > 0) {
+                length += n;
+            }
+            return length;
+        } catch (IOException e) {
+            // the process has gone
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private int skipSpaces(int i, int length) {
+        while (i < length && mBuffer[i] == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private int skipField(int i, int length) {
+        while (i < length && mBuffer[i] != ' ' && mBuffer[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private long parseLong(int i, int length) {
+        long value = 0;
+        for (; i < length && mBuffer[i] >= '0' && mBuffer[i] <= '9'; i++) {
+            value = value * 10 + mBuffer[i] - '0';
+        }
+        return value;
+    }
+
+    private final ActivityManager mActivityManager;
+    private final Callback mCallback;
+    private final Handler mMainHandler;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private volatile int mIntervalMs = 2000;
+    // the rest is used on the sampler thread only
+    private final byte[] mBuffer = new byte[1024];
+    // per pid: the jiffies at the last sample, and the sample that saw it
+    private final HashMap<Integer, long[]> mLastTimes = new HashMap<Integer, long[]>();
+    private long mLastTotalTime;
+    private long mGeneration;
+    private PrintStream mTrace;
+}
@@ -23,19 +23,33 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
-import android.view.LayoutInflater;
-import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
+import java.io.FileNotFoundException;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 
-public class RunningProcesses extends ListActivity {
+/**
+ * The running application processes, with the CPU and memory each has used
+ * lately. The list is kept up to date by a {@link ProcessSampler}; from the
+ * menu, the samples can be traced to a CSV file, which goes on while the
+ * activity is in the background.
+ */
+public class RunningProcesses extends ListActivity implements ProcessSampler.Callback {
+    // samples kept per process
+    private static final int HISTORY_SIZE = 60;
+    private static final int[] INTERVALS_MS = { 1000, 2000, 5000, 10000 };
+    private static final int MENU_TRACE = INTERVALS_MS.length;
+
     PackageManager mPm;
     
     @Override
@@ -44,16 +58,24 @@ public class RunningProcesses extends ListActivity {
 
         mPm = getPackageManager();
         mAdapter = new AppListAdapter(this);
-        if (mAdapter.getCount() <= 0) {
-            finish();
-        } else {
-            setListAdapter(mAdapter);
-        }
+        mAdapter.setSource(mList);
+        setListAdapter(mAdapter);
+        mSampler = new ProcessSampler(this, this);
     }
     
     @Override
     protected void onResume() {
         super.onResume();
+        mSampler.start();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // a trace goes on in the background
+        if (mTraceFile == null) {
+            mSampler.stop();
+        }
     }
 
     @Override
@@ -61,9 +83,108 @@ public class RunningProcesses extends ListActivity {
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSampler.quit();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        for (int i = 0; i < INTERVALS_MS.length; i++) {
+            final int interval = INTERVALS_MS[i];
+            menu.add(0, i, 0, "Every " + interval / 1000 + "s").setOnMenuItemClickListener(
+                    new MenuItem.OnMenuItemClickListener() {
+                public boolean onMenuItemClick(MenuItem item) {
+                    mSampler.setInterval(interval);
+                    return true;
+                }
+            });
+        }
+        menu.setGroupCheckable(0, true, true);
+        menu.add(1, MENU_TRACE, 0, "Start trace").setOnMenuItemClickListener(
+                new MenuItem.OnMenuItemClickListener() {
+            public boolean onMenuItemClick(MenuItem item) {
+                if (mTraceFile == null) {
+                    startTrace();
+                } else {
+                    stopTrace();
+                }
+                return true;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        for (int i = 0; i < INTERVALS_MS.length; i++) {
+            if (INTERVALS_MS[i] == mSampler.getInterval()) {
+                menu.findItem(i).setChecked(true);
+            }
+        }
+        menu.findItem(MENU_TRACE).setTitle(mTraceFile == null ? "Start trace" : "Stop trace");
+        return true;
+    }
+
+    /**
+     * Traces the samples to a file that adb can pull.
+     */
+    private void startTrace() {
+        String name = "processes-" + System.currentTimeMillis() + ".csv";
+        try {
+            mSampler.startTrace(openFileOutput(name, MODE_WORLD_READABLE));
+        } catch (FileNotFoundException e) {
+            Toast.makeText(this, "Can't write " + name, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        mTraceFile = getFileStreamPath(name).getPath();
+    }
+
+    private void stopTrace() {
+        mSampler.stopTrace();
+        Toast.makeText(this, "Trace written to " + mTraceFile, Toast.LENGTH_LONG).show();
+        mTraceFile = null;
+    }
+
+    /**
+     * Brings the list up to date with a sample: the processes seen before
+     * take the new numbers, new ones go in at their place in the list, and
+     * the ones that are gone come out.
+     */
+    public void onSample(ProcessSampler.Sample sample) {
+        mGeneration++;
+        for (int i = 0; i < sample.processes.length; i++) {
+            ActivityManager.RunningAppProcessInfo process = sample.processes[i];
+            ListItem item = mItems.get(process.pid);
+            if (item != null && !item.procInfo.processName.equals(process.processName)) {
+                // the pid has been reused
+                mList.remove(item);
+                item = null;
+            }
+            if (item == null) {
+                item = new ListItem(process);
+                mItems.put(process.pid, item);
+                int position = Collections.binarySearch(mList, item, sDisplayNameComparator);
+                mList.add(position < 0 ? -position - 1 : position, item);
+            }
+            item.procInfo = process;
+            item.history.add(sample.cpuPercent[i], sample.rssKb[i]);
+            item.generation = mGeneration;
+        }
+        for (Iterator<ListItem> it = mList.iterator(); it.hasNext(); ) {
+            ListItem item = it.next();
+            if (item.generation != mGeneration) {
+                it.remove();
+                mItems.remove(item.procInfo.pid);
+            }
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
-        ListItem app = mAdapter.appForPosition(position);
+        ListItem app = mAdapter.itemForPosition(position);
         // Create intent to start new activity
         Intent intent = new Intent(Intent.ACTION_VIEW);
         intent.setClass(this, ProcessInfo.class);
@@ -73,70 +194,46 @@ public class RunningProcesses extends ListActivity {
         startActivity(intent);
     }
 
-    private final class AppListAdapter extends BaseAdapter {
+    private final class AppListAdapter extends ArrayAdapter<ListItem> {
+        private final StringBuilder mBuilder = new StringBuilder();
+
         public AppListAdapter(Context context) {
-            mContext = context;
-            mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-
-            ActivityManager am = (ActivityManager)getSystemService(Context.ACTIVITY_SERVICE);
-            List<ActivityManager.RunningAppProcessInfo> appList = am.getRunningAppProcesses();
-            for (ActivityManager.RunningAppProcessInfo app : appList) {
-                if(mList == null) {
-                    mList = new ArrayList<ListItem>();
-                }
-                mList.add(new ListItem(app));    
-            }
-            if (mList != null) {
-                Collections.sort(mList, sDisplayNameComparator);
-            }
-        }
-    
-        public ListItem appForPosition(int position) {
-            if (mList == null) {
-                return null;
-            }
-            return mList.get(position);
+            super(context, R.layout.running_process_item);
         }
 
-        public int getCount() {
-            return mList != null ? mList.size() : 0;
-        }
+        @Override
+        public void bindView(View view, ListItem info) {
+            TextView name = (TextView)view.findViewById(R.id.name);
+            TextView usage = (TextView)view.findViewById(R.id.usage);
+            name.setText(info.procInfo.processName);
 
-        public Object getItem(int position) {
-            return position;
-        }
-    
-        public long getItemId(int position) {
-            return position;
+            ProcessHistory history = info.history;
+            StringBuilder builder = mBuilder;
+            builder.setLength(0);
+            builder.append("pid ").append(info.procInfo.pid).append("  cpu ");
+            appendTenths(builder, history.getCpu(0), "%");
+            builder.append(" (avg ");
+            appendTenths(builder, history.getAverageCpu(), "%");
+            builder.append(", max ");
+            appendTenths(builder, history.getMaxCpu(), "%");
+            builder.append(")  rss ");
+            appendTenths(builder, history.getRssKb(0) / 1024f, "M");
+            builder.append(" (max ");
+            appendTenths(builder, history.getMaxRssKb() / 1024f, "M");
+            builder.append(')');
+            usage.setText(builder.toString());
         }
-    
-        public View getView(int position, View convertView, ViewGroup parent) {
-            View view;
-            if (convertView == null) {
-                view = mInflater.inflate(
-                        android.R.layout.simple_list_item_1, parent, false);
-            } else {
-                view = convertView;
-            }
-            bindView(view, mList.get(position));
-            return view;
-        }
-    
-        private final void bindView(View view, ListItem info) {
-            TextView text = (TextView)view.findViewById(android.R.id.text1);
-            text.setText(info != null ? info.procInfo.processName : "(none)");
-        }
-    
-        protected final Context mContext;
-        protected final LayoutInflater mInflater;
-        protected List<ListItem> mList;
-        
     }
 
-    private final Comparator sDisplayNameComparator = new Comparator() {
-        public final int compare(Object a, Object b) {
-            CharSequence  sa = ((ListItem) a).procInfo.processName;
-            CharSequence  sb = ((ListItem) b).procInfo.processName;
+    private static void appendTenths(StringBuilder builder, float value, String unit) {
+        int tenths = Math.round(value * 10);
+        builder.append(tenths / 10).append('.').append(tenths % 10).append(unit);
+    }
+
+    private final Comparator<ListItem> sDisplayNameComparator = new Comparator<ListItem>() {
+        public final int compare(ListItem a, ListItem b) {
+            CharSequence  sa = a.procInfo.processName;
+            CharSequence  sb = b.procInfo.processName;
             return collator.compare(sa, sb);
         }
         private final Collator   collator = Collator.getInstance();
@@ -144,11 +241,83 @@ public class RunningProcesses extends ListActivity {
     
     private class ListItem {
         ActivityManager.RunningAppProcessInfo procInfo;
+        final ProcessHistory history = new ProcessHistory(HISTORY_SIZE);
+        // the last sample the process was in
+        int generation;
         public ListItem(ActivityManager.RunningAppProcessInfo pInfo) {
             procInfo = pInfo;
         }
     }
 
+    /**
+     * The last samples of a process, in rings of primitives.
+     */
+    static final class ProcessHistory {
+        private final float[] mCpu;
+        private final int[] mRssKb;
+        // where the next sample goes
+        private int mNext;
+        private int mCount;
+
+        ProcessHistory(int size) {
+            mCpu = new float[size];
+            mRssKb = new int[size];
+        }
+
+        void add(float cpuPercent, int rssKb) {
+            mCpu[mNext] = cpuPercent;
+            mRssKb[mNext] = rssKb;
+            mNext = (mNext + 1) % mCpu.length;
+            if (mCount < mCpu.length) {
+                mCount++;
+            }
+        }
+
+        /**
+         * A sample's CPU use, 0 for the latest, or 0 if there isn't one.
+         */
+        float getCpu(int age) {
+            return age < mCount ? mCpu[index(age)] : 0;
+        }
+
+        int getRssKb(int age) {
+            return age < mCount ? mRssKb[index(age)] : 0;
+        }
+
+        float getAverageCpu() {
+            float sum = 0;
+            for (int i = 0; i < mCount; i++) {
+                sum += mCpu[i];
+            }
+            return mCount > 0 ? sum / mCount : 0;
+        }
+
+        float getMaxCpu() {
+            float max = 0;
+            for (int i = 0; i < mCount; i++) {
+                max = Math.max(max, mCpu[i]);
+            }
+            return max;
+        }
+
+        int getMaxRssKb() {
+            int max = 0;
+            for (int i = 0; i < mCount; i++) {
+                max = Math.max(max, mRssKb[i]);
+            }
+            return max;
+        }
+
+        private int index(int age) {
+            return (mNext - 1 - age + mCpu.length) % mCpu.length;
+        }
+    }
+
     private AppListAdapter mAdapter;
+    private ProcessSampler mSampler;
+    private final List<ListItem> mList = new ArrayList<ListItem>();
+    private final HashMap<Integer, ListItem> mItems = new HashMap<Integer, ListItem>();
+    private int mGeneration;
+    // the trace being written, if any
+    private String mTraceFile;
 }
-
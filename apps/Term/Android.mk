@@ -26,7 +26,9 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE_TAGS := eng
 
-LOCAL_SRC_FILES := $(call all-subdir-java-files)
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_STATIC_JAVA_LIBRARIES := term-emulator
 
 LOCAL_PACKAGE_NAME := Term
 
@@ -36,5 +38,6 @@ include $(BUILD_PACKAGE)
 
 # ============================================================
 
-# Also build all of the sub-targets under this one: the shared library.
+# Also build all of the sub-targets under this one: the shared library, the
+# emulator core and its host tests and benchmarks.
 include $(call all-makefiles-under,$(LOCAL_PATH))
\ No newline at end of file
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * The read and write positions are kept in fields of their own classes,
+ * separated by padding, so that the consumer updating one and the producer
+ * updating the other don't keep invalidating the same cache line. Fields of
+ * a superclass are laid out before those of a subclass.
+ */
+
+abstract class ByteRingPad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class ByteRingHead extends ByteRingPad0 {
+    /** Total bytes read so far. Written by the consumer only. */
+    protected volatile long mHead;
+}
+
+abstract class ByteRingPad1 extends ByteRingHead {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class ByteRingTail extends ByteRingPad1 {
+    /** Total bytes written so far. Written by the producer only. */
+    protected volatile long mTail;
+}
+
+abstract class ByteRingPad2 extends ByteRingTail {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+/**
+ * A lock-free byte ring for exactly one producer thread and one consumer.
+ * <p>
+ * Unlike {@link ByteQueue}, neither side ever takes a lock: each publishes
+ * its position with a volatile write, and only the producer blocks, when
+ * the ring is full.
+ * <p>
+ * The consumer is expected to run from a message loop rather than block.
+ * It reads until {@link #sleepIfEmpty()} reports the ring empty, and from
+ * then on is idle; the next write calls the wakeup Runnable, once, to get it
+ * scheduled again. So a stream of small writes costs one wakeup, not one
+ * per write.
+ */
+class ByteRing extends ByteRingPad2 {
+    private final byte[] mBuffer;
+    private final int mMask;
+    private final Runnable mWakeup;
+
+    /** Set while the consumer is idle and needs a wakeup to read again. */
+    private final AtomicBoolean mConsumerIdle = new AtomicBoolean(true);
+    /** Set while the producer is parked waiting for space. */
+    private volatile boolean mProducerWaiting;
+    private volatile Thread mProducer;
+
+    // the other side's position as last seen, so that we don't read the
+    // volatile field (and pull in its cache line) for every call
+    private long mHeadCache;
+    private long mTailCache;
+
+    /**
+     * @param size capacity in bytes, rounded up to a power of two
+     * @param wakeup called on the producer thread when data arrives for an
+     *            idle consumer
+     */
+    public ByteRing(int size, Runnable wakeup) {
+        int capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+        mBuffer = new byte[capacity];
+        mMask = capacity - 1;
+        mWakeup = wakeup;
+    }
+
+    /**
+     * @return the number of bytes that can be read now. Consumer only.
+     */
+    public int getBytesAvailable() {
+        mTailCache = mTail;
+        return (int) (mTailCache - mHead);
+    }
+
+    /**
+     * Append bytes, blocking while the ring is full.  Producer only.
+     */
+    public void write(byte[] buffer, int offset, int length)
+        throws InterruptedException {
+        if (length + offset > buffer.length) {
+            throw
+                new IllegalArgumentException("length + offset > buffer.length");
+        }
+        if (length < 0) {
+            throw
+                new IllegalArgumentException("length < 0");
+        }
+        int capacity = mBuffer.length;
+        long tail = mTail;
+        while (length > 0) {
+            int free = (int) (capacity - (tail - mHeadCache));
+            if (free == 0) {
+                mHeadCache = mHead;
+                free = (int) (capacity - (tail - mHeadCache));
+                if (free == 0) {
+                    waitForSpace(tail);
+                    continue;
+                }
+            }
+            int index = (int) tail & mMask;
+            int bytesToCopy = Math.min(Math.min(length, free), capacity - index);
+            System.arraycopy(buffer, offset, mBuffer, index, bytesToCopy);
+            offset += bytesToCopy;
+            length -= bytesToCopy;
+            tail += bytesToCopy;
+            // publish, then make sure somebody is going to read it
+            mTail = tail;
+            if (mConsumerIdle.get() && mConsumerIdle.compareAndSet(true, false)) {
+                mWakeup.run();
+            }
+        }
+    }
+
+    private void waitForSpace(long tail) throws InterruptedException {
+        mProducer = Thread.currentThread();
+        mProducerWaiting = true;
+        // the consumer checks mProducerWaiting after moving mHead, so
+        // one of us sees the other's write
+        while ((mHeadCache = mHead) + mBuffer.length == tail) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                mProducerWaiting = false;
+                throw new InterruptedException();
+            }
+        }
+        mProducerWaiting = false;
+    }
+
+    /**
+     * Copy out up to length bytes without blocking.  Consumer only.
+     *
+     * @return the number of bytes read, 0 if the ring is empty
+     */
+    public int read(byte[] buffer, int offset, int length) {
+        if (length + offset > buffer.length) {
+            throw
+                new IllegalArgumentException("length + offset > buffer.length");
+        }
+        if (length < 0) {
+            throw
+                new IllegalArgumentException("length < 0");
+        }
+        long head = mHead;
+        if (mTailCache - head < length) {
+            mTailCache = mTail;
+        }
+        int capacity = mBuffer.length;
+        int totalRead = 0;
+        while (length > 0 && head < mTailCache) {
+            int index = (int) head & mMask;
+            int bytesToCopy = Math.min(Math.min(length, (int) (mTailCache - head)),
+                    capacity - index);
+            System.arraycopy(mBuffer, index, buffer, offset, bytesToCopy);
+            offset += bytesToCopy;
+            length -= bytesToCopy;
+            head += bytesToCopy;
+            totalRead += bytesToCopy;
+        }
+        if (totalRead > 0) {
+            mHead = head;
+            if (mProducerWaiting) {
+                Thread producer = mProducer;
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+            }
+        }
+        return totalRead;
+    }
+
+    /**
+     * Go idle if there is nothing left to read.  Consumer only.
+     *
+     * @return true if the consumer is now idle and will be woken by the next
+     *         write, false if there is more to read
+     */
+    public boolean sleepIfEmpty() {
+        mConsumerIdle.set(true);
+        // a write that published before seeing the flag set must be seen
+        // here, in which case we take the flag back
+        if (mTail != mHead && mConsumerIdle.compareAndSet(true, false)) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+/**
+ * Debug flags and logging for the emulator core. The core doesn't use
+ * android.util.Log, so that it runs on a workstation; its messages go to
+ * System.err unless the app installs a {@link Logger}.
+ */
+class EmulatorDebug {
+    /**
+     * Set to true to log each character received from the remote process to the
+     * android log, which makes it easier to debug some kinds of problems with
+     * emulating escape sequences and control codes.
+     */
+    static final boolean LOG_CHARACTERS_FLAG = false;
+
+    /**
+     * Set to true to log unknown escape sequences.
+     */
+    static final boolean LOG_UNKNOWN_ESCAPE_SEQUENCES = false;
+
+    /**
+     * Where log messages go.
+     */
+    interface Logger {
+        void w(String msg);
+        void e(String msg, Throwable tr);
+    }
+
+    private static Logger sLogger = new Logger() {
+        public void w(String msg) {
+            System.err.println(msg);
+        }
+
+        public void e(String msg, Throwable tr) {
+            System.err.println(msg);
+            if (tr != null) {
+                tr.printStackTrace();
+            }
+        }
+    };
+
+    static void setLogger(Logger logger) {
+        sLogger = logger;
+    }
+
+    static void w(String msg) {
+        sLogger.w(msg);
+    }
+
+    static void e(String msg) {
+        sLogger.e(msg, null);
+    }
+
+    static void e(String msg, Throwable tr) {
+        sLogger.e(msg, tr);
+    }
+}
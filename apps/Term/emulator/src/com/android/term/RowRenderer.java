@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+/**
+ * Receives a row of text from {@link TranscriptScreen#drawText}, one run of
+ * characters of the same colors at a time. The view draws the runs; the host
+ * tests record them.
+ */
+interface RowRenderer {
+    /**
+     * @param lineOffset the column of the first character of the run
+     * @param text the characters of the row
+     * @param index the index in text of the first character of the run
+     * @param count the number of characters in the run
+     * @param cursor whether the run is the cursor
+     */
+    void drawTextRun(int lineOffset, char[] text, int index, int count,
+            boolean cursor, int foreColor, int backColor);
+}
@@ -0,0 +1,745 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+/**
+ * A TranscriptScreen is a screen that remembers data that's been scrolled. The
+ * screen itself is kept as plain cells, and the old data is handed to a
+ * {@link TranscriptStore}, which keeps it compressed. The transcript does its
+ * own drawing, to avoid having to expose its internal data structures.
+ */
+class TranscriptScreen implements Screen {
+
+    /**
+     * The width of the transcript, in characters. Fixed at initialization.
+     */
+    private int mColumns;
+
+    /**
+     * The total number of rows in the transcript and the screen. Fixed at
+     * initialization.
+     */
+    private int mTotalRows;
+
+    /**
+     * The rows that have scrolled off the top of the screen.
+     */
+    private TranscriptStore mTranscript;
+
+    /**
+     * The number of rows in the screen.
+     */
+    private int mScreenRows;
+
+    /**
+     * The data for the screen, mScreenRows * mColumns characters. The low
+     * byte encodes the ASCII character, the high byte encodes the foreground
+     * and background colors, plus underline and bold. Transcript rows are
+     * decoded into the same form, in mTranscriptRow.
+     */
+    private char[] mData;
+
+    /**
+     * A transcript row, decoded from mTranscript.
+     */
+    private char[] mTranscriptRow;
+
+    /**
+     * The data's stored as color-encoded chars, but the drawing routines require chars, so we
+     * need a temporary buffer to hold a row's worth of characters.
+     */
+    private char[] mRowBuffer;
+
+    /**
+     * Flags that keep track of whether the current line logically wraps to the
+     * next line. This is used when resizing the screen and when copying to the
+     * clipboard or an email attachment. Only covers the screen; the
+     * transcript keeps its own flags.
+     */
+
+    private boolean[] mLineWrap;
+
+    /**
+     * The rows of the screen that have changed since the last call to
+     * {@link #clearDamage()}, as the span mDamageTop..mDamageBottom-1. Empty
+     * when mDamageTop >= mDamageBottom.
+     */
+    private int mDamageTop;
+    private int mDamageBottom;
+
+    /**
+     * Per screen row, the characters of the row and its color runs, as drawn
+     * last time. The runs of row r start at columns mRunStarts[r][0..n-1]
+     * and have colors mRunColors[r][0..n-1], where n is mRunCounts[r], or -1
+     * if the row has changed and the cache must be rebuilt.
+     */
+    private char[][] mRowText;
+    private int[][] mRunStarts;
+    private int[][] mRunColors;
+    private int[] mRunCounts;
+
+    /**
+     * Color runs of a transcript row, which is not cached.
+     */
+    private int[] mScratchRunStarts;
+    private int[] mScratchRunColors;
+
+    /**
+     * Create a transcript screen.
+     *
+     * @param columns the width of the screen in characters.
+     * @param totalRows the height of the entire text area, in rows of text.
+     * @param screenRows the height of just the screen, not including the
+     *        transcript that holds lines that have scrolled off the top of the
+     *        screen.
+     */
+    public TranscriptScreen(int columns, int totalRows, int screenRows,
+            int foreColor, int backColor) {
+        init(columns, totalRows, screenRows, foreColor, backColor);
+    }
+
+    private void init(int columns, int totalRows, int screenRows, int foreColor, int backColor) {
+        mTotalRows = totalRows;
+        mTranscript = new TranscriptStore(totalRows - screenRows);
+        initScreen(columns, screenRows, foreColor, backColor);
+        consistencyCheck();
+    }
+
+    /**
+     * Make a blank screen of a new size. The transcript is left alone.
+     */
+    private void initScreen(int columns, int screenRows, int foreColor, int backColor) {
+        mColumns = columns;
+        mScreenRows = screenRows;
+        mData = new char[columns * screenRows];
+        mTranscriptRow = new char[columns];
+        mRowText = new char[screenRows][columns];
+        mRunStarts = new int[screenRows][columns];
+        mRunColors = new int[screenRows][columns];
+        mRunCounts = new int[screenRows];
+        mScratchRunStarts = new int[columns];
+        mScratchRunColors = new int[columns];
+        blockSet(0, 0, mColumns, mScreenRows, ' ', foreColor, backColor);
+        mRowBuffer = new char[columns];
+        mLineWrap = new boolean[screenRows];
+    }
+
+    /**
+     * Convert a row value from the public external coordinate system to our
+     * internal private coordinate system. External coordinate system:
+     * -getActiveTranscriptRows() to mScreenRows-1, with the screen being
+     * 0..mScreenRows-1. Internal coordinate system: the 0..mScreenRows-1
+     * rows of mData. Transcript rows are not in mData, so only screen rows
+     * can be converted.
+     *
+     * @param row a row in the external coordinate system.
+     * @return The row corresponding to the input argument in the private
+     *         coordinate system.
+     */
+    private int externalToInternalRow(int row) {
+        if (row < 0 || row >= mScreenRows) {
+            throw new IllegalArgumentException();
+        }
+        return row;
+    }
+
+    /**
+     * Decode a transcript row into mTranscriptRow.
+     *
+     * @param row a row in the external coordinate system, less than 0
+     * @return whether the row wraps into the next one
+     */
+    private boolean decodeTranscriptRow(int row) {
+        return mTranscript.getRow(mTranscript.size() + row, mTranscriptRow, mColumns);
+    }
+
+    private int getOffset(int externalLine) {
+        return externalToInternalRow(externalLine) * mColumns;
+    }
+
+    private int getOffset(int x, int y) {
+        return getOffset(y) + x;
+    }
+
+    public void setLineWrap(int row) {
+        mLineWrap[externalToInternalRow(row)] = true;
+    }
+
+    /**
+     * Store byte b into the screen at location (x, y)
+     *
+     * @param x X coordinate (also known as column)
+     * @param y Y coordinate (also known as row)
+     * @param b ASCII character to store
+     * @param foreColor the foreground color
+     * @param backColor the background color
+     */
+    public void set(int x, int y, byte b, int foreColor, int backColor) {
+        mData[getOffset(x, y)] = encode(b, foreColor, backColor);
+        damage(y, y + 1);
+    }
+
+    public void set(int x, int y, byte[] buffer, int offset, int length,
+            int foreColor, int backColor) {
+        if (x < 0 || x + length > mColumns) {
+            throw new IllegalArgumentException();
+        }
+        char[] data = mData;
+        int dest = getOffset(x, y);
+        char colors = encode(0, foreColor, backColor);
+        for (int i = 0; i < length; i++) {
+            data[dest + i] = (char) (colors | buffer[offset + i]);
+        }
+        damage(y, y + 1);
+    }
+
+    private char encode(int b, int foreColor, int backColor) {
+        return (char) ((foreColor << 12) | (backColor << 8) | b);
+    }
+
+    /**
+     * Scroll the screen down one line. To scroll the whole screen of a 24 line
+     * screen, the arguments would be (0, 24).
+     *
+     * @param topMargin First line that is scrolled.
+     * @param bottomMargin One line after the last line that is scrolled.
+     */
+    public void scroll(int topMargin, int bottomMargin, int foreColor,
+            int backColor) {
+        if (topMargin > bottomMargin - 2 || topMargin > mScreenRows - 2
+                || bottomMargin > mScreenRows) {
+            throw new IllegalArgumentException();
+        }
+
+        // Move the scroll line to the transcript
+        int topOffset = getOffset(topMargin);
+        int topLine = externalToInternalRow(topMargin);
+        mTranscript.append(mData, topOffset, mColumns, mLineWrap[topLine]);
+
+        // Block move the scrolled data up
+        int numScrollChars = (bottomMargin - topMargin - 1) * mColumns;
+        System.arraycopy(mData, topOffset + mColumns, mData, topOffset,
+                numScrollChars);
+        int numScrollLines = (bottomMargin - topMargin - 1);
+        System.arraycopy(mLineWrap, topLine + 1, mLineWrap, topLine,
+                numScrollLines);
+
+        // The cached runs move up with the rows; the top row's cache is
+        // reused for the new bottom row.
+        char[] text = mRowText[topMargin];
+        int[] starts = mRunStarts[topMargin];
+        int[] colors = mRunColors[topMargin];
+        System.arraycopy(mRowText, topMargin + 1, mRowText, topMargin, numScrollLines);
+        System.arraycopy(mRunStarts, topMargin + 1, mRunStarts, topMargin, numScrollLines);
+        System.arraycopy(mRunColors, topMargin + 1, mRunColors, topMargin, numScrollLines);
+        System.arraycopy(mRunCounts, topMargin + 1, mRunCounts, topMargin, numScrollLines);
+        mRowText[bottomMargin - 1] = text;
+        mRunStarts[bottomMargin - 1] = starts;
+        mRunColors[bottomMargin - 1] = colors;
+
+        // Erase the bottom line of the scroll region
+        blockSet(0, bottomMargin - 1, mColumns, 1, ' ', foreColor, backColor);
+        mLineWrap[externalToInternalRow(bottomMargin-1)] = false;
+
+        // Every row of the region is drawn in a new place
+        extendDamage(topMargin, bottomMargin);
+    }
+
+    /**
+     * Note that rows top..bottom-1 of the screen have changed: their cached
+     * runs are stale and they need to be redrawn.
+     */
+    private void damage(int top, int bottom) {
+        for (int row = Math.max(0, top); row < bottom; row++) {
+            mRunCounts[row] = -1;
+        }
+        extendDamage(top, bottom);
+    }
+
+    private void extendDamage(int top, int bottom) {
+        if (mDamageTop >= mDamageBottom) {
+            mDamageTop = top;
+            mDamageBottom = bottom;
+        } else {
+            mDamageTop = Math.min(mDamageTop, top);
+            mDamageBottom = Math.max(mDamageBottom, bottom);
+        }
+    }
+
+    /**
+     * @return the first screen row changed since the last
+     *         {@link #clearDamage()}
+     */
+    public int getDamageTop() {
+        return mDamageTop;
+    }
+
+    /**
+     * @return one more than the last screen row changed since the last
+     *         {@link #clearDamage()}, or no more than {@link #getDamageTop()}
+     *         if nothing changed
+     */
+    public int getDamageBottom() {
+        return mDamageBottom;
+    }
+
+    public void clearDamage() {
+        mDamageTop = 0;
+        mDamageBottom = 0;
+    }
+
+    private void consistencyCheck() {
+        checkPositive(mColumns);
+        checkPositive(mTotalRows);
+        checkRange(0, mScreenRows, mTotalRows);
+
+        checkEqual(mScreenRows, mLineWrap.length);
+        checkEqual(mScreenRows*mColumns, mData.length);
+        checkEqual(mColumns, mRowBuffer.length);
+        checkEqual(mColumns, mTranscriptRow.length);
+    }
+
+    private void checkPositive(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("checkPositive " + n);
+        }
+    }
+
+    private void checkRange(int a, int b, int c) {
+        if (a > b || b > c) {
+            throw new IllegalArgumentException("checkRange " + a + " <= " + b + " <= " + c);
+        }
+    }
+
+    private void checkEqual(int a, int b) {
+        if (a != b) {
+            throw new IllegalArgumentException("checkEqual " + a + " == " + b);
+        }
+    }
+
+    /**
+     * Block copy characters from one position in the screen to another. The two
+     * positions can overlap. All characters of the source and destination must
+     * be within the bounds of the screen, or else an InvalidParemeterException
+     * will be thrown.
+     *
+     * @param sx source X coordinate
+     * @param sy source Y coordinate
+     * @param w width
+     * @param h height
+     * @param dx destination X coordinate
+     * @param dy destination Y coordinate
+     */
+    public void blockCopy(int sx, int sy, int w, int h, int dx, int dy) {
+        if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows
+                || dx < 0 || dx + w > mColumns || dy < 0
+                || dy + h > mScreenRows) {
+            throw new IllegalArgumentException();
+        }
+        if (sy <= dy) {
+            // Move in increasing order
+            for (int y = 0; y < h; y++) {
+                int srcOffset = getOffset(sx, sy + y);
+                int dstOffset = getOffset(dx, dy + y);
+                System.arraycopy(mData, srcOffset, mData, dstOffset, w);
+            }
+        } else {
+            // Move in decreasing order
+            for (int y = 0; y < h; y++) {
+                int y2 = h - (y + 1);
+                int srcOffset = getOffset(sx, sy + y2);
+                int dstOffset = getOffset(dx, dy + y2);
+                System.arraycopy(mData, srcOffset, mData, dstOffset, w);
+            }
+        }
+        damage(dy, dy + h);
+    }
+
+    /**
+     * Block set characters. All characters must be within the bounds of the
+     * screen, or else and InvalidParemeterException will be thrown. Typically
+     * this is called with a "val" argument of 32 to clear a block of
+     * characters.
+     *
+     * @param sx source X
+     * @param sy source Y
+     * @param w width
+     * @param h height
+     * @param val value to set.
+     */
+    public void blockSet(int sx, int sy, int w, int h, int val,
+            int foreColor, int backColor) {
+        if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows) {
+            throw new IllegalArgumentException();
+        }
+        char[] data = mData;
+        char encodedVal = encode(val, foreColor, backColor);
+        for (int y = 0; y < h; y++) {
+            int offset = getOffset(sx, sy + y);
+            for (int x = 0; x < w; x++) {
+                data[offset + x] = encodedVal;
+            }
+        }
+        damage(sy, sy + h);
+    }
+
+    /**
+     * Draw a row of text. Out-of-bounds rows are blank, not errors.
+     *
+     * @param row The row of text to draw.
+     * @param renderer The renderer to hand the row's runs to
+     * @param cx the cursor X coordinate, -1 means don't draw it
+     */
+    public final void drawText(int row, RowRenderer renderer, int cx) {
+
+        // Out-of-bounds rows are blank.
+        if (row < -mTranscript.size() || row >= mScreenRows) {
+            return;
+        }
+
+        // Screen rows keep their runs until they change; transcript rows
+        // are only drawn when scrolled back, so work them out each time.
+        char[] text;
+        int[] starts;
+        int[] colors;
+        int runCount;
+        if (row >= 0) {
+            text = mRowText[row];
+            starts = mRunStarts[row];
+            colors = mRunColors[row];
+            runCount = mRunCounts[row];
+            if (runCount < 0) {
+                runCount = buildRuns(mData, getOffset(row), text, starts, colors);
+                mRunCounts[row] = runCount;
+            }
+        } else {
+            text = mRowBuffer;
+            starts = mScratchRunStarts;
+            colors = mScratchRunColors;
+            decodeTranscriptRow(row);
+            runCount = buildRuns(mTranscriptRow, 0, text, starts, colors);
+        }
+
+        int columns = mColumns;
+        for (int i = 0; i < runCount; i++) {
+            int start = starts[i];
+            int end = (i + 1 < runCount) ? starts[i + 1] : columns;
+            int foreColor = 0xf & (colors[i] >> 12);
+            int backColor = 0xf & (colors[i] >> 8);
+            if (cx >= start && cx < end) {
+                // the cursor splits the run
+                if (cx > start) {
+                    renderer.drawTextRun(start, text, start,
+                            cx - start, false, foreColor, backColor);
+                }
+                renderer.drawTextRun(cx, text, cx, 1, true,
+                        foreColor, backColor);
+                if (end > cx + 1) {
+                    renderer.drawTextRun(cx + 1, text, cx + 1,
+                            end - (cx + 1), false, foreColor, backColor);
+                }
+            } else {
+                renderer.drawTextRun(start, text, start,
+                        end - start, false, foreColor, backColor);
+            }
+        }
+    }
+
+    /**
+     * Split a row into runs of the same colors.
+     *
+     * @param data holds the row, as encoded cells
+     * @param offset index of the row's first cell
+     * @param text receives the characters of the row, without colors
+     * @param starts receives the first column of each run
+     * @param colors receives the color bits of each run
+     * @return the number of runs
+     */
+    private int buildRuns(char[] data, int offset, char[] text, int[] starts,
+            int[] colors) {
+        int columns = mColumns;
+        int runCount = 0;
+        int lastColors = -1;
+        for (int i = 0; i < columns; i++) {
+            char c = data[offset + i];
+            int color = c & 0xff00;
+            text[i] = (char) (c & 0x00ff);
+            if (color != lastColors) {
+                starts[runCount] = i;
+                colors[runCount] = color;
+                runCount++;
+                lastColors = color;
+            }
+        }
+        return runCount;
+    }
+
+    /**
+     * Get the count of active rows.
+     *
+     * @return the count of active rows.
+     */
+    public int getActiveRows() {
+        return mScreenRows + mTranscript.size();
+    }
+
+    /**
+     * Get the count of active transcript rows.
+     *
+     * @return the count of active transcript rows.
+     */
+    public int getActiveTranscriptRows() {
+        return mTranscript.size();
+    }
+
+    public String getTranscriptText() {
+        return internalGetTranscriptText(true);
+    }
+
+    private String internalGetTranscriptText(boolean stripColors) {
+        StringBuilder builder = new StringBuilder();
+        char[] rowBuffer = mRowBuffer;
+        int columns = mColumns;
+        for (int row = -mTranscript.size(); row < mScreenRows; row++) {
+            char[] data;
+            int offset;
+            boolean lineWrap;
+            if (row < 0) {
+                lineWrap = decodeTranscriptRow(row);
+                data = mTranscriptRow;
+                offset = 0;
+            } else {
+                data = mData;
+                offset = getOffset(row);
+                lineWrap = mLineWrap[row];
+            }
+            int lastPrintingChar = -1;
+            for (int column = 0; column < columns; column++) {
+                char c = data[offset + column];
+                if (stripColors) {
+                    c = (char) (c & 0xff);
+                }
+                if ((c & 0xff) != ' ') {
+                    lastPrintingChar = column;
+                }
+                rowBuffer[column] = c;
+            }
+            if (lineWrap) {
+                builder.append(rowBuffer, 0, columns);
+            } else {
+                builder.append(rowBuffer, 0, lastPrintingChar + 1);
+                builder.append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    public void resize(int columns, int rows, int[] cursor, int foreColor,
+            int backColor) {
+        // Keep the rows up to the cursor, and any below it that aren't blank.
+        int lastRow = cursor[1];
+        for (int row = mScreenRows - 1; row > lastRow; row--) {
+            if (!isBlank(row)) {
+                lastRow = row;
+                break;
+            }
+        }
+        if (columns == mColumns) {
+            resizeRows(rows, lastRow, cursor, foreColor, backColor);
+        } else {
+            reflow(columns, rows, lastRow, cursor, foreColor, backColor);
+        }
+        consistencyCheck();
+    }
+
+    private boolean isBlank(int row) {
+        char[] data = mData;
+        int offset = getOffset(row);
+        for (int column = 0; column < mColumns; column++) {
+            if ((data[offset + column] & 0xff) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Change the number of rows only. Rows move between the transcript and
+     * the top of the screen, so that the bottom of the text stays put if the
+     * screen shrinks, and rows come back from the transcript if it grows.
+     */
+    private void resizeRows(int rows, int lastRow, int[] cursor,
+            int foreColor, int backColor) {
+        int columns = mColumns;
+        char[] oldData = mData;
+        boolean[] oldLineWrap = mLineWrap;
+
+        // The rows below the cursor are dropped if they don't fit.
+        int used = Math.min(lastRow + 1, cursor[1] + rows);
+        int keep = Math.min(mTranscript.size() + used, rows);
+        int shift = keep - used;
+        for (int row = 0; row < -shift; row++) {
+            mTranscript.append(oldData, row * columns, columns, oldLineWrap[row]);
+        }
+
+        initScreen(columns, rows, foreColor, backColor);
+        for (int row = Math.max(0, -shift); row < used; row++) {
+            System.arraycopy(oldData, row * columns, mData, (row + shift) * columns, columns);
+            mLineWrap[row + shift] = oldLineWrap[row];
+        }
+        for (int row = shift - 1; row >= 0; row--) {
+            mLineWrap[row] = mTranscript.removeNewest(mTranscriptRow, columns);
+            System.arraycopy(mTranscriptRow, 0, mData, row * columns, columns);
+        }
+        cursor[1] += shift;
+    }
+
+    /**
+     * Rewrap the transcript and the screen to a new width, in one pass over
+     * the rows. Rows joined by line wraps form a logical line, which is cut
+     * into rows of the new width, colors and all. The blanks that end a
+     * logical line are not carried over; the new rows are padded with the
+     * last cell instead. New rows are laid out on the screen, used as a ring,
+     * and the oldest one goes to a new transcript each time it fills up.
+     *
+     * @param cursor the cursor's column and row, updated to follow the
+     *        character under it
+     */
+    private void reflow(int columns, int rows, int lastRow, int[] cursor,
+            int foreColor, int backColor) {
+        int oldColumns = mColumns;
+        char[] oldData = mData;
+        boolean[] oldLineWrap = mLineWrap;
+        char[] oldRow = mTranscriptRow;
+        TranscriptStore oldTranscript = mTranscript;
+        int transcriptRows = oldTranscript.size();
+        // rows counted from the oldest transcript row
+        int cursorRow = transcriptRows + cursor[1];
+        int cursorCol = cursor[0];
+        lastRow += transcriptRows;
+
+        mTranscript = new TranscriptStore(mTotalRows - rows);
+        initScreen(columns, rows, foreColor, backColor);
+        char[] data = mData;
+        boolean[] lineWrap = mLineWrap;
+        char blank = encode(' ', foreColor, backColor);
+
+        // The new row being written, counted from the first, and its offset
+        // in the ring.
+        int newRow = 0;
+        int start = 0;
+        int column = 0;
+        int newCursorRow = -1;
+        int newCursorCol = 0;
+
+        rows:
+        for (int row = 0; row <= lastRow; row++) {
+            char[] src;
+            int srcOffset;
+            boolean wraps;
+            if (row < transcriptRows) {
+                wraps = oldTranscript.getRow(row, oldRow, oldColumns);
+                src = oldRow;
+                srcOffset = 0;
+            } else {
+                src = oldData;
+                srcOffset = (row - transcriptRows) * oldColumns;
+                wraps = oldLineWrap[row - transcriptRows];
+            }
+            wraps &= row < lastRow;
+
+            // Trailing blanks at the end of a logical line are padding.
+            int length = oldColumns;
+            char pad = blank;
+            if (!wraps) {
+                char last = src[srcOffset + oldColumns - 1];
+                if ((last & 0xff) == ' ') {
+                    pad = last;
+                    while (length > 0 && src[srcOffset + length - 1] == last) {
+                        length--;
+                    }
+                }
+            }
+            if (row == cursorRow) {
+                length = Math.max(length, cursorCol + 1);
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (column == columns) {
+                    if (newCursorRow >= 0 && newRow + 1 == newCursorRow + rows) {
+                        // Rows past here would push the cursor off the screen.
+                        break rows;
+                    }
+                    lineWrap[start / columns] = true;
+                    start = startRow(++newRow);
+                    column = 0;
+                }
+                if (row == cursorRow && i == cursorCol) {
+                    newCursorRow = newRow;
+                    newCursorCol = column;
+                }
+                data[start + column++] = src[srcOffset + i];
+            }
+
+            if (!wraps) {
+                for (; column < columns; column++) {
+                    data[start + column] = pad;
+                }
+                if (row == lastRow
+                        || (newCursorRow >= 0 && newRow + 1 == newCursorRow + rows)) {
+                    break;
+                }
+                start = startRow(++newRow);
+                column = 0;
+            }
+        }
+
+        // Unroll the ring, so that the oldest row is at the top.
+        int usedRows = newRow + 1;
+        if (usedRows > rows) {
+            int top = usedRows % rows;
+            char[] unrolled = new char[data.length];
+            System.arraycopy(data, top * columns, unrolled, 0, (rows - top) * columns);
+            System.arraycopy(data, 0, unrolled, (rows - top) * columns, top * columns);
+            mData = unrolled;
+            boolean[] unrolledWrap = new boolean[rows];
+            System.arraycopy(lineWrap, top, unrolledWrap, 0, rows - top);
+            System.arraycopy(lineWrap, 0, unrolledWrap, rows - top, top);
+            mLineWrap = unrolledWrap;
+            newCursorRow -= usedRows - rows;
+        }
+        cursor[0] = newCursorCol;
+        cursor[1] = newCursorRow;
+    }
+
+    /**
+     * Start a new row of a reflow. Once the screen is full, the oldest row
+     * moves to the transcript to make room.
+     *
+     * @param newRow the row, counted from the first row of the reflow
+     * @return the offset of the row in mData
+     */
+    private int startRow(int newRow) {
+        int columns = mColumns;
+        int start = (newRow % mScreenRows) * columns;
+        if (newRow >= mScreenRows) {
+            mTranscript.append(mData, start, columns, mLineWrap[start / columns]);
+            mLineWrap[start / columns] = false;
+        }
+        return start;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Holds the rows that have scrolled off the top of the screen, compactly
+ * enough that a long history fits in a few MB.
+ * <p>
+ * Rows are stored as cells in the same encoding as the screen (ASCII in the
+ * low byte, colors in the high byte), but each row is squeezed on the way
+ * in: the trailing cells that repeat the last one (normally blanks) are
+ * dropped and replaced by a single pad cell, and the rest is run-length
+ * encoded by color, one color byte per run rather than per cell. Encoded
+ * rows are collected into blocks of {@link #ROWS_PER_BLOCK} rows, and a
+ * full block is deflated.
+ * <p>
+ * Reading a row inflates its block, and a few inflated blocks are kept, so
+ * that drawing a screenful of rows, or flinging through the history, only
+ * inflates a block every few hundred rows.
+ */
+class TranscriptStore {
+    /**
+     * Rows per compressed block.
+     */
+    static final int ROWS_PER_BLOCK = 256;
+
+    /**
+     * The number of inflated blocks kept for reading.
+     */
+    private static final int CACHED_BLOCKS = 4;
+
+    private static final int FLAG_LINE_WRAP = 1;
+
+    /**
+     * The most rows to keep. Older rows are dropped.
+     */
+    private final int mMaxRows;
+
+    /**
+     * The deflated blocks, oldest first. Each holds ROWS_PER_BLOCK rows.
+     */
+    private final ArrayList<byte[]> mBlocks = new ArrayList<byte[]>();
+
+    /**
+     * The number of blocks dropped so far, so that a block keeps its number
+     * (mDroppedBlocks + its index in mBlocks) in the cache.
+     */
+    private int mDroppedBlocks;
+
+    /**
+     * The number of rows of the oldest block that have been dropped. The
+     * block itself goes once all its rows are.
+     */
+    private int mSkippedRows;
+
+    /**
+     * The rows held, not counting skipped ones.
+     */
+    private int mSize;
+
+    /**
+     * The newest rows, encoded but not compressed yet.
+     */
+    private byte[] mOpenBlock = new byte[8 * 1024];
+    private int mOpenLength;
+    private int[] mOpenOffsets = new int[ROWS_PER_BLOCK];
+    private int mOpenRows;
+
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+    private byte[] mDeflateBuffer = new byte[8 * 1024];
+
+    /**
+     * Inflated blocks: the block number, its rows and where each row starts.
+     */
+    private final int[] mCachedBlockNumbers = new int[CACHED_BLOCKS];
+    private final byte[][] mCachedBlocks = new byte[CACHED_BLOCKS][];
+    private final int[][] mCachedOffsets = new int[CACHED_BLOCKS][ROWS_PER_BLOCK];
+    private final long[] mCachedLastUse = new long[CACHED_BLOCKS];
+    private long mUseCount;
+
+    /**
+     * @param maxRows the most rows to keep
+     */
+    public TranscriptStore(int maxRows) {
+        mMaxRows = maxRows;
+        clear();
+    }
+
+    /**
+     * @return the number of rows held
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Drop all the rows.
+     */
+    public void clear() {
+        mBlocks.clear();
+        mDroppedBlocks = 0;
+        mSkippedRows = 0;
+        mSize = 0;
+        mOpenLength = 0;
+        mOpenRows = 0;
+        for (int i = 0; i < CACHED_BLOCKS; i++) {
+            mCachedBlockNumbers[i] = -1;
+        }
+    }
+
+    /**
+     * @return the memory used by the stored rows and the read cache, in bytes
+     */
+    public long getStorageBytes() {
+        long bytes = mOpenBlock.length;
+        for (int i = 0; i < mBlocks.size(); i++) {
+            bytes += mBlocks.get(i).length;
+        }
+        for (int i = 0; i < CACHED_BLOCKS; i++) {
+            if (mCachedBlocks[i] != null) {
+                bytes += mCachedBlocks[i].length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Add a row after the newest one.
+     *
+     * @param cells holds the row, as encoded cells
+     * @param offset index of the row's first cell
+     * @param columns the width of the row
+     * @param lineWrap whether the row wraps into the next one
+     */
+    public void append(char[] cells, int offset, int columns, boolean lineWrap) {
+        if (mMaxRows <= 0) {
+            return;
+        }
+
+        // Trim the cells that repeat the last one; they come back as padding.
+        char pad = columns > 0 ? cells[offset + columns - 1] : ' ';
+        int length = columns;
+        while (length > 0 && cells[offset + length - 1] == pad) {
+            length--;
+        }
+
+        // Worst case: a run per cell, at 1 + 3 + 1 bytes each.
+        ensureOpenCapacity(12 + length * 5);
+        mOpenOffsets[mOpenRows++] = mOpenLength;
+        byte[] out = mOpenBlock;
+        int pos = mOpenLength;
+        out[pos++] = (byte) (lineWrap ? FLAG_LINE_WRAP : 0);
+        out[pos++] = (byte) (pad >> 8);
+        out[pos++] = (byte) pad;
+        pos = writeVarint(out, pos, length);
+        int i = 0;
+        while (i < length) {
+            int colors = cells[offset + i] & 0xff00;
+            int runEnd = i + 1;
+            while (runEnd < length && (cells[offset + runEnd] & 0xff00) == colors) {
+                runEnd++;
+            }
+            out[pos++] = (byte) (colors >> 8);
+            pos = writeVarint(out, pos, runEnd - i);
+            for (; i < runEnd; i++) {
+                out[pos++] = (byte) cells[offset + i];
+            }
+        }
+        mOpenLength = pos;
+        mSize++;
+
+        if (mOpenRows == ROWS_PER_BLOCK) {
+            closeOpenBlock();
+        }
+        if (mSize > mMaxRows) {
+            dropOldestRow();
+        }
+    }
+
+    /**
+     * Decode a row.
+     *
+     * @param index the row, 0 being the oldest
+     * @param cells receives the row's cells
+     * @param columns the number of cells to fill in
+     * @return whether the row wraps into the next one
+     */
+    public boolean getRow(int index, char[] cells, int columns) {
+        if (index < 0 || index >= mSize) {
+            throw new IllegalArgumentException("row " + index + " of " + mSize);
+        }
+        int row = index + mSkippedRows;
+        int block = row / ROWS_PER_BLOCK;
+        int rowInBlock = row % ROWS_PER_BLOCK;
+
+        byte[] data;
+        int pos;
+        if (block < mBlocks.size()) {
+            int slot = inflateBlock(block);
+            data = mCachedBlocks[slot];
+            pos = mCachedOffsets[slot][rowInBlock];
+        } else {
+            data = mOpenBlock;
+            pos = mOpenOffsets[rowInBlock];
+        }
+
+        int flags = data[pos++];
+        char pad = (char) (((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff));
+        pos += 2;
+        int length = readVarint(data, pos);
+        pos = skipVarint(data, pos);
+        int i = 0;
+        while (i < length) {
+            int colors = (data[pos++] & 0xff) << 8;
+            int runLength = readVarint(data, pos);
+            pos = skipVarint(data, pos);
+            int runEnd = i + runLength;
+            for (; i < runEnd; i++) {
+                char c = (char) (colors | (data[pos++] & 0xff));
+                if (i < columns) {
+                    cells[i] = c;
+                }
+            }
+        }
+        for (; i < columns; i++) {
+            cells[i] = pad;
+        }
+        return (flags & FLAG_LINE_WRAP) != 0;
+    }
+
+    /**
+     * Decode the newest row and remove it, for when the screen grows and
+     * takes rows back.
+     *
+     * @param cells receives the row's cells
+     * @param columns the number of cells to fill in
+     * @return whether the row wraps into the next one
+     */
+    public boolean removeNewest(char[] cells, int columns) {
+        boolean lineWrap = getRow(mSize - 1, cells, columns);
+        if (mOpenRows == 0) {
+            reopenNewestBlock();
+        }
+        mOpenLength = mOpenOffsets[--mOpenRows];
+        mSize--;
+        return lineWrap;
+    }
+
+    /**
+     * Inflate the newest block back into the open block, which is empty.
+     */
+    private void reopenNewestBlock() {
+        int block = mBlocks.size() - 1;
+        int slot = inflateBlock(block);
+        byte[] data = mCachedBlocks[slot];
+        int[] offsets = mCachedOffsets[slot];
+
+        // The open block takes over the inflated rows, and the slot is
+        // freed, as the block will be deflated again with different rows.
+        // removeNewest() sets mOpenLength.
+        mOpenBlock = data;
+        System.arraycopy(offsets, 0, mOpenOffsets, 0, ROWS_PER_BLOCK);
+        mOpenRows = ROWS_PER_BLOCK;
+        mCachedBlocks[slot] = null;
+        mCachedBlockNumbers[slot] = -1;
+        mCachedLastUse[slot] = 0;
+        mBlocks.remove(block);
+    }
+
+    private void ensureOpenCapacity(int needed) {
+        if (mOpenLength + needed > mOpenBlock.length) {
+            byte[] block = new byte[Math.max(mOpenBlock.length * 2, mOpenLength + needed)];
+            System.arraycopy(mOpenBlock, 0, block, 0, mOpenLength);
+            mOpenBlock = block;
+        }
+    }
+
+    private void closeOpenBlock() {
+        Deflater deflater = mDeflater;
+        deflater.reset();
+        deflater.setInput(mOpenBlock, 0, mOpenLength);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == mDeflateBuffer.length) {
+                byte[] buffer = new byte[mDeflateBuffer.length * 2];
+                System.arraycopy(mDeflateBuffer, 0, buffer, 0, length);
+                mDeflateBuffer = buffer;
+            }
+            length += deflater.deflate(mDeflateBuffer, length, mDeflateBuffer.length - length);
+        }
+        byte[] block = new byte[length];
+        System.arraycopy(mDeflateBuffer, 0, block, 0, length);
+        mBlocks.add(block);
+        mOpenLength = 0;
+        mOpenRows = 0;
+    }
+
+    private void dropOldestRow() {
+        mSize--;
+        mSkippedRows++;
+        if (mSkippedRows == ROWS_PER_BLOCK) {
+            // append() closes a full open block before dropping rows, so
+            // the oldest block is always a closed one
+            mBlocks.remove(0);
+            mDroppedBlocks++;
+            mSkippedRows = 0;
+        }
+    }
+
+    /**
+     * Make sure a block is inflated.
+     *
+     * @param block the block's index in mBlocks
+     * @return the cache slot holding it
+     */
+    private int inflateBlock(int block) {
+        int number = mDroppedBlocks + block;
+        int victim = 0;
+        for (int i = 0; i < CACHED_BLOCKS; i++) {
+            if (mCachedBlockNumbers[i] == number) {
+                mCachedLastUse[i] = ++mUseCount;
+                return i;
+            }
+            if (mCachedLastUse[i] < mCachedLastUse[victim]) {
+                victim = i;
+            }
+        }
+
+        byte[] compressed = mBlocks.get(block);
+        byte[] data = mCachedBlocks[victim];
+        if (data == null) {
+            data = new byte[compressed.length * 4];
+        }
+        Inflater inflater = mInflater;
+        inflater.reset();
+        inflater.setInput(compressed);
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == data.length) {
+                    byte[] grown = new byte[data.length * 2];
+                    System.arraycopy(data, 0, grown, 0, length);
+                    data = grown;
+                }
+                length += inflater.inflate(data, length, data.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Find where each row starts.
+        int[] offsets = mCachedOffsets[victim];
+        int pos = 0;
+        for (int row = 0; row < ROWS_PER_BLOCK; row++) {
+            offsets[row] = pos;
+            pos += 3;
+            int cells = readVarint(data, pos);
+            pos = skipVarint(data, pos);
+            int i = 0;
+            while (i < cells) {
+                pos++;
+                int runLength = readVarint(data, pos);
+                pos = skipVarint(data, pos) + runLength;
+                i += runLength;
+            }
+        }
+
+        mCachedBlocks[victim] = data;
+        mCachedBlockNumbers[victim] = number;
+        mCachedLastUse[victim] = ++mUseCount;
+        return victim;
+    }
+
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while (value >= 0x80) {
+            out[pos++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] in, int pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in[pos++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int skipVarint(byte[] in, int pos) {
+        while ((in[pos++] & 0x80) != 0) {
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Compares {@link ByteQueue} and {@link ByteRing} on the path from the pty
+ * reader thread to the UI thread, the way EmulatorView uses each of them.
+ * <p>
+ * A producer thread writes chunks the size of typical pty reads. The
+ * consumer stands in for the UI thread: it handles "messages" from a
+ * blocking queue, as a Looper does, and reads one receive buffer's worth per
+ * message. With the ByteQueue every write posts a message; with the
+ * ByteRing only writes that find the consumer idle do.
+ * <p>
+ * Usage: java -jar term-benchmarks.jar [megabytes per run]
+ */
+public class ByteQueueBenchmark {
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024;
+    private static final int[] CHUNK_SIZES = { 64, 512, 4096 };
+    private static final int RUNS = 5;
+
+    private static final Integer UPDATE = Integer.valueOf(1);
+
+    private interface Pipe {
+        void write(byte[] buffer, int offset, int length) throws InterruptedException;
+
+        /** Handle one message on the consumer; returns the bytes read. */
+        int update(byte[] buffer) throws InterruptedException;
+    }
+
+    private static class QueuePipe implements Pipe {
+        private final ByteQueue mQueue = new ByteQueue(4 * 1024);
+        private final LinkedBlockingQueue<Integer> mMessages;
+
+        QueuePipe(LinkedBlockingQueue<Integer> messages) {
+            mMessages = messages;
+        }
+
+        public void write(byte[] buffer, int offset, int length) throws InterruptedException {
+            mQueue.write(buffer, offset, length);
+            mMessages.put(UPDATE);
+        }
+
+        public int update(byte[] buffer) throws InterruptedException {
+            int bytesToRead = Math.min(mQueue.getBytesAvailable(), buffer.length);
+            return mQueue.read(buffer, 0, bytesToRead);
+        }
+    }
+
+    private static class RingPipe implements Pipe {
+        private final ByteRing mRing;
+        private final LinkedBlockingQueue<Integer> mMessages;
+
+        RingPipe(final LinkedBlockingQueue<Integer> messages) {
+            mMessages = messages;
+            mRing = new ByteRing(16 * 1024, new Runnable() {
+                public void run() {
+                    messages.add(UPDATE);
+                }
+            });
+        }
+
+        public void write(byte[] buffer, int offset, int length) throws InterruptedException {
+            mRing.write(buffer, offset, length);
+        }
+
+        public int update(byte[] buffer) {
+            int bytesRead = mRing.read(buffer, 0, buffer.length);
+            if (!mRing.sleepIfEmpty()) {
+                mMessages.add(UPDATE);
+            }
+            return bytesRead;
+        }
+    }
+
+    /**
+     * @return elapsed ns, with the message count in messages[0]
+     */
+    private static long run(boolean ring, final int chunkSize, final long total,
+            int[] messages) throws InterruptedException {
+        final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+        final Pipe pipe = ring ? new RingPipe(queue) : new QueuePipe(queue);
+        final byte[] chunk = new byte[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            chunk[i] = (byte) i;
+        }
+
+        Thread producer = new Thread("producer") {
+            public void run() {
+                try {
+                    for (long written = 0; written < total; written += chunkSize) {
+                        pipe.write(chunk, 0, chunkSize);
+                    }
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+
+        byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+        long start = System.nanoTime();
+        producer.start();
+        long received = 0;
+        int count = 0;
+        while (received < total) {
+            queue.take();
+            count++;
+            received += pipe.update(buffer);
+        }
+        long elapsed = System.nanoTime() - start;
+        producer.join();
+        if (received != total) {
+            throw new IllegalStateException("received " + received + " of " + total);
+        }
+        messages[0] = count;
+        return elapsed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long megabytes = (args.length > 0) ? Long.parseLong(args[0]) : 64;
+        long total = megabytes * 1024 * 1024;
+        int[] messages = new int[1];
+
+        // warm up both
+        run(false, 512, total / 4, messages);
+        run(true, 512, total / 4, messages);
+
+        System.out.println("chunk  queue         MB/s  messages");
+        for (int chunkSize : CHUNK_SIZES) {
+            for (int pass = 0; pass < 2; pass++) {
+                boolean ring = pass == 1;
+                long best = Long.MAX_VALUE;
+                int bestMessages = 0;
+                for (int i = 0; i < RUNS; i++) {
+                    long elapsed = run(ring, chunkSize, total, messages);
+                    if (elapsed < best) {
+                        best = elapsed;
+                        bestMessages = messages[0];
+                    }
+                }
+                double mbPerSec = megabytes * 1e9 / best;
+                System.out.println(String.format("%5d  %-9s %9.1f  %8d", chunkSize,
+                        ring ? "ByteRing" : "ByteQueue", mbPerSec, bestMessages));
+            }
+        }
+    }
+}
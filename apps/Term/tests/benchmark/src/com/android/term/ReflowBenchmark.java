@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Times {@link TerminalEmulator#updateSize} with a full transcript, as when
+ * the device is rotated, against the way it used to be done: take the
+ * transcript as text and run it through a new screen of the new size.
+ * Rotating back must give the text that was there before. Also times the
+ * resize when the soft keyboard comes up, which only changes the rows.
+ * <p>
+ * Usage: java -cp term-benchmarks.jar
+ *     com.android.term.ReflowBenchmark [capture ...]
+ */
+public class ReflowBenchmark {
+    // portrait and landscape
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 24;
+    private static final int WIDE_COLUMNS = 133;
+    private static final int WIDE_ROWS = 14;
+    private static final int KEYBOARD_ROWS = 14;
+    private static final int TRANSCRIPT_ROWS = 100000;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<byte[]> streams = new ArrayList<byte[]>();
+        if (args.length == 0) {
+            names.add("ls -lR (synthetic)");
+            streams.add(TerminalEmulatorBenchmark.synthesizeListing());
+            names.add("cat (synthetic)");
+            streams.add(TerminalEmulatorBenchmark.synthesizeText());
+        } else {
+            for (String arg : args) {
+                names.add(arg);
+                streams.add(TerminalEmulatorBenchmark.readFile(arg));
+            }
+        }
+
+        for (int i = 0; i < streams.size(); i++) {
+            TranscriptScreen screen = new TranscriptScreen(COLUMNS, TRANSCRIPT_ROWS, ROWS, 0, 7);
+            TerminalEmulator emulator = fill(screen, streams.get(i));
+            String text = emulator.getTranscriptText();
+            emulator.updateSize(WIDE_COLUMNS, WIDE_ROWS);
+            emulator.updateSize(COLUMNS, ROWS);
+            if (!trimLines(emulator.getTranscriptText()).equals(trimLines(text))) {
+                System.out.println(names.get(i) + ": TEXT CHANGED BY ROTATING");
+                continue;
+            }
+
+            long reflow = Long.MAX_VALUE;
+            long replay = Long.MAX_VALUE;
+            long keyboard = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                emulator.updateSize(COLUMNS, KEYBOARD_ROWS);
+                emulator.updateSize(COLUMNS, ROWS);
+                keyboard = Math.min(keyboard, (System.nanoTime() - start) / 2);
+
+                start = System.nanoTime();
+                emulator.updateSize(WIDE_COLUMNS, WIDE_ROWS);
+                emulator.updateSize(COLUMNS, ROWS);
+                reflow = Math.min(reflow, (System.nanoTime() - start) / 2);
+
+                start = System.nanoTime();
+                replay(emulator.getTranscriptText(), WIDE_COLUMNS, WIDE_ROWS);
+                replay(emulator.getTranscriptText(), COLUMNS, ROWS);
+                replay = Math.min(replay, (System.nanoTime() - start) / 2);
+            }
+            System.out.println(String.format("%s: %d rows, reflow %.1f ms,"
+                    + " replaying the text %.1f ms (%.1fx), keyboard %.3f ms",
+                    names.get(i), screen.getActiveRows(), reflow / 1e6,
+                    replay / 1e6, (double) replay / reflow, keyboard / 1e6));
+        }
+    }
+
+    /**
+     * Run a capture through the emulator until the transcript is full.
+     */
+    private static TerminalEmulator fill(TranscriptScreen screen, byte[] stream) {
+        TerminalEmulator emulator = new TerminalEmulator(screen, COLUMNS, ROWS, null);
+        while (screen.getActiveRows() < TRANSCRIPT_ROWS) {
+            emulator.append(stream, 0, stream.length);
+        }
+        return emulator;
+    }
+
+    /**
+     * What updateSize() used to do: run the transcript text through a new
+     * screen a byte at a time, which loses the colors.
+     */
+    private static TerminalEmulator replay(String text, int columns, int rows) {
+        TranscriptScreen screen = new TranscriptScreen(columns, TRANSCRIPT_ROWS, rows, 0, 7);
+        TerminalEmulator emulator = new TerminalEmulator(screen, columns, rows, null);
+        emulator.setFastPath(false);
+        byte[] bytes = text.replace("\n", "\r\n").getBytes();
+        emulator.append(bytes, 0, bytes.length);
+        return emulator;
+    }
+
+    /**
+     * The text with blanks at the ends of lines and blank lines at the end
+     * dropped, as they may not survive a reflow.
+     */
+    private static String trimLines(String text) {
+        StringBuilder builder = new StringBuilder();
+        int blankLines = 0;
+        for (String line : text.split("\n", -1)) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ') {
+                end--;
+            }
+            if (end == 0) {
+                blankLines++;
+                continue;
+            }
+            for (; blankLines > 0; blankLines--) {
+                builder.append('\n');
+            }
+            builder.append(line, 0, end).append('\n');
+        }
+        return builder.toString();
+    }
+}
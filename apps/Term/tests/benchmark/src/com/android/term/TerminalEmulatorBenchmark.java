@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Replays captured terminal output through {@link TerminalEmulator}, with and
+ * without the fast path for printable runs, and checks that both leave the
+ * same transcript behind.
+ * <p>
+ * Capture a stream with, for example:
+ * <pre>
+ *   adb shell ls -lR /system &gt; ls-lR.txt
+ *   adb shell cat /proc/cpuinfo /system/build.prop &gt; cat.txt
+ * </pre>
+ * (adb shell goes through a pty, so the captures have the \r\n line endings
+ * the terminal sees.) Without arguments, synthetic ls -lR and cat streams
+ * are used.
+ * <p>
+ * Usage: java -cp term-benchmarks.jar
+ *     com.android.term.TerminalEmulatorBenchmark [capture ...]
+ */
+public class TerminalEmulatorBenchmark {
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 24;
+    private static final int TRANSCRIPT_ROWS = 10000;
+    // the size of EmulatorView's receive buffer
+    private static final int CHUNK_SIZE = 4 * 1024;
+    private static final int RUNS = 5;
+    private static final int MIN_BYTES = 8 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<byte[]> streams = new ArrayList<byte[]>();
+        if (args.length == 0) {
+            names.add("ls -lR (synthetic)");
+            streams.add(synthesizeListing());
+            names.add("cat (synthetic)");
+            streams.add(synthesizeText());
+        } else {
+            for (String arg : args) {
+                names.add(arg);
+                streams.add(readFile(arg));
+            }
+        }
+
+        for (int i = 0; i < streams.size(); i++) {
+            byte[] stream = repeat(streams.get(i), MIN_BYTES);
+            if (!run(stream, true).equals(run(stream, false))) {
+                System.out.println(names.get(i) + ": TRANSCRIPTS DIFFER");
+                continue;
+            }
+            // warm up, then take the best of a few runs
+            time(stream, false);
+            time(stream, true);
+            long slow = Long.MAX_VALUE;
+            long fast = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                slow = Math.min(slow, time(stream, false));
+                fast = Math.min(fast, time(stream, true));
+            }
+            System.out.println(String.format("%s: %d bytes, per byte %.1f MB/s,"
+                    + " fast path %.1f MB/s (%.2fx)", names.get(i), stream.length,
+                    mbPerSec(stream.length, slow), mbPerSec(stream.length, fast),
+                    (double) slow / fast));
+        }
+    }
+
+    private static double mbPerSec(long bytes, long ns) {
+        return bytes * 1e9 / ns / (1024 * 1024);
+    }
+
+    private static TerminalEmulator feed(byte[] stream, boolean fastPath) {
+        TranscriptScreen screen = new TranscriptScreen(COLUMNS, TRANSCRIPT_ROWS, ROWS, 0, 7);
+        TerminalEmulator emulator = new TerminalEmulator(screen, COLUMNS, ROWS, null);
+        emulator.setFastPath(fastPath);
+        for (int offset = 0; offset < stream.length; offset += CHUNK_SIZE) {
+            emulator.append(stream, offset, Math.min(CHUNK_SIZE, stream.length - offset));
+        }
+        return emulator;
+    }
+
+    private static long time(byte[] stream, boolean fastPath) {
+        long start = System.nanoTime();
+        feed(stream, fastPath);
+        return System.nanoTime() - start;
+    }
+
+    private static String run(byte[] stream, boolean fastPath) {
+        TerminalEmulator emulator = feed(stream, fastPath);
+        return emulator.getTranscriptText() + "@" + emulator.getCursorRow() + ","
+                + emulator.getCursorCol();
+    }
+
+    private static byte[] repeat(byte[] stream, int minLength) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(minLength + stream.length);
+        do {
+            out.write(stream, 0, stream.length);
+        } while (out.size() < minLength);
+        return out.toByteArray();
+    }
+
+    static byte[] readFile(String name) throws IOException {
+        InputStream in = new FileInputStream(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Short lines, some with color escapes, like a colored ls -lR.
+     */
+    static byte[] synthesizeListing() {
+        StringBuilder sb = new StringBuilder();
+        for (int dir = 0; dir < 50; dir++) {
+            sb.append("/system/app/dir").append(dir).append(":\r\n");
+            for (int file = 0; file < 40; file++) {
+                boolean isDir = file % 7 == 0;
+                sb.append(isDir ? "drwxr-xr-x" : "-rw-r--r--");
+                sb.append(" root     root     ");
+                sb.append(String.format("%8d", file * 7919 % 100000));
+                sb.append(" 2010-06-01 12:").append(String.format("%02d", file % 60));
+                sb.append(' ');
+                if (isDir) {
+                    sb.append("\033[01;34m").append("subdir").append(file).append("\033[0m");
+                } else {
+                    sb.append("file").append(file).append(".apk");
+                }
+                sb.append("\r\n");
+            }
+            sb.append("\r\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    /**
+     * Long lines of prose that wrap, with the odd tab, like cat of a text file.
+     */
+    static byte[] synthesizeText() {
+        String[] words = { "the", "quick", "brown", "fox", "jumps", "over", "lazy",
+                "dog", "terminal", "emulator", "escape", "sequence", "transcript" };
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        for (int line = 0; line < 2000; line++) {
+            int length = 20 + (line * 37) % 200;
+            int start = sb.length();
+            if (line % 10 == 0) {
+                sb.append('\t');
+            }
+            while (sb.length() - start < length) {
+                sb.append(words[n++ % words.length]).append(' ');
+            }
+            sb.append("\r\n");
+        }
+        return sb.toString().getBytes();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Fills a {@link TranscriptStore} with 100,000 rows cut from captured (or
+ * synthetic) terminal output, checks that every row reads back as written,
+ * and reports the memory used per row and how fast rows are stored and read,
+ * in order and at random.
+ * <p>
+ * Rows are cut from the capture the way the screen would hold them: lines
+ * wrap at 80 columns, are padded with blanks, and SGR color escapes set the
+ * colors of the cells that follow. Other escapes are dropped.
+ * <p>
+ * Usage: java -cp term-benchmarks.jar
+ *     com.android.term.TranscriptStoreBenchmark [capture ...]
+ */
+public class TranscriptStoreBenchmark {
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 100000;
+    private static final int RUNS = 5;
+    private static final int RANDOM_READS = 200000;
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<byte[]> streams = new ArrayList<byte[]>();
+        if (args.length == 0) {
+            names.add("ls -lR (synthetic)");
+            streams.add(TerminalEmulatorBenchmark.synthesizeListing());
+            names.add("cat (synthetic)");
+            streams.add(TerminalEmulatorBenchmark.synthesizeText());
+        } else {
+            for (String arg : args) {
+                names.add(arg);
+                streams.add(TerminalEmulatorBenchmark.readFile(arg));
+            }
+        }
+
+        for (int i = 0; i < streams.size(); i++) {
+            boolean[] lineWrap = new boolean[ROWS];
+            char[] cells = cutRows(streams.get(i), lineWrap);
+            TranscriptStore store = fill(cells, lineWrap);
+            if (!check(store, cells, lineWrap)) {
+                System.out.println(names.get(i) + ": ROWS DIFFER");
+                continue;
+            }
+
+            // warm up, then take the best of a few runs
+            long append = Long.MAX_VALUE;
+            long sequential = Long.MAX_VALUE;
+            long random = Long.MAX_VALUE;
+            readSequential(store);
+            readRandom(store);
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                fill(cells, lineWrap);
+                append = Math.min(append, System.nanoTime() - start);
+                sequential = Math.min(sequential, readSequential(store));
+                random = Math.min(random, readRandom(store));
+            }
+
+            // what the ring of plain cells used to take: a char per cell and
+            // a line wrap flag per row
+            long plain = (long) ROWS * (COLUMNS * 2 + 1);
+            long bytes = store.getStorageBytes();
+            System.out.println(String.format("%s: %d rows in %d KB, %.1f bytes/row"
+                    + " (%.1fx smaller); append %.0f ns/row, read in order %.0f ns/row,"
+                    + " at random %.0f ns/row", names.get(i), ROWS, bytes / 1024,
+                    (double) bytes / ROWS, (double) plain / bytes, (double) append / ROWS,
+                    (double) sequential / ROWS, (double) random / RANDOM_READS));
+        }
+    }
+
+    private static TranscriptStore fill(char[] cells, boolean[] lineWrap) {
+        TranscriptStore store = new TranscriptStore(ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            store.append(cells, row * COLUMNS, COLUMNS, lineWrap[row]);
+        }
+        return store;
+    }
+
+    private static boolean check(TranscriptStore store, char[] cells, boolean[] lineWrap) {
+        if (store.size() != ROWS) {
+            return false;
+        }
+        char[] row = new char[COLUMNS];
+        for (int i = 0; i < ROWS; i++) {
+            if (store.getRow(i, row, COLUMNS) != lineWrap[i]) {
+                return false;
+            }
+            for (int column = 0; column < COLUMNS; column++) {
+                if (row[column] != cells[i * COLUMNS + column]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long readSequential(TranscriptStore store) {
+        char[] row = new char[COLUMNS];
+        long start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            store.getRow(i, row, COLUMNS);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long readRandom(TranscriptStore store) {
+        char[] row = new char[COLUMNS];
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < RANDOM_READS; i++) {
+            store.getRow(random.nextInt(ROWS), row, COLUMNS);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Cut a capture into ROWS rows of encoded cells, repeating it as often
+     * as needed.
+     */
+    private static char[] cutRows(byte[] stream, boolean[] lineWrap) {
+        char[] cells = new char[ROWS * COLUMNS];
+        int foreColor = 7;
+        int backColor = 0;
+        int row = 0;
+        int column = 0;
+        int i = 0;
+        while (row < ROWS) {
+            if (i == stream.length) {
+                i = 0;
+            }
+            int b = stream[i++] & 0xff;
+            if (b == 27 && i < stream.length && stream[i] == '[') {
+                // CSI: parameters, then a final byte
+                int end = i + 1;
+                while (end < stream.length && (stream[end] < 0x40 || stream[end] > 0x7e)) {
+                    end++;
+                }
+                if (end < stream.length && stream[end] == 'm') {
+                    String[] params = new String(stream, i + 1, end - i - 1).split(";");
+                    for (String param : params) {
+                        int code = param.length() == 0 ? 0 : Integer.parseInt(param);
+                        if (code == 0) {
+                            foreColor = 7;
+                            backColor = 0;
+                        } else if (code >= 30 && code <= 37) {
+                            foreColor = code - 30;
+                        } else if (code >= 40 && code <= 47) {
+                            backColor = code - 40;
+                        }
+                    }
+                }
+                i = end + 1;
+                continue;
+            }
+            if (b == '\r') {
+                continue;
+            }
+            if (b == '\n' || column == COLUMNS) {
+                char blank = (char) ((foreColor << 12) | (backColor << 8) | ' ');
+                for (; column < COLUMNS; column++) {
+                    cells[row * COLUMNS + column] = blank;
+                }
+                lineWrap[row] = b != '\n';
+                row++;
+                column = 0;
+                if (b == '\n' || row == ROWS) {
+                    continue;
+                }
+            }
+            if (b == '\t') {
+                b = ' ';
+            }
+            if (b >= 32 && b < 127) {
+                cells[row * COLUMNS + column++] =
+                        (char) ((foreColor << 12) | (backColor << 8) | b);
+            }
+        }
+        return cells;
+    }
+}
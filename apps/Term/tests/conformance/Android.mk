@@ -0,0 +1,36 @@
+#
+# Copyright (C) 2010 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Host conformance test of the emulator core against recorded pty output:
+#   java -jar $ANDROID_HOST_OUT/framework/term-conformance.jar \
+#       development/apps/Term/tests/conformance/captures
+#
+# Record new captures with record.py, then add their snapshots with
+# --update.
+
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := $(call all-java-files-under,src)
+
+LOCAL_JAVA_LIBRARIES := term-emulator-host
+
+LOCAL_JAR_MANIFEST := manifest.txt
+
+LOCAL_MODULE := term-conformance
+LOCAL_MODULE_TAGS := eng
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,70 @@
+#!/usr/bin/python2.4
+#
+# Copyright 2010, The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Records what a command writes to an 80x24 pty, as Term would receive it.
+
+The command runs under TERM=vt100 on a pty of the size the conformance test
+emulates, and every byte it writes is saved, escape sequences and all. Make
+the golden snapshot for a new capture with ConformanceTest --update, and
+check that it shows what the command really put on the screen.
+
+Example:
+  record.py captures/ls-color.pty ls --color=always -l /system/bin
+"""
+
+# Python imports
+import fcntl
+import os
+import pty
+import struct
+import sys
+import termios
+
+COLUMNS = 80
+ROWS = 24
+
+
+def main(argv):
+  if len(argv) < 3:
+    sys.stderr.write("usage: %s capture command [args...]\n" % argv[0])
+    return 2
+  pid, fd = pty.fork()
+  if pid == 0:
+    os.environ["TERM"] = "vt100"
+    os.environ["COLUMNS"] = str(COLUMNS)
+    os.environ["LINES"] = str(ROWS)
+    fcntl.ioctl(0, termios.TIOCSWINSZ,
+                struct.pack("HHHH", ROWS, COLUMNS, 0, 0))
+    os.execvp(argv[2], argv[2:])
+  capture = open(argv[1], "wb")
+  try:
+    while True:
+      try:
+        data = os.read(fd, 4096)
+      except OSError:
+        # EIO once the command exits and the pty closes
+        break
+      if not data:
+        break
+      capture.write(data)
+  finally:
+    capture.close()
+  status = os.waitpid(pid, 0)[1]
+  return os.WEXITSTATUS(status)
+
+
+if __name__ == "__main__":
+  sys.exit(main(sys.argv))
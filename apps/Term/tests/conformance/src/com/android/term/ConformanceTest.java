@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.term;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Replays recorded pty output (see record.py) through {@link TerminalEmulator}
+ * and checks the rows it leaves behind, transcript and screen, characters and
+ * colors, and the cursor, against a golden snapshot kept next to each
+ * capture (foo.pty, foo.golden).
+ * <p>
+ * Each capture is also replayed a byte at a time with the fast path for
+ * printable runs turned off, which must leave the same snapshot.
+ * <p>
+ * Usage: java -jar term-conformance.jar [--update] capture-or-directory ...
+ * <br>
+ * --update writes the snapshots instead of checking them. Look at the diff
+ * of the golden files before checking them in.
+ */
+public class ConformanceTest {
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 24;
+    private static final int TRANSCRIPT_ROWS = 1000;
+    // the size of EmulatorView's receive buffer
+    private static final int CHUNK_SIZE = 4 * 1024;
+    // fore color 7 on back color 0, the emulator's default
+    private static final int DEFAULT_COLORS = 0x70;
+
+    public static void main(String[] args) throws IOException {
+        boolean update = false;
+        ArrayList<File> captures = new ArrayList<File>();
+        for (String arg : args) {
+            if (arg.equals("--update")) {
+                update = true;
+                continue;
+            }
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                File[] files = file.listFiles();
+                Arrays.sort(files);
+                for (File f : files) {
+                    if (f.getName().endsWith(".pty")) {
+                        captures.add(f);
+                    }
+                }
+            } else {
+                captures.add(file);
+            }
+        }
+        if (captures.isEmpty()) {
+            System.err.println("usage: ConformanceTest [--update] capture-or-directory ...");
+            System.exit(2);
+        }
+
+        int failures = 0;
+        for (File capture : captures) {
+            String name = capture.getName();
+            byte[] stream = readFile(capture);
+            String snapshot = snapshot(name, stream, true, CHUNK_SIZE);
+            String slowSnapshot = snapshot(name, stream, false, 1);
+            if (!slowSnapshot.equals(snapshot)) {
+                System.out.println("FAIL " + name + ": fast and byte-at-a-time paths differ");
+                printFirstDifference(slowSnapshot, snapshot);
+                failures++;
+                continue;
+            }
+
+            File golden = new File(capture.getParentFile(),
+                    name.substring(0, name.length() - ".pty".length()) + ".golden");
+            if (update) {
+                writeFile(golden, snapshot.getBytes());
+                System.out.println("wrote " + golden);
+                continue;
+            }
+            if (!golden.exists()) {
+                System.out.println("FAIL " + name + ": no " + golden.getName()
+                        + "; run with --update to create it");
+                failures++;
+                continue;
+            }
+            String expected = new String(readFile(golden));
+            if (!expected.equals(snapshot)) {
+                System.out.println("FAIL " + name);
+                printFirstDifference(expected, snapshot);
+                failures++;
+            } else {
+                System.out.println("PASS " + name);
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " of " + captures.size() + " captures failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Replay a capture and describe the rows it leaves behind: a header
+     * with the cursor position, then a line per row with its characters,
+     * followed by its color runs unless the whole row has the default
+     * colors.
+     */
+    private static String snapshot(String name, byte[] stream, boolean fastPath,
+            int chunkSize) {
+        TranscriptScreen screen = new TranscriptScreen(COLUMNS, TRANSCRIPT_ROWS, ROWS, 7, 0);
+        TerminalEmulator emulator = new TerminalEmulator(screen, COLUMNS, ROWS, null);
+        emulator.setFastPath(fastPath);
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            emulator.append(stream, offset, Math.min(chunkSize, stream.length - offset));
+        }
+
+        StringBuilder out = new StringBuilder();
+        int transcriptRows = screen.getActiveTranscriptRows();
+        out.append("# ").append(name).append(": ").append(COLUMNS).append('x')
+                .append(ROWS).append(", ").append(transcriptRows)
+                .append(" transcript rows, cursor at row ")
+                .append(emulator.getCursorRow()).append(" column ")
+                .append(emulator.getCursorCol()).append('\n');
+        SnapshotRenderer renderer = new SnapshotRenderer();
+        for (int row = -transcriptRows; row < ROWS; row++) {
+            renderer.startRow();
+            screen.drawText(row, renderer, -1);
+            out.append(String.format("%4d |", row)).append(renderer.mText).append("|\n");
+            if (renderer.mRuns.length() > 0) {
+                out.append("      colors").append(renderer.mRuns).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Collects a row's characters and its color runs, as column:fore back.
+     */
+    private static class SnapshotRenderer implements RowRenderer {
+        final char[] mText = new char[COLUMNS];
+        final StringBuilder mRuns = new StringBuilder();
+        private boolean mAllDefault;
+
+        void startRow() {
+            Arrays.fill(mText, ' ');
+            mRuns.setLength(0);
+            mAllDefault = true;
+        }
+
+        public void drawTextRun(int lineOffset, char[] text, int index, int count,
+                boolean cursor, int foreColor, int backColor) {
+            for (int i = 0; i < count; i++) {
+                char c = text[index + i];
+                mText[lineOffset + i] = (c >= 32 && c < 127) ? c : '?';
+            }
+            mAllDefault &= ((foreColor << 4) | backColor) == DEFAULT_COLORS;
+            mRuns.append(' ').append(lineOffset).append(':')
+                    .append(Integer.toHexString(foreColor))
+                    .append(Integer.toHexString(backColor));
+            if (lineOffset + count == COLUMNS && mAllDefault) {
+                mRuns.setLength(0);
+            }
+        }
+    }
+
+    private static void printFirstDifference(String expected, String actual) {
+        String[] expectedLines = expected.split("\n", -1);
+        String[] actualLines = actual.split("\n", -1);
+        int lines = Math.min(expectedLines.length, actualLines.length);
+        for (int i = 0; i < lines; i++) {
+            if (!expectedLines[i].equals(actualLines[i])) {
+                System.out.println("  line " + (i + 1) + ":");
+                System.out.println("  - " + expectedLines[i]);
+                System.out.println("  + " + actualLines[i]);
+                return;
+            }
+        }
+        System.out.println("  " + expectedLines.length + " lines expected, got "
+                + actualLines.length);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
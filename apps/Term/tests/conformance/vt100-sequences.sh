@@ -0,0 +1,127 @@
+#!/bin/sh
+#
+# Copyright (C) 2010 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Screens in the spirit of vttest's, one per group of VT100 controls, for
+# captures/vt100-sequences.pty. Nothing here asks the terminal to answer,
+# as the conformance test has no pty to answer to.
+
+esc=$(printf '\033')
+csi="$esc["
+
+screen() {
+    printf '%s2J%sH%s\r\n' "$csi" "$csi" "$1"
+}
+
+# Alignment pattern, then a frame drawn with cursor positioning.
+printf '%s#8' "$esc"
+screen "Cursor positioning"
+printf '%s3;10H+' "$csi"
+printf '%s3;70H+' "$csi"
+printf '%s20;10H+' "$csi"
+printf '%s20;70H+' "$csi"
+printf '%s4;10H%s' "$csi" "|"
+printf '%sB%sD|%sB%sD|' "$csi" "$csi" "$csi" "$csi"
+printf '%s10;40Hcenter%s5Dleft%s2Aup%s3Cright%sGcolumn one' "$csi" "$csi" "$csi" "$csi" "$csi"
+printf '%s12d%s8Grow 12' "$csi" "$csi"
+printf '%s22;1H' "$csi"
+
+# Erasing parts of lines and of the screen.
+screen "Erase in line and display"
+i=0
+while [ $i -lt 10 ]; do
+    printf 'line %d: abcdefghijklmnopqrstuvwxyz0123456789\r\n' $i
+    i=$((i + 1))
+done
+printf '%s3;20H%sK' "$csi" "$csi"
+printf '%s4;20H%s1K' "$csi" "$csi"
+printf '%s5;20H%s2K' "$csi" "$csi"
+printf '%s8;30H%s1J' "$csi" "$csi"
+printf '%s10;30H%sJ' "$csi" "$csi"
+printf '%s14;1H' "$csi"
+
+# Inserting and deleting characters and lines.
+screen "Insert and delete"
+i=0
+while [ $i -lt 12 ]; do
+    printf 'row %02d ABCDEFGHIJKLMNOPQRSTUVWXYZ\r\n' $i
+    i=$((i + 1))
+done
+printf '%s3;8H%s5@' "$csi" "$csi"
+printf '%s4;8H%s3P' "$csi" "$csi"
+printf '%s6;1H%s2L' "$csi" "$csi"
+printf '%s10;1H%s3M' "$csi" "$csi"
+printf '%s12;8H%s4hinserted%s4l' "$csi" "$csi" "$csi"
+printf '%s16;1H' "$csi"
+
+# Scrolling inside margins, forward and back.
+screen "Scrolling region"
+i=0
+while [ $i -lt 20 ]; do
+    printf 'outside %02d\r\n' $i
+    i=$((i + 1))
+done
+printf '%s5;12r%s12;1H' "$csi" "$csi"
+i=0
+while [ $i -lt 10 ]; do
+    printf '\r\nscrolled %02d' $i
+    i=$((i + 1))
+done
+printf '%s5;1H%sMreverse 1%sMreverse 2' "$csi" "$esc" "$esc"
+printf '%s12;1H%sDindex%sEnext line' "$csi" "$esc" "$esc"
+printf '%sr%s22;1H' "$csi" "$csi"
+
+# Tab stops.
+screen "Tabs"
+printf 'a\tb\tc\td\r\n'
+printf '%s3g' "$csi"
+printf '%s5G%sH%s17G%sH%s33G%sH\r' "$csi" "$esc" "$csi" "$esc" "$csi" "$esc"
+printf '1\t2\t3\t4\r\n'
+printf '%s17G%sg\r' "$csi" "$csi"
+printf 'x\ty\tz\r\n'
+
+# Wrapping at the right margin, on and off.
+screen "Autowrap"
+printf '%s?7h' "$csi"
+i=0
+while [ $i -lt 100 ]; do
+    printf '%d' $((i % 10))
+    i=$((i + 1))
+done
+printf '\r\n%s?7l' "$csi"
+i=0
+while [ $i -lt 100 ]; do
+    printf '%d' $((i % 10))
+    i=$((i + 1))
+done
+printf '\r\n%s?7h' "$csi"
+
+# Save and restore the cursor, and character attributes.
+screen "Attributes"
+printf '%s7%s10;10Hsaved%s8 restored\r\n' "$esc" "$csi" "$esc"
+printf 'plain %s1mbold%s0m %s4munderline%s0m %s7mreverse%s0m\r\n' \
+    "$csi" "$csi" "$csi" "$csi" "$csi" "$csi"
+for fg in 30 31 32 33 34 35 36 37; do
+    printf '%s%sm fg %s %s0m' "$csi" $fg $fg "$csi"
+done
+printf '\r\n'
+for bg in 40 41 42 43 44 45 46 47; do
+    printf '%s30;%sm bg %s %s0m' "$csi" $bg $bg "$csi"
+done
+printf '\r\n%s1;33;44mbold yellow on blue%s39mdefault fg%s49mdefault bg%s0m\r\n' \
+    "$csi" "$csi" "$csi" "$csi"
+printf '%s41m%sKred to the end of the line%s0m\r\n' "$csi" "$csi" "$csi"
+printf 'done\r\n'
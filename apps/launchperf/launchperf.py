@@ -0,0 +1,315 @@
+#!/usr/bin/python2.4
+#
+# Copyright 2010, The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Times the launchperf targets many times over and reports the statistics.
+
+For each target (a *LaunchPerformance instrumentation), every cold run
+starts a fresh instrumentation process and times its first launch. The
+activity manager kills an instrumentation's process when it finishes; the
+script also force-stops the target package and waits until its process is
+gone before the next run. Then one more run times --warmup launches that
+are thrown away and --warm launches that are kept, all in one process.
+
+Launches further than 1.5 interquartile ranges outside the quartiles are
+dropped as outliers. Of the rest, the script reports the median, p90, p99
+and mean, and a 95% confidence interval for the median taken from the
+order statistics, which holds whatever the distribution of the times.
+
+The results go to stdout, or --out, as CSV with a line per target and
+mode (cold or warm). Where the target's activity reports the phases of its
+launches, each phase gets a line of its own too, with a mode such as
+cold:created or warm:pre_draw, and so do the cold runs' process start to
+application bind and bind to launch times. Given --baseline, a CSV from an earlier run, each
+line is compared with the baseline's: a regression is a median more than
+--threshold percent slower whose confidence interval lies wholly above the
+baseline's. The script exits with 1 if there is one.
+
+Example:
+  launchperf.py --cold 20 --warm 50 --out today.csv --baseline last.csv
+"""
+
+# Python imports
+import math
+import optparse
+import re
+import subprocess
+import sys
+import time
+
+PACKAGE = "com.android.launchperf"
+FIELDS = ["target", "mode", "n", "rejected", "median", "p90", "p99", "mean",
+          "ci_low", "ci_high"]
+# as reported by LaunchHarness, in order
+PHASES = ["attached", "created", "resumed", "pre_draw", "drawn", "idle"]
+# the phases of a cold run, with the results they are reported under
+COLD_PHASES = [("process_start_to_bind", "process_start_to_bind_ms"),
+               ("bind_to_launch", "bind_to_launch_ms")]
+for _phase in PHASES:
+  COLD_PHASES.append((_phase, "first_%s_ms" % _phase))
+
+_INSTRUMENTATION_RE = re.compile(
+    r"^instrumentation:%s/\.?(\S+) \(target=(\S+)\)" % re.escape(PACKAGE))
+_RESULT_RE = re.compile(r"^INSTRUMENTATION_RESULT: ([^=]+)=(.*)$")
+
+
+def Adb(options, args):
+  """Runs an adb command and returns its output."""
+  command = ["adb"]
+  if options.serial:
+    command += ["-s", options.serial]
+  proc = subprocess.Popen(command + args, stdout=subprocess.PIPE)
+  output = proc.communicate()[0]
+  return output.replace("\r\n", "\n")
+
+
+def ListTargets(options):
+  """Returns the launchperf instrumentations, by name, with their targets."""
+  targets = {}
+  for line in Adb(options, ["shell", "pm", "list", "instrumentation"]).split("\n"):
+    match = _INSTRUMENTATION_RE.match(line.strip())
+    if match:
+      name = match.group(1)
+      if name.startswith(PACKAGE + "."):
+        name = name[len(PACKAGE) + 1:]
+      targets[name] = match.group(2)
+  return targets
+
+
+def StopPackage(options, package):
+  """Force-stops a package and waits until none of its processes run."""
+  Adb(options, ["shell", "am", "force-stop", package])
+  deadline = time.time() + 10
+  while time.time() < deadline:
+    running = False
+    for line in Adb(options, ["shell", "ps"]).split("\n"):
+      fields = line.split()
+      if fields and (fields[-1] == package or fields[-1].startswith(package + ":")):
+        running = True
+    if not running:
+      return
+    time.sleep(0.2)
+  print >> sys.stderr, "warning: %s still running" % package
+
+
+def Instrument(options, name, args):
+  """Runs an instrumentation and returns its results."""
+  command = ["shell", "am", "instrument", "-w", "-r"]
+  for key, value in args.items():
+    command += ["-e", key, str(value)]
+  command.append("%s/.%s" % (PACKAGE, name))
+  results = {}
+  for line in Adb(options, command).split("\n"):
+    match = _RESULT_RE.match(line.strip())
+    if match:
+      results[match.group(1).strip()] = match.group(2).strip()
+  return results
+
+
+def Percentile(values, percent):
+  """The percentile of sorted values, interpolating between neighbours."""
+  position = (len(values) - 1) * percent / 100.0
+  low = int(math.floor(position))
+  high = min(low + 1, len(values) - 1)
+  return values[low] + (values[high] - values[low]) * (position - low)
+
+
+def RejectOutliers(values):
+  """Splits sorted values into those inside Tukey's fences and the rest."""
+  if len(values) < 4:
+    return values, []
+  q1 = Percentile(values, 25)
+  q3 = Percentile(values, 75)
+  fence = 1.5 * (q3 - q1)
+  kept = []
+  rejected = []
+  for value in values:
+    if q1 - fence <= value <= q3 + fence:
+      kept.append(value)
+    else:
+      rejected.append(value)
+  return kept, rejected
+
+
+def MedianInterval(values):
+  """A 95% confidence interval for the median of sorted values.
+
+  The median lies between the order statistics of ranks n/2 -+ 1.96
+  sqrt(n)/2, by the normal approximation to the binomial distribution of
+  the number of values below it.
+  """
+  n = len(values)
+  spread = 1.96 * math.sqrt(n) / 2
+  low = max(int(round(n / 2.0 - spread)), 1)
+  high = min(int(round(n / 2.0 + 1 + spread)), n)
+  return values[low - 1], values[high - 1]
+
+
+def Summarize(target, mode, times):
+  """The statistics of some launch times, as a row of the output."""
+  times = list(times)
+  times.sort()
+  kept, rejected = RejectOutliers(times)
+  row = {"target": target, "mode": mode, "n": len(kept),
+         "rejected": len(rejected)}
+  if kept:
+    row["median"] = Percentile(kept, 50)
+    row["p90"] = Percentile(kept, 90)
+    row["p99"] = Percentile(kept, 99)
+    row["mean"] = sum(kept) / float(len(kept))
+    row["ci_low"], row["ci_high"] = MedianInterval(kept)
+  return row
+
+
+def ParseTimes(value):
+  """The times in a comma separated result."""
+  times = []
+  for time in value.split(","):
+    if time:
+      times.append(float(time))
+  return times
+
+
+def FormatRow(row):
+  values = []
+  for field in FIELDS:
+    value = row.get(field, "")
+    if isinstance(value, float):
+      value = "%.1f" % value
+    values.append(str(value))
+  return ",".join(values)
+
+
+def ReadRows(path):
+  """Reads the rows of an earlier run, keyed by target and mode."""
+  rows = {}
+  lines = open(path).read().split("\n")
+  header = lines[0].split(",")
+  for line in lines[1:]:
+    if not line:
+      continue
+    row = dict(zip(header, line.split(",")))
+    for field in ["median", "ci_low", "ci_high"]:
+      if row.get(field):
+        row[field] = float(row[field])
+    rows[(row["target"], row["mode"])] = row
+  return rows
+
+
+def Compare(baseline, rows, threshold):
+  """Prints how each row compares with the baseline; returns the regressions."""
+  regressions = 0
+  for row in rows:
+    old = baseline.get((row["target"], row["mode"]))
+    if not old or not old.get("median") or "median" not in row:
+      continue
+    change = 100.0 * (row["median"] - old["median"]) / old["median"]
+    verdict = "ok"
+    if change > threshold and row["ci_low"] > old["ci_high"]:
+      verdict = "REGRESSION"
+      regressions += 1
+    elif change < -threshold and row["ci_high"] < old["ci_low"]:
+      verdict = "improved"
+    print >> sys.stderr, "%s %s: median %.1f ms, was %.1f ms (%+.1f%%) %s" % (
+        row["target"], row["mode"], row["median"], old["median"], change, verdict)
+  return regressions
+
+
+def main(argv):
+  parser = optparse.OptionParser(
+      usage="%prog [options] [target ...]",
+      description="Times the launchperf targets (all that are installed"
+      " unless given) and reports launch time statistics as CSV.")
+  parser.add_option("-s", "--serial", help="device to run on")
+  parser.add_option("--cold", type="int", default=10,
+                    help="cold launches per target [default: %default]")
+  parser.add_option("--warm", type="int", default=30,
+                    help="warm launches per target [default: %default]")
+  parser.add_option("--warmup", type="int", default=3,
+                    help="warm launches to throw away first [default: %default]")
+  parser.add_option("--out", help="file for the CSV [default: stdout]")
+  parser.add_option("--baseline", help="CSV of an earlier run to compare with")
+  parser.add_option("--threshold", type="float", default=10,
+                    help="slowdown in percent that counts as a regression"
+                    " [default: %default]")
+  options, args = parser.parse_args(argv[1:])
+
+  targets = ListTargets(options)
+  if not targets:
+    parser.error("no %s instrumentations on the device" % PACKAGE)
+  names = args
+  if not names:
+    names = targets.keys()
+    names.sort()
+  for name in names:
+    if name not in targets:
+      parser.error("unknown target %s; try %s" % (name, ", ".join(targets.keys())))
+
+  rows = []
+  for name in names:
+    package = targets[name]
+    first = len(rows)
+    cold = []
+    cold_phases = {}
+    for i in range(options.cold):
+      StopPackage(options, package)
+      results = Instrument(options, name, {})
+      if "first_launch_ms" not in results:
+        print >> sys.stderr, "%s: cold run %d failed: %s" % (name, i, results)
+        continue
+      cold.append(float(results["first_launch_ms"]))
+      for phase, key in COLD_PHASES:
+        if key in results:
+          cold_phases.setdefault(phase, []).append(float(results[key]))
+    rows.append(Summarize(name, "cold", cold))
+    for phase, key in COLD_PHASES:
+      if phase in cold_phases:
+        rows.append(Summarize(name, "cold:" + phase, cold_phases[phase]))
+
+    if options.warm > 0:
+      StopPackage(options, package)
+      results = Instrument(options, name, {"warmup": options.warmup,
+                                           "iterations": options.warm})
+      warm = ParseTimes(results.get("launch_times_ms", ""))
+      if not warm:
+        print >> sys.stderr, "%s: warm run failed: %s" % (name, results)
+      rows.append(Summarize(name, "warm", warm))
+      for phase in PHASES:
+        times = ParseTimes(results.get("%s_ms" % phase, ""))
+        if times:
+          rows.append(Summarize(name, "warm:" + phase, times))
+    for row in rows[first:]:
+      if "median" in row:
+        print >> sys.stderr, "%s %s: median %.1f ms (%.1f-%.1f), p90 %.1f ms" % (
+            name, row["mode"], row["median"], row["ci_low"], row["ci_high"],
+            row["p90"])
+
+  out = sys.stdout
+  if options.out:
+    out = open(options.out, "w")
+  out.write(",".join(FIELDS) + "\n")
+  for row in rows:
+    out.write(FormatRow(row) + "\n")
+  if options.out:
+    out.close()
+
+  if options.baseline:
+    if Compare(ReadRows(options.baseline), rows, options.threshold):
+      return 1
+  return 0
+
+
+if __name__ == "__main__":
+  sys.exit(main(sys.argv))
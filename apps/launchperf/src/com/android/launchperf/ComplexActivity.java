@@ -19,10 +19,9 @@ package com.android.launchperf;
 
 import java.util.Map;
 
-import android.app.Activity;
 import android.os.Bundle;
 
-public class ComplexActivity extends Activity {
+public class ComplexActivity extends PhasedActivity {
    
     /** Called with the activity is first created. */
     @Override
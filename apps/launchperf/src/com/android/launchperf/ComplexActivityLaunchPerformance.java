@@ -18,7 +18,6 @@ package com.android.launchperf;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.test.LaunchPerformanceBase;
 import android.os.Bundle;
 
 import java.util.Map;
@@ -26,7 +25,7 @@ import java.util.Map;
 /**
  * Instrumentation class for Complex Activity launch performance testing.
  */
-public class ComplexActivityLaunchPerformance extends LaunchPerformanceBase {
+public class ComplexActivityLaunchPerformance extends LaunchHarness {
  
     public static final String LOG_TAG = "ComplexActivityLaunchPerformance";
 
@@ -43,12 +42,12 @@ public class ComplexActivityLaunchPerformance extends LaunchPerformanceBase {
     }
 
     /**
-     * Calls LaunchApp and finish.
+     * Runs the launches and finishes.
      */
     @Override
     public void onStart() {
         super.onStart();
-        LaunchApp();
+        runLaunches();
         finish(Activity.RESULT_OK, mResults);
     }
 }
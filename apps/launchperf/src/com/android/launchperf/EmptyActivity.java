@@ -16,12 +16,11 @@
 
 package com.android.launchperf;
 
-import android.app.Activity;
 import android.os.Bundle;
 
 import java.util.Map;
 
-public class EmptyActivity extends Activity {
+public class EmptyActivity extends PhasedActivity {
     
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
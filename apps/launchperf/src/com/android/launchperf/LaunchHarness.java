@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launchperf;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.LaunchPerformanceBase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Launches the activity in mIntent more than once, timing each launch from
+ * the intent until the main thread goes idle, and adds the times to the
+ * results.
+ * <p>
+ * The first launch is the first in a fresh instrumentation process, so
+ * the activity's code and resources are loaded cold; the ones after it are
+ * warm. The process fork itself is not timed here, as the instrumentation
+ * runs in the process it measures. Forcing a fresh process for each cold
+ * launch is left to the host: see launchperf.py, which also does the
+ * statistics.
+ * <p>
+ * Arguments (am instrument -e):
+ * <ul>
+ * <li>warmup: warm launches to run and throw away; default 0
+ * <li>iterations: warm launches to time after the first; default 0, which
+ *     times the first launch only
+ * </ul>
+ * Results:
+ * <ul>
+ * <li>first_launch_ms: the first launch
+ * <li>launch_times_ms: the warm launches, comma separated
+ * </ul>
+ * The activities of this package also mark the phases of their launches
+ * (see {@link LaunchPhases}); for them the time each phase took, since the
+ * one before, is reported as well, under its name:
+ * <ul>
+ * <li>first_attached_ms, first_created_ms, first_resumed_ms,
+ *     first_pre_draw_ms, first_drawn_ms, first_idle_ms: the first launch,
+ *     from the intent to attachBaseContext(), to the end of onCreate(), of
+ *     onResume(), to the first pre-draw, to the end of the first draw, and
+ *     to the main thread going idle
+ * <li>attached_ms ... idle_ms: the same for the warm launches, comma
+ *     separated
+ * <li>process_start_to_bind_ms, bind_to_launch_ms: from the process
+ *     starting to the application being bound to it, and from there to the
+ *     first launch
+ * </ul>
+ */
+public abstract class LaunchHarness extends LaunchPerformanceBase {
+
+    private static final String TAG = "LaunchHarness";
+
+    // the phases of LaunchPhases, and the wait for the main thread to go idle
+    private static final String[] PHASE_NAMES = {
+        "attached", "created", "resumed", "pre_draw", "drawn", "idle",
+    };
+
+    private int mWarmup;
+    private int mIterations;
+
+    @Override
+    public void onCreate(Bundle arguments) {
+        super.onCreate(arguments);
+        if (arguments != null) {
+            mWarmup = parseCount(arguments, "warmup");
+            mIterations = parseCount(arguments, "iterations");
+        }
+    }
+
+    private static int parseCount(Bundle arguments, String key) {
+        String value = arguments.getString(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignoring " + key + "=" + value);
+            return 0;
+        }
+    }
+
+    /**
+     * Runs the first launch, the warmup launches and the timed ones, and
+     * puts the times in mResults.
+     */
+    protected void runLaunches() {
+        long[] phases = new long[PHASE_NAMES.length];
+        // on the clock process start times are kept on, see LaunchPhases
+        long processStart = LaunchPhases.getProcessStartTime();
+        long bind = LaunchPhases.getBindTime();
+        long launchStart = SystemClock.elapsedRealtime();
+        mResults.putLong("first_launch_ms", timeLaunch(phases));
+        if (phases[0] >= 0) {
+            for (int i = 0; i < PHASE_NAMES.length; i++) {
+                mResults.putLong("first_" + PHASE_NAMES[i] + "_ms", phases[i]);
+            }
+        }
+        if (bind > 0 && processStart > 0) {
+            mResults.putLong("process_start_to_bind_ms", bind - processStart);
+            mResults.putLong("bind_to_launch_ms", launchStart - bind);
+        }
+
+        for (int i = 0; i < mWarmup; i++) {
+            timeLaunch(phases);
+        }
+        StringBuilder times = new StringBuilder();
+        StringBuilder[] phaseTimes = new StringBuilder[PHASE_NAMES.length];
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            phaseTimes[i] = new StringBuilder();
+        }
+        boolean phased = true;
+        for (int i = 0; i < mIterations; i++) {
+            String separator = i > 0 ? "," : "";
+            times.append(separator).append(timeLaunch(phases));
+            phased &= phases[0] >= 0;
+            for (int j = 0; j < PHASE_NAMES.length; j++) {
+                phaseTimes[j].append(separator).append(phases[j]);
+            }
+        }
+        mResults.putString("launch_times_ms", times.toString());
+        if (phased && mIterations > 0) {
+            for (int i = 0; i < PHASE_NAMES.length; i++) {
+                mResults.putString(PHASE_NAMES[i] + "_ms", phaseTimes[i].toString());
+            }
+        }
+        mResults.putInt("warmup", mWarmup);
+        mResults.putInt("iterations", mIterations);
+    }
+
+    /**
+     * Launches the activity, waits for the main thread to go idle, and
+     * finishes the activity again, so the next launch creates a new one.
+     * Fills in how long each phase of the launch took, or -1s if the
+     * activity didn't mark them all.
+     */
+    private long timeLaunch(long[] phases) {
+        // don't let the garbage of the last launch be collected in this one
+        Runtime.getRuntime().gc();
+        waitForIdleSync();
+
+        LaunchPhases.reset();
+        long start = SystemClock.uptimeMillis();
+        final Activity activity = startActivitySync(mIntent);
+        waitForIdleSync();
+        long end = SystemClock.uptimeMillis();
+        long time = end - start;
+
+        long last = start;
+        for (int i = 0; i < LaunchPhases.COUNT; i++) {
+            long phase = LaunchPhases.get(i);
+            if (phase == 0) {
+                Arrays.fill(phases, -1);
+                last = -1;
+                break;
+            }
+            phases[i] = phase - last;
+            last = phase;
+        }
+        if (last >= 0) {
+            phases[LaunchPhases.COUNT] = end - last;
+        }
+
+        runOnMainSync(new Runnable() {
+            public void run() {
+                activity.finish();
+            }
+        });
+        waitForIdleSync();
+        return time;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launchperf;
+
+import android.os.SystemClock;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * When the phases of a launch happened, as marked by the test activities
+ * (see {@link PhasedActivity}) in the process that runs them and read by
+ * {@link LaunchHarness}, which runs there too. The phases are in uptime
+ * millis; the process start and bind times are in elapsed realtime millis,
+ * the clock the kernel keeps process start times on, which goes on
+ * counting while the device sleeps.
+ */
+final class LaunchPhases {
+    // the activity is attached to its context
+    static final int ATTACHED = 0;
+    // onCreate() has returned
+    static final int CREATED = 1;
+    // onResume() has returned
+    static final int RESUMED = 2;
+    // the first layout is done and the first draw is about to start
+    static final int PRE_DRAW = 3;
+    // the first draw is done
+    static final int DRAWN = 4;
+    static final int COUNT = 5;
+
+    // /proc/pid/stat counts in USER_HZ, which is 100
+    private static final int MS_PER_TICK = 10;
+    // the start time's field in /proc/pid/stat, counted from the state
+    private static final int STAT_STARTTIME = 22 - 3;
+
+    private static final long[] sTimes = new long[COUNT];
+    private static long sBindTime;
+
+    private LaunchPhases() {
+    }
+
+    /**
+     * Forgets the phases of the last launch.
+     */
+    static synchronized void reset() {
+        for (int i = 0; i < COUNT; i++) {
+            sTimes[i] = 0;
+        }
+    }
+
+    /**
+     * Notes that a phase has been reached, unless it already was since the
+     * last reset.
+     */
+    static synchronized void mark(int phase) {
+        if (sTimes[phase] == 0) {
+            sTimes[phase] = SystemClock.uptimeMillis();
+        }
+    }
+
+    /**
+     * When a phase was reached, 0 if it hasn't been.
+     */
+    static synchronized long get(int phase) {
+        return sTimes[phase];
+    }
+
+    /**
+     * Notes that the application has been bound to the process.
+     */
+    static synchronized void markBound() {
+        if (sBindTime == 0) {
+            sBindTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * When the application was bound to the process, in elapsed realtime, 0
+     * if it wasn't one of ours.
+     */
+    static synchronized long getBindTime() {
+        return sBindTime;
+    }
+
+    /**
+     * When this process started, from /proc/self/stat, 0 if that can't be
+     * read. The kernel counts it from boot, sleep included, so it compares
+     * with elapsedRealtime(), not uptimeMillis().
+     */
+    static long getProcessStartTime() {
+        byte[] buffer = new byte[1024];
+        int length = 0;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream("/proc/self/stat");
+            int n;
+            while (length < buffer.length
+                    && (n = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += n;
+            }
+        } catch (IOException e) {
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        // the command name is in parentheses and may hold spaces
+        int i = length - 1;
+        while (i >= 0 && buffer[i] != ')') {
+            i--;
+        }
+        if (i < 0) {
+            return 0;
+        }
+        int field = -1;
+        long value = 0;
+        for (i++; i < length; i++) {
+            byte b = buffer[i];
+            if (b == ' ') {
+                if (field == STAT_STARTTIME) {
+                    break;
+                }
+                field++;
+                value = 0;
+            } else if (field == STAT_STARTTIME && b >= '0' && b <= '9') {
+                value = value * 10 + b - '0';
+            }
+        }
+        return value * MS_PER_TICK;
+    }
+}
@@ -17,7 +17,6 @@
 package com.android.launchperf;
 
 import android.app.Activity;
-import android.test.LaunchPerformanceBase;
 import android.os.Bundle;
 
 import java.util.Map;
@@ -25,7 +24,7 @@ import java.util.Map;
 /**
  * Instrumentation class for Notepad launch performance testing.
  */
-public class NotePadLaunchPerformance extends LaunchPerformanceBase {
+public class NotePadLaunchPerformance extends LaunchHarness {
  
     public static final String LOG_TAG = "NotePadLaunchPerformance";
 
@@ -42,12 +41,12 @@ public class NotePadLaunchPerformance extends LaunchPerformanceBase {
     }
 
     /**
-     * Calls LaunchApp and finish.
+     * Runs the launches and finishes.
      */
     @Override
     public void onStart() {
         super.onStart();
-        LaunchApp();
+        runLaunches();
         finish(Activity.RESULT_OK, mResults);
     }
 }
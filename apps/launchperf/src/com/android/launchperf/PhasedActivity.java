@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launchperf;
+
+import android.app.Activity;
+import android.content.Context;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * An activity that marks the phases of its launch in {@link LaunchPhases}.
+ */
+public class PhasedActivity extends Activity {
+
+    private boolean mWatchingDraw;
+
+    @Override
+    protected void attachBaseContext(Context base) {
+        LaunchPhases.mark(LaunchPhases.ATTACHED);
+        super.attachBaseContext(base);
+    }
+
+    @Override
+    protected void onStart() {
+        LaunchPhases.mark(LaunchPhases.CREATED);
+        super.onStart();
+        if (!mWatchingDraw) {
+            mWatchingDraw = true;
+            watchFirstDraw();
+        }
+    }
+
+    @Override
+    protected void onPostResume() {
+        LaunchPhases.mark(LaunchPhases.RESUMED);
+        super.onPostResume();
+    }
+
+    /**
+     * Marks the first pre-draw, and the end of the traversal that draws:
+     * the next message on the main thread.
+     */
+    private void watchFirstDraw() {
+        final View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            public boolean onPreDraw() {
+                LaunchPhases.mark(LaunchPhases.PRE_DRAW);
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                decor.post(new Runnable() {
+                    public void run() {
+                        LaunchPhases.mark(LaunchPhases.DRAWN);
+                    }
+                });
+                return true;
+            }
+        });
+    }
+}
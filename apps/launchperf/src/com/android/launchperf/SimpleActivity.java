@@ -19,10 +19,9 @@ package com.android.launchperf;
 
 import java.util.Map;
 
-import android.app.Activity;
 import android.os.Bundle;
 
-public class SimpleActivity extends Activity {
+public class SimpleActivity extends PhasedActivity {
    
     /** Called with the activity is first created. */
     @Override
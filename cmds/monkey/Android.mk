@@ -3,7 +3,7 @@
 LOCAL_PATH:= $(call my-dir)
 include $(CLEAR_VARS)
 
-LOCAL_SRC_FILES := $(call all-subdir-java-files)
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
 LOCAL_MODULE := monkey
 include $(BUILD_JAVA_LIBRARY)
 
@@ -12,3 +12,5 @@ include $(CLEAR_VARS)
 ALL_PREBUILT += $(TARGET_OUT)/bin/monkey
 $(TARGET_OUT)/bin/monkey : $(LOCAL_PATH)/monkey | $(ACP)
 	$(transform-prebuilt-to-target)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
@@ -0,0 +1,322 @@
+#!/usr/bin/python2.4
+#
+# Copyright 2010, The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Runs the monkey over a range of seeds on a pool of devices.
+
+The seed range is cut into shards of consecutive seeds. Every device (or
+emulator) takes the next shard from a shared queue and runs one monkey per
+seed, so faster devices simply do more shards. Each run logs the events it
+generated (monkey --event-log) and stops at its first crash, as the monkey
+does by default. Crashes are grouped by signature into one report that lists
+every seed that hit it, the shortest run that did, and how to reproduce it.
+
+With --verify, every crashing seed is run once more and the event checksums
+compared, to confirm that the seed really reproduces the same events.
+
+Example:
+  monkey_campaign.py --seeds 1-500 --events 20000 -p com.example.app \\
+      --out /tmp/campaign -- --throttle 50 --pct-fling 5
+"""
+
+# Python imports
+import optparse
+import os
+import Queue
+import re
+import subprocess
+import sys
+import threading
+
+DEVICE_EVENT_LOG = "/data/local/tmp/monkey-events.txt"
+
+_CRASH_RE = re.compile(r"^// CRASH: (\S+) \(pid \d+\)")
+_SHORT_MSG_RE = re.compile(r"^// Short Msg: (.*)")
+_FRAME_RE = re.compile(r"^// \s*at (\S+)")
+_ANR_RE = re.compile(r"^// NOT RESPONDING: (\S+) \(pid \d+\)")
+_NATIVE_RE = re.compile(r"^\*\* New native crash detected")
+_EVENTS_RE = re.compile(r"^:Events: count=(\d+) crc32=([0-9a-f]+)")
+_INJECTED_RE = re.compile(r"^Events injected: (\d+)")
+
+
+class SeedResult:
+  """Outcome of one monkey run."""
+
+  def __init__(self, seed, device):
+    self.seed = seed
+    self.device = device
+    self.signature = None
+    self.excerpt = []
+    self.events = 0
+    self.checksum = None
+
+
+def ParseMonkeyOutput(result, lines):
+  """Fills in the crash signature and event counts of a run from its output.
+
+  The signature is the process and exception message plus the top stack
+  frame for Java crashes, and the process for ANRs. Only the first failure
+  of the run counts.
+  """
+  in_crash = False
+  for line in lines:
+    line = line.rstrip("\r\n")
+    match = _EVENTS_RE.match(line)
+    if match:
+      result.checksum = match.group(2)
+      continue
+    match = _INJECTED_RE.match(line)
+    if match:
+      result.events = int(match.group(1))
+      continue
+    if result.signature is None:
+      match = _CRASH_RE.match(line)
+      if match:
+        result.signature = "crash %s" % match.group(1)
+        result.excerpt = [line]
+        in_crash = True
+        continue
+      match = _ANR_RE.match(line)
+      if match:
+        result.signature = "anr %s" % match.group(1)
+        result.excerpt = [line]
+        continue
+      if _NATIVE_RE.match(line):
+        result.signature = "native crash"
+        result.excerpt = [line]
+        continue
+    elif in_crash:
+      if not line.startswith("//"):
+        in_crash = False
+        continue
+      result.excerpt.append(line)
+      match = _SHORT_MSG_RE.match(line)
+      if match:
+        result.signature += ": " + match.group(1)
+      match = _FRAME_RE.match(line)
+      if match and " at " not in result.signature:
+        result.signature += " at " + match.group(1)
+
+
+class Campaign:
+  """Shared state of a campaign: the shard queue and the results so far."""
+
+  def __init__(self, options, monkey_args):
+    self.options = options
+    self.monkey_args = monkey_args
+    self.shards = Queue.Queue()
+    self.lock = threading.Lock()
+    self.results = []
+    self.signatures = {}
+    self.stopped = False
+
+  def MonkeyCommand(self, device, seed):
+    command = ["adb", "-s", device, "shell", "monkey", "-s", str(seed),
+               "--event-log", DEVICE_EVENT_LOG]
+    for package in self.options.packages:
+      command += ["-p", package]
+    command += self.monkey_args
+    command += ["-v", str(self.options.events)]
+    return command
+
+  def RunSeed(self, device, seed, tag=""):
+    """Runs one seed on a device and collects its output and event log."""
+    result = SeedResult(seed, device)
+    output_name = os.path.join(self.options.out, "seed-%d%s.txt" % (seed, tag))
+    output = open(output_name, "w")
+    try:
+      proc = subprocess.Popen(self.MonkeyCommand(device, seed),
+                              stdout=subprocess.PIPE,
+                              stderr=subprocess.STDOUT)
+      lines = []
+      for line in proc.stdout:
+        output.write(line)
+        lines.append(line)
+      proc.wait()
+    finally:
+      output.close()
+    ParseMonkeyOutput(result, lines)
+    subprocess.call(["adb", "-s", device, "pull", DEVICE_EVENT_LOG,
+                     os.path.join(self.options.out,
+                                  "events-%d%s.txt" % (seed, tag))],
+                    stdout=open(os.devnull, "w"), stderr=subprocess.STDOUT)
+    return result
+
+  def Record(self, result):
+    self.lock.acquire()
+    try:
+      self.results.append(result)
+      if result.signature is not None:
+        if result.signature not in self.signatures:
+          self.signatures[result.signature] = []
+          print "seed %d on %s: NEW %s" % (result.seed, result.device,
+                                             result.signature)
+          limit = self.options.stop_after
+          if limit and len(self.signatures) >= limit:
+            self.stopped = True
+        else:
+          print "seed %d on %s: %s" % (result.seed, result.device,
+                                       result.signature)
+        self.signatures[result.signature].append(result)
+      else:
+        print "seed %d on %s: ok (%d events)" % (result.seed, result.device,
+                                                 result.events)
+      sys.stdout.flush()
+    finally:
+      self.lock.release()
+
+  def Worker(self, device):
+    while not self.stopped:
+      try:
+        shard = self.shards.get_nowait()
+      except Queue.Empty:
+        return
+      for seed in shard:
+        if self.stopped:
+          return
+        self.Record(self.RunSeed(device, seed))
+
+  def Verify(self, devices):
+    """Reruns every crashing seed and compares the event checksums."""
+    mismatches = 0
+    index = 0
+    for signature in self.signatures:
+      for result in self.signatures[signature]:
+        device = devices[index % len(devices)]
+        index += 1
+        rerun = self.RunSeed(device, result.seed, "-verify")
+        if rerun.checksum != result.checksum:
+          mismatches += 1
+          print "seed %d: event checksum %s != %s on rerun" % (
+              result.seed, result.checksum, rerun.checksum)
+    return mismatches
+
+  def WriteReport(self):
+    report_name = os.path.join(self.options.out, "report.txt")
+    report = open(report_name, "w")
+    try:
+      crashed = 0
+      for signature in self.signatures:
+        crashed += len(self.signatures[signature])
+      report.write("seeds run: %d, crashed: %d, unique signatures: %d\n\n" %
+                   (len(self.results), crashed, len(self.signatures)))
+      # most frequent first
+      ordered = self.signatures.items()
+      ordered.sort(lambda a, b: cmp(len(b[1]), len(a[1])))
+      for signature, hits in ordered:
+        hits.sort(lambda a, b: cmp(a.events, b.events))
+        shortest = hits[0]
+        seeds = [hit.seed for hit in hits]
+        seeds.sort()
+        report.write("%s\n" % signature)
+        report.write("  hits: %d  seeds: %s\n" %
+                     (len(hits), " ".join([str(s) for s in seeds])))
+        report.write("  shortest: seed %d after %d events (crc32 %s)\n" %
+                     (shortest.seed, shortest.events, shortest.checksum))
+        report.write("  repro: %s\n" %
+                     " ".join(self.MonkeyCommand("<serial>", shortest.seed)))
+        for line in shortest.excerpt[:20]:
+          report.write("    %s\n" % line)
+        report.write("\n")
+    finally:
+      report.close()
+    return report_name
+
+
+def ListDevices():
+  proc = subprocess.Popen(["adb", "devices"], stdout=subprocess.PIPE)
+  devices = []
+  for line in proc.stdout:
+    fields = line.split()
+    if len(fields) == 2 and fields[1] == "device":
+      devices.append(fields[0])
+  proc.wait()
+  return devices
+
+
+def ParseSeedRange(spec):
+  if "-" in spec:
+    first, last = spec.split("-", 1)
+  else:
+    first = last = spec
+  first = int(first)
+  last = int(last)
+  if first > last:
+    raise ValueError("empty seed range %s" % spec)
+  return first, last
+
+
+def main(argv):
+  parser = optparse.OptionParser(
+      usage="%prog [options] [-- extra monkey args]")
+  parser.add_option("--seeds", default="1-100",
+                    help="seed range FIRST-LAST [default: %default]")
+  parser.add_option("--shard-size", type="int", default=10,
+                    help="consecutive seeds per work item [default: %default]")
+  parser.add_option("--events", type="int", default=10000,
+                    help="event count per seed [default: %default]")
+  parser.add_option("-p", "--package", dest="packages", action="append",
+                    default=[], help="package to exercise (repeatable)")
+  parser.add_option("--devices",
+                    help="comma separated serials [default: all attached]")
+  parser.add_option("--stop-after", type="int", default=0,
+                    help="stop once this many distinct signatures are found")
+  parser.add_option("--verify", action="store_true", default=False,
+                    help="rerun crashing seeds and compare event checksums")
+  parser.add_option("--out", default="monkey-campaign",
+                    help="output directory [default: %default]")
+  options, monkey_args = parser.parse_args(argv[1:])
+
+  try:
+    first, last = ParseSeedRange(options.seeds)
+  except ValueError, e:
+    parser.error("bad --seeds: %s" % e)
+  if options.devices:
+    devices = options.devices.split(",")
+  else:
+    devices = ListDevices()
+  if not devices:
+    parser.error("no devices")
+  if not os.path.isdir(options.out):
+    os.makedirs(options.out)
+
+  campaign = Campaign(options, monkey_args)
+  seed = first
+  while seed <= last:
+    end = min(seed + options.shard_size, last + 1)
+    campaign.shards.put(range(seed, end))
+    seed = end
+
+  print "%d seeds in shards of %d on %d device(s)" % (
+      last - first + 1, options.shard_size, len(devices))
+  threads = []
+  for device in devices:
+    thread = threading.Thread(target=campaign.Worker, args=(device,))
+    thread.setDaemon(True)
+    thread.start()
+    threads.append(thread)
+  for thread in threads:
+    thread.join()
+
+  status = 0
+  if options.verify and campaign.signatures:
+    if campaign.Verify(devices):
+      status = 1
+  print "report: %s" % campaign.WriteReport()
+  return status
+
+
+if __name__ == "__main__":
+  sys.exit(main(sys.argv))
@@ -0,0 +1,388 @@
+#!/usr/bin/python2.4
+#
+# Copyright 2010, The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Shrinks a recorded monkey script to a short one that still crashes.
+
+Record the crashing run with monkey --record-script, pull the script and
+pass it here with the crash to look for (or let the first replay find it).
+The script is cut into units that must stay whole (a touch from down to
+up, a key press, a run of trackball moves, an activity launch) and the
+units are minimized with delta debugging (ddmin): try ever smaller subsets
+and complements of the units, keep any that still hit the same crash
+signature, until removing any single unit makes the crash go away.
+
+The candidates of each round are replayed in parallel, one per device, and
+a round stops at the first candidate that reproduces. Crashes that depend
+on timing don't reproduce on every replay, so each candidate can be given
+several tries.
+
+Candidates are written with their event times rebased: the times within a
+unit keep their spacing, but the gap between one unit and the next is cut
+to --max-gap, so a replay doesn't sit through the stretches that were
+removed around it.
+
+Example:
+  monkey_minimize.py --script crash.txt --out min.txt --retries 2 \\
+      --setup-cmd "pm clear com.example.app"
+"""
+
+# Python imports
+import optparse
+import os
+import Queue
+import subprocess
+import sys
+import threading
+
+# local imports
+import monkey_campaign
+
+DEVICE_SCRIPT = "/data/local/tmp/monkey-minimize.txt"
+
+_DOWN = 0
+# key or motion up, and motion cancel
+_END_ACTIONS = (1, 3)
+# events whose first two arguments are a down time and an event time
+_TIMED_KINDS = ("DispatchPointer", "DispatchTrackball", "DispatchKey")
+
+
+class Script:
+  """A recorded script, split into header and units of event lines."""
+
+  def __init__(self, lines):
+    self.header = []
+    self.units = []
+    in_data = False
+    open_unit = None
+    open_kind = None
+    for line in lines:
+      if not in_data:
+        if line.startswith("speed="):
+          continue
+        self.header.append(line)
+        if line.startswith("start data >>"):
+          in_data = True
+        continue
+      line = line.strip()
+      if not line or line.startswith("#"):
+        continue
+      kind, action = _ParseEvent(line)
+      if open_unit is not None:
+        if kind == open_kind:
+          open_unit.append(line)
+          if action in _END_ACTIONS:
+            self.units.append(open_unit)
+            open_unit = None
+          continue
+        # something came in between, the gesture ends here
+        self.units.append(open_unit)
+        open_unit = None
+      if kind in ("DispatchPointer", "DispatchKey") and action == _DOWN:
+        open_unit = [line]
+        open_kind = kind
+      elif (kind == "DispatchTrackball" and self.units and
+            self.units[-1][-1].startswith(kind)):
+        self.units[-1].append(line)
+      else:
+        self.units.append([line])
+    if open_unit is not None:
+      self.units.append(open_unit)
+
+  def Write(self, file_name, units, speed, max_gap):
+    """Writes a script of some of the units, with their times rebased so
+    that no gap between units is longer than max_gap milliseconds."""
+    out = open(file_name, "w")
+    try:
+      for line in self.header:
+        if line.startswith("count="):
+          out.write("count= %d\n" % sum([len(u) for u in units]))
+        elif line.startswith("start data >>"):
+          out.write("speed= %s\n" % speed)
+          out.write(line)
+        else:
+          out.write(line)
+      clock = None
+      last = None
+      for unit in units:
+        times = [t for t in map(_EventTime, unit) if t is not None]
+        offset = 0
+        if times:
+          if clock is None:
+            clock = times[0]
+          else:
+            clock += min(max(times[0] - last, 0), max_gap)
+          offset = clock - times[0]
+          clock = max(times) + offset
+          last = max(times)
+        for line in unit:
+          out.write(_ShiftTimes(line, offset) + "\n")
+    finally:
+      out.close()
+
+
+def _ParseEvent(line):
+  """Returns the keyword and action of a script line."""
+  paren = line.find("(")
+  if paren < 0:
+    return line, None
+  kind = line[:paren]
+  if kind in ("DispatchPointer", "DispatchTrackball", "DispatchKey"):
+    args = line[paren + 1:].rstrip(")").split(",")
+    try:
+      return kind, int(args[2])
+    except (IndexError, ValueError):
+      pass
+  return kind, None
+
+
+def _EventTime(line):
+  """Returns the event time of a script line, or None if it has none."""
+  paren = line.find("(")
+  if line[:paren] not in _TIMED_KINDS:
+    return None
+  args = line[paren + 1:].rstrip(")").split(",")
+  try:
+    time = long(args[1])
+  except (IndexError, ValueError):
+    return None
+  if time < 0:
+    return None
+  return time
+
+
+def _ShiftTimes(line, offset):
+  """Returns a script line with its down and event times moved by offset."""
+  paren = line.find("(")
+  if not offset or line[:paren] not in _TIMED_KINDS:
+    return line
+  args = line[paren + 1:].rstrip(")").split(",")
+  for i in (0, 1):
+    try:
+      time = long(args[i])
+    except (IndexError, ValueError):
+      return line
+    # a negative time means "now" to the script source, leave it be
+    if time >= 0:
+      args[i] = str(time + offset)
+  return "%s(%s)" % (line[:paren], ",".join(args))
+
+
+class Minimizer:
+  """Replays candidate scripts on a pool of devices."""
+
+  def __init__(self, options, script, devices):
+    self.options = options
+    self.script = script
+    self.devices = Queue.Queue()
+    for device in devices:
+      self.devices.put(device)
+    self.device_count = len(devices)
+    self.signature = options.signature
+    self.lock = threading.Lock()
+    self.runs = 0
+
+  def Replay(self, device, units, tag):
+    """Runs a candidate once on a device and returns its crash signature."""
+    local = os.path.join(self.options.work, "candidate-%s.txt" % tag)
+    self.script.Write(local, units, self.options.speed, self.options.max_gap)
+    quiet = open(os.devnull, "w")
+    try:
+      subprocess.call(["adb", "-s", device, "push", local, DEVICE_SCRIPT],
+                      stdout=quiet, stderr=subprocess.STDOUT)
+      if self.options.setup_cmd:
+        subprocess.call(["adb", "-s", device, "shell", self.options.setup_cmd],
+                        stdout=quiet, stderr=subprocess.STDOUT)
+    finally:
+      quiet.close()
+    command = ["adb", "-s", device, "shell", "monkey", "-f", DEVICE_SCRIPT]
+    command += self.options.monkey_args
+    command += ["-v", "1"]
+    proc = subprocess.Popen(command, stdout=subprocess.PIPE,
+                            stderr=subprocess.STDOUT)
+    lines = proc.stdout.readlines()
+    proc.wait()
+    result = monkey_campaign.SeedResult(0, device)
+    monkey_campaign.ParseMonkeyOutput(result, lines)
+    self.lock.acquire()
+    try:
+      self.runs += 1
+    finally:
+      self.lock.release()
+    return result.signature
+
+  def Reproduces(self, device, units, tag):
+    for attempt in range(self.options.retries):
+      signature = self.Replay(device, units, "%s-%d" % (tag, attempt))
+      if signature is not None and signature == self.signature:
+        return True
+    return False
+
+  def FirstReproducing(self, candidates):
+    """Tests candidates in parallel, returns the index of one that
+    reproduces (the lowest index among those finished), or None."""
+    pending = Queue.Queue()
+    for index in range(len(candidates)):
+      pending.put(index)
+    found = []
+    done = threading.Event()
+
+    def Work():
+      device = self.devices.get()
+      try:
+        while not done.isSet():
+          try:
+            index = pending.get_nowait()
+          except Queue.Empty:
+            return
+          if self.Reproduces(device, candidates[index], "%d" % index):
+            found.append(index)
+            done.set()
+      finally:
+        self.devices.put(device)
+
+    threads = []
+    for i in range(min(self.device_count, len(candidates))):
+      thread = threading.Thread(target=Work)
+      thread.setDaemon(True)
+      thread.start()
+      threads.append(thread)
+    for thread in threads:
+      thread.join()
+    if not found:
+      return None
+    return min(found)
+
+  def Minimize(self, units):
+    """ddmin over the list of units."""
+    n = 2
+    while len(units) >= 2:
+      chunk = len(units) / n
+      subsets = []
+      start = 0
+      for i in range(n):
+        if i == n - 1:
+          end = len(units)
+        else:
+          end = start + chunk
+        subsets.append(units[start:end])
+        start = end
+      subsets = [s for s in subsets if s]
+
+      # subsets first: they shrink the fastest
+      index = self.FirstReproducing(subsets)
+      if index is not None:
+        units = subsets[index]
+        n = 2
+        print "%d units (subset), %d replays" % (len(units), self.runs)
+        sys.stdout.flush()
+        continue
+
+      complements = []
+      for i in range(len(subsets)):
+        complement = []
+        for j in range(len(subsets)):
+          if j != i:
+            complement += subsets[j]
+        complements.append(complement)
+      if n > 2:
+        index = self.FirstReproducing(complements)
+      else:
+        # with two halves the complements are the subsets we just tried
+        index = None
+      if index is not None:
+        units = complements[index]
+        n = max(n - 1, 2)
+        print "%d units (complement), %d replays" % (len(units), self.runs)
+        sys.stdout.flush()
+        continue
+
+      if n >= len(units):
+        break
+      n = min(n * 2, len(units))
+    return units
+
+
+def main(argv):
+  parser = optparse.OptionParser(
+      usage="%prog [options] [-- extra monkey args]")
+  parser.add_option("--script", help="recorded script (monkey --record-script)")
+  parser.add_option("--out", default="minimized.txt",
+                    help="minimized script [default: %default]")
+  parser.add_option("--work", default="monkey-minimize",
+                    help="directory for candidate scripts [default: %default]")
+  parser.add_option("--signature",
+                    help="crash signature to keep [default: that of a replay"
+                    " of the whole script]")
+  parser.add_option("--retries", type="int", default=1,
+                    help="replays of a candidate before giving up on it"
+                    " [default: %default]")
+  parser.add_option("--speed", default="1.0",
+                    help="playback speed factor for the event gaps"
+                    " [default: %default]")
+  parser.add_option("--max-gap", type="int", default=1000,
+                    help="longest pause between units on replay, in ms"
+                    " [default: %default]")
+  parser.add_option("--setup-cmd",
+                    help="shell command to run on the device before each"
+                    " replay, e.g. to reset the app under test")
+  parser.add_option("--devices",
+                    help="comma separated serials [default: all attached]")
+  options, monkey_args = parser.parse_args(argv[1:])
+  options.monkey_args = monkey_args
+
+  if not options.script:
+    parser.error("--script is required")
+  if options.retries < 1:
+    parser.error("--retries must be at least 1")
+  if options.max_gap < 0:
+    parser.error("--max-gap can't be negative")
+  if options.devices:
+    devices = options.devices.split(",")
+  else:
+    devices = monkey_campaign.ListDevices()
+  if not devices:
+    parser.error("no devices")
+  if not os.path.isdir(options.work):
+    os.makedirs(options.work)
+
+  script_file = open(options.script)
+  try:
+    script = Script(script_file.readlines())
+  finally:
+    script_file.close()
+  minimizer = Minimizer(options, script, devices)
+
+  if minimizer.signature is None:
+    minimizer.signature = minimizer.Replay(devices[0], script.units, "full")
+    if minimizer.signature is None:
+      print "the full script does not crash"
+      return 1
+  elif not minimizer.Reproduces(devices[0], script.units, "full"):
+    print "the full script does not reproduce: %s" % minimizer.signature
+    return 1
+  print "minimizing %d units (%d events) for: %s" % (
+      len(script.units), sum([len(u) for u in script.units]),
+      minimizer.signature)
+
+  units = minimizer.Minimize(script.units)
+  script.Write(options.out, units, options.speed, options.max_gap)
+  print "%d units (%d events) after %d replays: %s" % (
+      len(units), sum([len(u) for u in units]), minimizer.runs, options.out)
+  return 0
+
+
+if __name__ == "__main__":
+  sys.exit(main(sys.argv))
@@ -50,6 +50,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -103,6 +104,9 @@ public class Monkey {
     /** Send no events. Use with long throttle-time to watch user operations */
     private boolean mSendNoEvents;
 
+    /** Count allocations made by the monkey process while it runs. */
+    private boolean mCountAllocations;
+
     /** This is set when we would like to abort the running of the monkey. */
     private boolean mAbort;
 
@@ -174,6 +178,36 @@ public class Monkey {
     /** Whether to randomize each throttle (0-mThrottle ms) inserted between events. */
     boolean mRandomizeThrottle = false;
 
+    /** Whether to pace events against absolute deadlines instead of fixed sleeps. */
+    boolean mPreciseThrottle = false;
+
+    /** Rate profile for the deadline scheduler, or null to follow the throttle. */
+    MonkeyRateProfile mRateProfile = null;
+
+    /** Deadline scheduler, set when precise throttling is enabled. */
+    MonkeyScheduler mScheduler = null;
+
+    /** How often to export injection metrics, in ms, or -1 for never. */
+    long mMetricsInterval = -1;
+
+    /** File to append the metrics to, or null for stdout. */
+    String mMetricsFileName = null;
+
+    /** Injection metrics, set when metrics are enabled. */
+    MonkeyMetrics mMetrics = null;
+
+    /** File to log every generated event to, or null. */
+    String mEventLogFileName = null;
+
+    /** Log of generated events, set when mEventLogFileName is. */
+    MonkeyEventLog mEventLog = null;
+
+    /** File to record the injected events to as a script, or null. */
+    String mRecordScriptFileName = null;
+
+    /** Script recorder, set when mRecordScriptFileName is. */
+    MonkeyScriptRecorder mScriptRecorder = null;
+
     /** The number of iterations **/
     int mCount = 1000;
 
@@ -205,20 +239,47 @@ public class Monkey {
     /** Capture bugreprot whenever there is a crash. **/
     private boolean mRequestBugreport = false;
 
+    /** Capture reports in the background instead of blocking the event loop. */
+    private boolean mAsyncReports = false;
+
+    /** Runs reports in the background, set when mAsyncReports is. */
+    private MonkeyReportService mReportService = null;
+
+    // How long to wait for background reports at the end of the run, in ms.
+    private static final long REPORT_COMPLETION_TIMEOUT = 5 * 60 * 1000;
+
     /** a filename to the setup script (if any) */
     private String mSetupFileName = null;
 
     /** filenames of the script (if any) */
     private ArrayList<String> mScriptFileNames = new ArrayList<String>();
 
+    /** if set, compile the script into this file and exit */
+    private String mCompiledScriptFileName = null;
+
+    /** Path of the iteration log, resolved on first use. */
+    private String mScriptLogFileName = null;
+
     /** a TCP port to listen on for remote commands. */
     private int mServerPort = -1;
 
+    /** stream commands and answer with sequence numbers, from any number of clients */
+    private boolean mPipelineCommands = false;
+
     private static final File TOMBSTONES_PATH = new File("/data/tombstones");
 
-    private HashSet<String> mTombstones = null;
+    /** Prefix of the options that set an event family's percentage. */
+    private static final String PCT_OPTION = "--pct-";
+
+    private MonkeyTombstoneWatcher mTombstoneWatcher = null;
+
+    /** steer the random events toward activities not explored yet */
+    private boolean mCoverageGuided = false;
 
-    float[] mFactors = new float[MonkeySourceRandom.FACTORZ_COUNT];
+    /** The coverage-guided source, when mCoverageGuided is set. */
+    private MonkeySourceCoverage mCoverageSource = null;
+
+    float[] mFactors = new float[MonkeySourceRandom.getFamilyCount()];
 
     MonkeyEventSource mEventSource;
 
@@ -268,6 +329,9 @@ public class Monkey {
             }
             currentPackage = pkg;
             currentIntent = intent;
+            if (allow && mCoverageSource != null) {
+                mCoverageSource.activityStarting(intent, pkg);
+            }
             return allow;
         }
 
@@ -283,6 +347,9 @@ public class Monkey {
             }
             currentPackage = pkg;
             StrictMode.setThreadPolicy(savedPolicy);
+            if (allow && mCoverageSource != null) {
+                mCoverageSource.activityResuming(pkg);
+            }
             return allow;
         }
 
@@ -356,6 +423,10 @@ public class Monkey {
      * asynchronous report writing complete.
      */
     private void reportAnrTraces() {
+        if (mReportService != null) {
+            mReportService.submit("anr traces", "cat /data/anr/traces.txt", 5 * 1000);
+            return;
+        }
         try {
             Thread.sleep(5 * 1000);
         } catch (InterruptedException e) {
@@ -385,6 +456,10 @@ public class Monkey {
      * @param command Command line to execute.
      */
     private void commandLineReport(String reportName, String command) {
+        if (mReportService != null) {
+            mReportService.submit(reportName, command, 0);
+            return;
+        }
         System.err.println(reportName + ":");
         Runtime rt = Runtime.getRuntime();
         Writer logOutput = null;
@@ -428,15 +503,12 @@ public class Monkey {
     // Write the numbe of iteration to the log
     private void writeScriptLog(int count) {
         // TO DO: Add the script file name to the log.
-        try {
-            Writer output = new BufferedWriter(new FileWriter(new File(
-                    Environment.getExternalStorageDirectory(), "scriptlog.txt"), true));
-            output.write("iteration: " + count + " time: "
-                    + MonkeyUtils.toCalendarTime(System.currentTimeMillis()) + "\n");
-            output.close();
-        } catch (IOException e) {
-            System.err.println(e.toString());
+        if (mScriptLogFileName == null) {
+            mScriptLogFileName = new File(Environment.getExternalStorageDirectory(),
+                    "scriptlog.txt").getPath();
         }
+        MonkeyLogWriter.write(mScriptLogFileName, "iteration: " + count + " time: "
+                + MonkeyUtils.toCalendarTime(System.currentTimeMillis()) + "\n");
     }
 
     // Write the bugreport to the sdcard.
@@ -487,7 +559,7 @@ public class Monkey {
         mNextArg = 0;
 
         // set a positive value, indicating none of the factors is provided yet
-        for (int i = 0; i < MonkeySourceRandom.FACTORZ_COUNT; i++) {
+        for (int i = 0; i < mFactors.length; i++) {
             mFactors[i] = 1.0f;
         }
 
@@ -495,6 +567,15 @@ public class Monkey {
             return -1;
         }
 
+        if (mCompiledScriptFileName != null) {
+            if (mScriptFileNames.size() != 1) {
+                System.err.println("** Error: --compile-script needs exactly one -f script");
+                return -1;
+            }
+            return MonkeyScriptCompiler.compile(mScriptFileNames.get(0),
+                    mCompiledScriptFileName) ? 0 : -1;
+        }
+
         if (!loadPackageLists()) {
             return -1;
         }
@@ -542,29 +623,86 @@ public class Monkey {
         mRandom = new SecureRandom();
         mRandom.setSeed((mSeed == 0) ? -1 : mSeed);
 
+        if (mPreciseThrottle || mRateProfile != null) {
+            mScheduler = new MonkeyScheduler(mRateProfile);
+        }
+
+        if (mEventLogFileName != null) {
+            try {
+                mEventLog = new MonkeyEventLog(mEventLogFileName);
+            } catch (IOException e) {
+                System.err.println("** Error: Unable to open event log: " + e);
+                return -1;
+            }
+        }
+
+        if (mRecordScriptFileName != null) {
+            try {
+                mScriptRecorder = new MonkeyScriptRecorder(mRecordScriptFileName);
+            } catch (IOException e) {
+                System.err.println("** Error: Unable to open script to record: " + e);
+                return -1;
+            }
+        }
+
+        if (mAsyncReports) {
+            // with --bugreport, reports go to (compressed) files as before
+            mReportService = new MonkeyReportService(2, mRequestBugreport);
+        }
+
+        if (mMetricsFileName != null && mMetricsInterval < 0) {
+            mMetricsInterval = 10000;
+        }
+        if (mMetricsInterval > 0) {
+            try {
+                mMetrics = new MonkeyMetrics(mMetricsInterval, mMetricsFileName);
+            } catch (IOException e) {
+                System.err.println("** Error: Unable to open metrics file: " + e);
+                return -1;
+            }
+        }
+
         if (mScriptFileNames != null && mScriptFileNames.size() == 1) {
             // script mode, ignore other options
-            mEventSource = new MonkeySourceScript(mRandom, mScriptFileNames.get(0), mThrottle,
-                    mRandomizeThrottle, mProfileWaitTime, mDeviceSleepTime);
+            String scriptFileName = mScriptFileNames.get(0);
+            if (MonkeySourceBinaryScript.isCompiledScript(scriptFileName)) {
+                MonkeySourceBinaryScript source = new MonkeySourceBinaryScript(mRandom,
+                        scriptFileName, mThrottle, mRandomizeThrottle, mProfileWaitTime,
+                        mDeviceSleepTime);
+                source.setScheduler(mScheduler);
+                mEventSource = source;
+            } else {
+                MonkeySourceScript source = new MonkeySourceScript(mRandom, scriptFileName,
+                        mThrottle, mRandomizeThrottle, mProfileWaitTime, mDeviceSleepTime);
+                source.setScheduler(mScheduler);
+                mEventSource = source;
+            }
             mEventSource.setVerbose(mVerbose);
 
             mCountEvents = false;
         } else if (mScriptFileNames != null && mScriptFileNames.size() > 1) {
+            MonkeySourceRandomScript source;
             if (mSetupFileName != null) {
-                mEventSource = new MonkeySourceRandomScript(mSetupFileName, 
+                source = new MonkeySourceRandomScript(mSetupFileName, 
                         mScriptFileNames, mThrottle, mRandomizeThrottle, mRandom,
                         mProfileWaitTime, mDeviceSleepTime, mRandomizeScript);
                 mCount++;
             } else {
-                mEventSource = new MonkeySourceRandomScript(mScriptFileNames,
+                source = new MonkeySourceRandomScript(mScriptFileNames,
                         mThrottle, mRandomizeThrottle, mRandom, 
                         mProfileWaitTime, mDeviceSleepTime, mRandomizeScript);
             }
+            source.setScheduler(mScheduler);
+            mEventSource = source;
             mEventSource.setVerbose(mVerbose);
             mCountEvents = false;
         } else if (mServerPort != -1) {
             try {
-                mEventSource = new MonkeySourceNetwork(mServerPort);
+                if (mPipelineCommands) {
+                    mEventSource = new MonkeySourceNetworkPipelined(mServerPort);
+                } else {
+                    mEventSource = new MonkeySourceNetwork(mServerPort);
+                }
             } catch (IOException e) {
                 System.out.println("Error binding to network socket.");
                 return -5;
@@ -575,17 +713,26 @@ public class Monkey {
             if (mVerbose >= 2) { // check seeding performance
                 System.out.println("// Seeded: " + mSeed);
             }
-            mEventSource = new MonkeySourceRandom(mRandom, mMainApps, mThrottle, mRandomizeThrottle);
-            mEventSource.setVerbose(mVerbose);
+            MonkeySourceRandom source = new MonkeySourceRandom(mRandom, mMainApps, mThrottle,
+                    mRandomizeThrottle);
             // set any of the factors that has been set
-            for (int i = 0; i < MonkeySourceRandom.FACTORZ_COUNT; i++) {
+            for (int i = 0; i < mFactors.length; i++) {
                 if (mFactors[i] <= 0.0f) {
-                    ((MonkeySourceRandom) mEventSource).setFactors(i, mFactors[i]);
+                    source.setFactors(i, mFactors[i]);
                 }
             }
 
             // in random mode, we start with a random activity
-            ((MonkeySourceRandom) mEventSource).generateActivity();
+            if (mCoverageGuided) {
+                mCoverageSource = new MonkeySourceCoverage(source, mRandom, mMainApps,
+                        mThrottle, mRandomizeThrottle);
+                mCoverageSource.generateActivity();
+                mEventSource = mCoverageSource;
+            } else {
+                source.generateActivity();
+                mEventSource = source;
+            }
+            mEventSource.setVerbose(mVerbose);
         }
 
         // validate source generator
@@ -599,10 +746,54 @@ public class Monkey {
             signalPersistentProcesses();
         }
 
+        // the metrics take their GC counts from the allocation counters
+        if (mCountAllocations || mMetrics != null) {
+            Debug.resetAllCounts();
+            Debug.startAllocCounting();
+        }
+        if (mMetrics != null) {
+            mMetrics.start();
+        }
+
+        if (mMonitorNativeCrashes) {
+            mTombstoneWatcher = new MonkeyTombstoneWatcher(TOMBSTONES_PATH);
+            mTombstoneWatcher.start();
+        }
+
         mNetworkMonitor.start();
         int crashedAtCycle = runMonkeyCycles();
         mNetworkMonitor.stop();
 
+        if (mTombstoneWatcher != null) {
+            mTombstoneWatcher.stop();
+        }
+
+        // finish writing the run logs before we report anything
+        Map<String, Integer> droppedLogWrites = MonkeyLogWriter.close();
+        for (Map.Entry<String, Integer> dropped : droppedLogWrites.entrySet()) {
+            System.out.println("// Dropped " + dropped.getValue() + " writes to "
+                    + dropped.getKey() + ", storage could not keep up.");
+        }
+
+        if (mMetrics != null) {
+            mMetrics.stop();
+        }
+        if (mEventLog != null) {
+            mEventLog.close();
+        }
+        if (mScriptRecorder != null) {
+            mScriptRecorder.close();
+        }
+        if (mCoverageSource != null) {
+            mCoverageSource.dump();
+        }
+        if (mCountAllocations || mMetrics != null) {
+            Debug.stopAllocCounting();
+        }
+        if (mCountAllocations) {
+            reportAllocations(crashedAtCycle);
+        }
+
         synchronized (this) {
             if (mRequestAnrTraces) {
                 reportAnrTraces();
@@ -623,6 +814,14 @@ public class Monkey {
             }
         }
 
+        if (mReportService != null) {
+            if (!mReportService.awaitCompletion(REPORT_COMPLETION_TIMEOUT)) {
+                System.err.println("** Timed out waiting for background reports.");
+            }
+            mReportService.shutdown();
+            mReportService.dump();
+        }
+
         if (mGenerateHprof) {
             signalPersistentProcesses();
             if (mVerbose > 0) {
@@ -656,6 +855,11 @@ public class Monkey {
         // report network stats
         mNetworkMonitor.dump();
 
+        // report achieved vs. requested event rate
+        if (mScheduler != null) {
+            mScheduler.dump();
+        }
+
         if (crashedAtCycle < mCount - 1) {
             System.err.println("** System appears to have crashed at event " + crashedAtCycle
                     + " of " + mCount + " using seed " + mSeed);
@@ -668,6 +872,23 @@ public class Monkey {
         }
     }
 
+    /**
+     * Print the allocation counters collected while the monkey loop ran.
+     *
+     * @param events the number of events that were injected
+     */
+    private void reportAllocations(int events) {
+        int count = Debug.getGlobalAllocCount();
+        System.out.print(":Allocations: objects=");
+        System.out.print(count);
+        System.out.print(" bytes=");
+        System.out.print(Debug.getGlobalAllocSize());
+        System.out.print(" gcs=");
+        System.out.print(Debug.getGlobalGcInvocationCount());
+        System.out.print(" per-event=");
+        System.out.println(events > 0 ? (float) count / events : 0.0f);
+    }
+
     /**
      * Process the command-line options
      *
@@ -705,33 +926,14 @@ public class Monkey {
                     mKillProcessAfterError = true;
                 } else if (opt.equals("--hprof")) {
                     mGenerateHprof = true;
-                } else if (opt.equals("--pct-touch")) {
-                    int i = MonkeySourceRandom.FACTOR_TOUCH;
-                    mFactors[i] = -nextOptionLong("touch events percentage");
-                } else if (opt.equals("--pct-motion")) {
-                    int i = MonkeySourceRandom.FACTOR_MOTION;
-                    mFactors[i] = -nextOptionLong("motion events percentage");
-                } else if (opt.equals("--pct-trackball")) {
-                    int i = MonkeySourceRandom.FACTOR_TRACKBALL;
-                    mFactors[i] = -nextOptionLong("trackball events percentage");
-                } else if (opt.equals("--pct-syskeys")) {
-                    int i = MonkeySourceRandom.FACTOR_SYSOPS;
-                    mFactors[i] = -nextOptionLong("system (key) operations percentage");
-                } else if (opt.equals("--pct-nav")) {
-                    int i = MonkeySourceRandom.FACTOR_NAV;
-                    mFactors[i] = -nextOptionLong("nav events percentage");
-                } else if (opt.equals("--pct-majornav")) {
-                    int i = MonkeySourceRandom.FACTOR_MAJORNAV;
-                    mFactors[i] = -nextOptionLong("major nav events percentage");
-                } else if (opt.equals("--pct-appswitch")) {
-                    int i = MonkeySourceRandom.FACTOR_APPSWITCH;
-                    mFactors[i] = -nextOptionLong("app switch events percentage");
-                } else if (opt.equals("--pct-flip")) {
-                    int i = MonkeySourceRandom.FACTOR_FLIP;
-                    mFactors[i] = -nextOptionLong("keyboard flip percentage");
-                } else if (opt.equals("--pct-anyevent")) {
-                    int i = MonkeySourceRandom.FACTOR_ANYTHING;
-                    mFactors[i] = -nextOptionLong("any events percentage");
+                } else if (opt.startsWith(PCT_OPTION)
+                        && MonkeySourceRandom.findFamily(
+                                opt.substring(PCT_OPTION.length())) >= 0) {
+                    int i = MonkeySourceRandom.findFamily(opt.substring(PCT_OPTION.length()));
+                    mFactors[i] = -nextOptionLong(
+                            MonkeySourceRandom.getFamilyDescription(i) + " percentage");
+                } else if (opt.equals("--coverage")) {
+                    mCoverageGuided = true;
                 } else if (opt.equals("--pkg-blacklist-file")) {
                     mPkgBlacklistFile = nextOptionData();
                 } else if (opt.equals("--pkg-whitelist-file")) {
@@ -740,16 +942,34 @@ public class Monkey {
                     mThrottle = nextOptionLong("delay (in milliseconds) to wait between events");
                 } else if (opt.equals("--randomize-throttle")) {
                     mRandomizeThrottle = true;
+                } else if (opt.equals("--precise-throttle")) {
+                    mPreciseThrottle = true;
+                } else if (opt.equals("--rate-profile")) {
+                    mRateProfile = MonkeyRateProfile.parse(nextOptionData());
+                } else if (opt.equals("--metrics-interval")) {
+                    mMetricsInterval = nextOptionLong("metrics interval");
+                } else if (opt.equals("--metrics-file")) {
+                    mMetricsFileName = nextOptionData();
+                } else if (opt.equals("--event-log")) {
+                    mEventLogFileName = nextOptionData();
+                } else if (opt.equals("--record-script")) {
+                    mRecordScriptFileName = nextOptionData();
                 } else if (opt.equals("--wait-dbg")) {
                     // do nothing - it's caught at the very start of run()
                 } else if (opt.equals("--dbg-no-events")) {
                     mSendNoEvents = true;
+                } else if (opt.equals("--dbg-alloc-count")) {
+                    mCountAllocations = true;
                 } else if (opt.equals("--port")) {
                     mServerPort = (int) nextOptionLong("Server port to listen on for commands");
+                } else if (opt.equals("--pipeline")) {
+                    mPipelineCommands = true;
                 } else if (opt.equals("--setup")) {
                     mSetupFileName = nextOptionData();
                 } else if (opt.equals("-f")) {
                     mScriptFileNames.add(nextOptionData());
+                } else if (opt.equals("--compile-script")) {
+                    mCompiledScriptFileName = nextOptionData();
                 } else if (opt.equals("--profile-wait")) {
                     mProfileWaitTime = nextOptionLong("Profile delay" +
                                 " (in milliseconds) to wait between user action");
@@ -762,6 +982,8 @@ public class Monkey {
                     mScriptLog = true;
                 } else if (opt.equals("--bugreport")) {
                     mRequestBugreport = true;
+                } else if (opt.equals("--async-reports")) {
+                    mAsyncReports = true;
                 } else if (opt.equals("-h")) {
                     showUsage();
                     return false;
@@ -778,8 +1000,8 @@ public class Monkey {
         }
 
         // If a server port hasn't been specified, we need to specify
-        // a count
-        if (mServerPort == -1) {
+        // a count (unless we are only compiling a script)
+        if (mServerPort == -1 && mCompiledScriptFileName == null) {
             String countStr = nextArg();
             if (countStr == null) {
                 System.err.println("** Error: Count not specified");
@@ -1010,8 +1232,8 @@ public class Monkey {
                     shouldReportDumpsysMemInfo = true;
                 }
                 if (mMonitorNativeCrashes) {
-                    // first time through, when eventCounter == 0, just set up
-                    // the watcher (ignore the error)
+                    // tombstones that were there before the first event are
+                    // not ours (ignore the error)
                     if (checkNativeCrashes() && (eventCounter > 0)) {
                         System.out.println("** New native crash detected.");
                         if (mRequestBugreport) {
@@ -1063,7 +1285,28 @@ public class Monkey {
 
             MonkeyEvent ev = mEventSource.getNextEvent();
             if (ev != null) {
-                int injectCode = ev.injectEvent(mWm, mAm, mVerbose);
+                int eventType = ev.getEventType();
+                if (mEventLog != null) {
+                    mEventLog.record(ev);
+                }
+                if (mScriptRecorder != null) {
+                    mScriptRecorder.record(ev);
+                }
+                long injectStart = (mMetrics != null) ? System.nanoTime() : 0;
+                int injectCode;
+                if (mScheduler != null && ev instanceof MonkeyThrottleEvent
+                        && ((MonkeyThrottleEvent) ev).isScheduled()) {
+                    long throttle = ((MonkeyThrottleEvent) ev).getThrottle();
+                    injectCode = mScheduler.waitForNextSlot(throttle)
+                            ? MonkeyEvent.INJECT_SUCCESS : MonkeyEvent.INJECT_FAIL;
+                } else {
+                    injectCode = ev.injectEvent(mWm, mAm, mVerbose);
+                }
+                if (mMetrics != null) {
+                    mMetrics.record(eventType, System.nanoTime() - injectStart,
+                            mEventSource.getQueueDepth());
+                    mMetrics.maybeReport();
+                }
                 if (injectCode == MonkeyEvent.INJECT_FAIL) {
                     if (ev instanceof MonkeyKeyEvent) {
                         mDroppedKeyEvents++;
@@ -1125,30 +1368,10 @@ public class Monkey {
      * Watch for appearance of new tombstone files, which indicate native
      * crashes.
      *
-     * @return Returns true if new files have appeared in the list
+     * @return Returns true if new files have appeared since the last call
      */
     private boolean checkNativeCrashes() {
-        String[] tombstones = TOMBSTONES_PATH.list();
-
-        // shortcut path for usually empty directory, so we don't waste even
-        // more objects
-        if ((tombstones == null) || (tombstones.length == 0)) {
-            mTombstones = null;
-            return false;
-        }
-
-        // use set logic to look for new files
-        HashSet<String> newStones = new HashSet<String>();
-        for (String x : tombstones) {
-            newStones.add(x);
-        }
-
-        boolean result = (mTombstones == null) || !mTombstones.containsAll(newStones);
-
-        // keep the new list for the next time
-        mTombstones = newStones;
-
-        return result;
+        return mTombstoneWatcher.checkNewTombstones();
     }
 
     /**
@@ -1254,23 +1477,35 @@ public class Monkey {
         usage.append("              [--ignore-security-exceptions]\n");
         usage.append("              [--monitor-native-crashes] [--ignore-native-crashes]\n");
         usage.append("              [--kill-process-after-error] [--hprof]\n");
-        usage.append("              [--pct-touch PERCENT] [--pct-motion PERCENT]\n");
-        usage.append("              [--pct-trackball PERCENT] [--pct-syskeys PERCENT]\n");
-        usage.append("              [--pct-nav PERCENT] [--pct-majornav PERCENT]\n");
-        usage.append("              [--pct-appswitch PERCENT] [--pct-flip PERCENT]\n");
-        usage.append("              [--pct-anyevent PERCENT]\n");
+        // one --pct- option per event family, two to a line
+        int families = MonkeySourceRandom.getFamilyCount();
+        for (int i = 0; i < families; i += 2) {
+            usage.append("              [" + PCT_OPTION + MonkeySourceRandom.getFamilyName(i)
+                    + " PERCENT]");
+            if (i + 1 < families) {
+                usage.append(" [" + PCT_OPTION + MonkeySourceRandom.getFamilyName(i + 1)
+                        + " PERCENT]");
+            }
+            usage.append("\n");
+        }
+        usage.append("              [--coverage]\n");
         usage.append("              [--pkg-blacklist-file PACKAGE_BLACKLIST_FILE]\n");
         usage.append("              [--pkg-whitelist-file PACKAGE_WHITELIST_FILE]\n");
-        usage.append("              [--wait-dbg] [--dbg-no-events]\n");
+        usage.append("              [--wait-dbg] [--dbg-no-events] [--dbg-alloc-count]\n");
         usage.append("              [--setup scriptfile] [-f scriptfile [-f scriptfile] ...]\n");
-        usage.append("              [--port port]\n");
+        usage.append("              [--compile-script outfile]\n");
+        usage.append("              [--port port [--pipeline]]\n");
         usage.append("              [-s SEED] [-v [-v] ...]\n");
         usage.append("              [--throttle MILLISEC] [--randomize-throttle]\n");
+        usage.append("              [--precise-throttle] [--rate-profile PROFILE]\n");
+        usage.append("              [--metrics-interval MILLISEC] [--metrics-file FILE]\n");
+        usage.append("              [--event-log FILE]\n");
+        usage.append("              [--record-script FILE]\n");
         usage.append("              [--profile-wait MILLISEC]\n");
         usage.append("              [--device-sleep-time MILLISEC]\n");
         usage.append("              [--randomize-script]\n");
         usage.append("              [--script-log]\n");
-        usage.append("              [--bugreport]\n");
+        usage.append("              [--bugreport] [--async-reports]\n");
         usage.append("              COUNT\n");
         System.err.println(usage.toString());
     }
@@ -42,6 +42,13 @@ public class MonkeyActivityEvent extends MonkeyEvent {
         mAlarmTime = arg;
     }
 
+    /**
+     * @return the activity to switch to
+     */
+    public ComponentName getComponent() {
+        return mApp;
+    }
+
     /**
      * @return Intent for the new activity
      */
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.util.Random;
+
+/**
+ * Picks an index with probability proportional to its weight, in constant
+ * time however many weights there are (Walker's alias method, as built by
+ * Vose).
+ * <p>
+ * Each of the n slots holds its own index and one "alias" index. A single
+ * uniform draw picks a slot and a point within it; the slot's own index is
+ * used if the point is below the slot's threshold, its alias otherwise.
+ */
+public class MonkeyAliasTable {
+    private final float[] mThreshold;
+    private final int[] mAlias;
+
+    /**
+     * @param weights relative weights, none negative and not all zero
+     */
+    public MonkeyAliasTable(float[] weights) {
+        int n = weights.length;
+        mThreshold = new float[n];
+        mAlias = new int[n];
+
+        float sum = 0.0f;
+        for (int i = 0; i < n; i++) {
+            sum += weights[i];
+        }
+
+        // scale so the average weight is 1, then split into the slots below
+        // and above average
+        float[] scaled = new float[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1.0f) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        // top up each small slot from a large one
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+            mThreshold[s] = scaled[s];
+            mAlias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0f;
+            if (scaled[l] < 1.0f) {
+                small[smallCount++] = l;
+            } else {
+                large[largeCount++] = l;
+            }
+        }
+
+        // what's left is full, up to rounding error
+        while (largeCount > 0) {
+            int l = large[--largeCount];
+            mThreshold[l] = 1.0f;
+            mAlias[l] = l;
+        }
+        while (smallCount > 0) {
+            int s = small[--smallCount];
+            mThreshold[s] = 1.0f;
+            mAlias[s] = s;
+        }
+    }
+
+    /**
+     * @param random the random number source
+     * @return an index into the weights
+     */
+    public int next(Random random) {
+        int n = mThreshold.length;
+        float u = random.nextFloat() * n;
+        int slot = (int) u;
+        if (slot >= n) {
+            slot = n - 1;
+        }
+        return (u - slot < mThreshold[slot]) ? slot : mAlias[slot];
+    }
+}
@@ -58,6 +58,12 @@ public abstract class MonkeyEvent {
         return true;
     }
 
+    /**
+     * Return this event to its pool, if it came from one. The default
+     * implementation does nothing; the event must not be used afterwards.
+     */
+    public void recycle() {
+    }
 
     /**
      * a method for injecting event
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.util.Random;
+
+/**
+ * One kind of user action that the random source can generate, such as a
+ * tap, a trackball roll or a key press.  The random source picks a family by
+ * weight and lets it queue up the events for one action.  Families are
+ * listed with {@link MonkeySourceRandom#registerFamily}, which also gives
+ * each its --pct- option and default weight.
+ */
+public interface MonkeyEventFamily {
+    /**
+     * Queue the events for one action of this family.
+     *
+     * @param random the random number source
+     * @param queue the queue to add the events to
+     */
+    public void generateEvents(Random random, MonkeyEventQueue queue);
+}
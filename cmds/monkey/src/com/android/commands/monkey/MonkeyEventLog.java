@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.zip.CRC32;
+
+/**
+ * Records the events a run generates, one line each, together with a
+ * checksum over the whole sequence.
+ * <p>
+ * Only what the source chose is written (event kind, action, key code,
+ * coordinates, throttle); the time stamps taken at injection are left out.
+ * Two runs with the same seed, source options and device should therefore
+ * produce identical logs and checksums, which is how a campaign checks
+ * that a seed reproduces:
+ *
+ * <pre>
+ * K 0 19          key, action, key code
+ * P 2 120.0 310.0 pointer (or T for trackball), action, x, y
+ * A com.example/.Main  activity switch
+ * F 1             keyboard flip, open
+ * S 100           throttle or wait, ms
+ * # events=1234 crc32=89abcdef
+ * </pre>
+ */
+public class MonkeyEventLog {
+    private final Writer mOutput;
+    private final CRC32 mCrc = new CRC32();
+    private final StringBuilder mLine = new StringBuilder(64);
+    private int mCount = 0;
+
+    /**
+     * @param fileName the file to write the log to
+     * @throws IOException if the file can not be created
+     */
+    public MonkeyEventLog(String fileName) throws IOException {
+        mOutput = new BufferedWriter(new FileWriter(fileName));
+    }
+
+    /**
+     * Log an event.  Must be called while the event is still valid; see
+     * {@link MonkeyEventSource#getNextEvent}.
+     */
+    public void record(MonkeyEvent ev) {
+        StringBuilder sb = mLine;
+        sb.setLength(0);
+        if (ev instanceof MonkeyKeyEvent) {
+            MonkeyKeyEvent e = (MonkeyKeyEvent) ev;
+            sb.append("K ").append(e.getAction()).append(' ').append(e.getKeyCode());
+        } else if (ev instanceof MonkeyMotionEvent) {
+            MonkeyMotionEvent e = (MonkeyMotionEvent) ev;
+            sb.append(e.getEventType() == MonkeyEvent.EVENT_TYPE_TRACKBALL ? "T " : "P ");
+            sb.append(e.getAction()).append(' ').append(e.getX()).append(' ').append(e.getY());
+        } else if (ev instanceof MonkeyActivityEvent) {
+            sb.append("A ").append(
+                    ((MonkeyActivityEvent) ev).getComponent().flattenToShortString());
+        } else if (ev instanceof MonkeyFlipEvent) {
+            sb.append("F ").append(((MonkeyFlipEvent) ev).isKeyboardOpen() ? 1 : 0);
+        } else if (ev instanceof MonkeyThrottleEvent) {
+            sb.append("S ").append(((MonkeyThrottleEvent) ev).getThrottle());
+        } else if (ev instanceof MonkeyWaitEvent) {
+            sb.append("S ").append(((MonkeyWaitEvent) ev).getWaitTime());
+        } else {
+            sb.append("E ").append(ev.getEventType());
+        }
+        sb.append('\n');
+
+        for (int i = 0; i < sb.length(); i++) {
+            char c = sb.charAt(i);
+            if (c > 0xff) {
+                mCrc.update(c >> 8);
+            }
+            mCrc.update(c);
+        }
+        mCount++;
+        try {
+            mOutput.append(sb);
+        } catch (IOException e) {
+            // keep going; the checksum is still good
+        }
+    }
+
+    /**
+     * @return the checksum of the events logged so far, as 8 hex digits
+     */
+    public String getChecksum() {
+        String hex = Long.toHexString(mCrc.getValue());
+        return "00000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Write the summary line and close the file.
+     */
+    public void close() {
+        try {
+            mOutput.write("# events=" + mCount + " crc32=" + getChecksum() + "\n");
+            mOutput.close();
+        } catch (IOException e) {
+            System.err.println("** Error writing event log: " + e);
+        }
+        System.out.println(":Events: count=" + mCount + " crc32=" + getChecksum());
+    }
+}
@@ -16,29 +16,53 @@
 
 package com.android.commands.monkey;
 
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 /**
  * class for keeping a monkey event queue
+ * <p>
+ * The queue is a ring buffer, so adding and removing events does not
+ * allocate. Throttling is represented by a single reusable
+ * {@link MonkeyThrottleEvent} whose delay is filled in from a parallel array
+ * when it reaches the head of the queue. Events handed out by
+ * {@link #removeFirst()} stay valid until the next call to it; after that,
+ * pooled events are recycled.
  */
-@SuppressWarnings("serial")
-public class MonkeyEventQueue extends LinkedList<MonkeyEvent> {
+public class MonkeyEventQueue {
+
+    // initial number of slots; must be a power of two
+    private static final int DEFAULT_CAPACITY = 64;
 
     private Random mRandom;
     private long mThrottle;
     private boolean mRandomizeThrottle;
 
+    private MonkeyEvent[] mEvents;
+    private long[] mThrottles;
+    private int mHead = 0;
+    private int mSize = 0;
+
+    private final MonkeyThrottleEvent mThrottleEvent = new MonkeyThrottleEvent(0);
+
+    // the event most recently handed out, recycled on the next removal
+    private MonkeyEvent mLastRemoved;
+
     public MonkeyEventQueue(Random random, long throttle, boolean randomizeThrottle) {
-        super();
         mRandom = random;
         mThrottle = throttle;
         mRandomizeThrottle = randomizeThrottle;
+        mEvents = new MonkeyEvent[DEFAULT_CAPACITY];
+        mThrottles = new long[DEFAULT_CAPACITY];
     }
 
-    @Override
+    /**
+     * Append an event, followed by a throttle if the event allows it.
+     *
+     * @param e the event to append
+     */
     public void addLast(MonkeyEvent e) {
-        super.add(e);
+        push(e, 0);
         if (e.isThrottlable()) {
             long throttle = mThrottle;
             if (mRandomizeThrottle && (mThrottle > 0)) {
@@ -49,7 +73,79 @@ public class MonkeyEventQueue extends LinkedList<MonkeyEvent> {
                 throttle %= mThrottle;
                 ++throttle;
             }
-            super.add(new MonkeyThrottleEvent(throttle));
+            push(mThrottleEvent, throttle);
+        }
+    }
+
+    /**
+     * @return the event at the head of the queue
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public MonkeyEvent getFirst() {
+        if (mSize == 0) {
+            throw new NoSuchElementException();
+        }
+        MonkeyEvent e = mEvents[mHead];
+        if (e == mThrottleEvent) {
+            mThrottleEvent.setThrottle(mThrottles[mHead]);
+        }
+        return e;
+    }
+
+    /**
+     * Remove the event at the head of the queue. The event returned by the
+     * previous call is recycled at this point.
+     *
+     * @return the removed event
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public MonkeyEvent removeFirst() {
+        MonkeyEvent e = getFirst();
+        mEvents[mHead] = null;
+        mHead = (mHead + 1) & (mEvents.length - 1);
+        mSize--;
+
+        if (mLastRemoved != null) {
+            mLastRemoved.recycle();
+        }
+        mLastRemoved = e;
+        return e;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    private void push(MonkeyEvent e, long throttle) {
+        if (mSize == mEvents.length) {
+            grow();
+        }
+        int tail = (mHead + mSize) & (mEvents.length - 1);
+        mEvents[tail] = e;
+        mThrottles[tail] = throttle;
+        mSize++;
+    }
+
+    /**
+     * Double the capacity. This only happens when a single batch of events
+     * (e.g. a block of script lines) is larger than anything seen before, so
+     * the queue settles at a fixed size early in a run.
+     */
+    private void grow() {
+        int capacity = mEvents.length;
+        MonkeyEvent[] events = new MonkeyEvent[capacity << 1];
+        long[] throttles = new long[capacity << 1];
+        for (int i = 0; i < mSize; i++) {
+            int index = (mHead + i) & (capacity - 1);
+            events[i] = mEvents[index];
+            throttles[i] = mThrottles[index];
         }
+        mEvents = events;
+        mThrottles = throttles;
+        mHead = 0;
     }
 }
@@ -21,6 +21,10 @@ package com.android.commands.monkey;
  */
 public interface MonkeyEventSource {
     /**
+     * Events may be taken from a pool (see {@link MonkeyEventQueue}): the
+     * one returned stays valid until the next call, which may recycle it.
+     * Anything that looks at an event must do so before then.
+     *
      * @return the next monkey event from the source
      */
     public MonkeyEvent getNextEvent();
@@ -39,4 +43,10 @@ public interface MonkeyEventSource {
      *         file can not open from script source etc
      */
     public boolean validate();
+
+    /**
+     * @return the number of events generated but not yet returned by
+     *         {@link #getNextEvent()}
+     */
+    public int getQueueDepth();
 }
@@ -35,6 +35,18 @@ public class MonkeyKeyEvent extends MonkeyEvent {
 
     private KeyEvent keyEvent = null;
 
+    // recycled instances, see obtain() and recycle()
+    private static final int MAX_POOL_SIZE = 16;
+    private static final Object sPoolSync = new Object();
+    private static MonkeyKeyEvent sPool;
+    private static int sPoolSize = 0;
+    private MonkeyKeyEvent mNext;
+    private boolean mPooled;
+
+    private MonkeyKeyEvent() {
+        super(EVENT_TYPE_KEY);
+    }
+
     public MonkeyKeyEvent(int action, int keycode) {
         super(EVENT_TYPE_KEY);
         mAction = action;
@@ -61,6 +73,61 @@ public class MonkeyKeyEvent extends MonkeyEvent {
         mEventTime = eventTime;
     }
 
+    /**
+     * Return a key event from the pool, or a new one if the pool is empty.
+     * Equivalent to {@link #MonkeyKeyEvent(int, int)}.
+     */
+    public static MonkeyKeyEvent obtain(int action, int keycode) {
+        return obtain(-1, -1, action, keycode, -1, -1, -1, -1);
+    }
+
+    /**
+     * Return a key event from the pool, or a new one if the pool is empty.
+     * Equivalent to {@link #MonkeyKeyEvent(long, long, int, int, int, int, int, int)}.
+     */
+    public static MonkeyKeyEvent obtain(long downTime, long eventTime, int action,
+            int code, int repeat, int metaState, int device, int scancode) {
+        MonkeyKeyEvent e = null;
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                e = sPool;
+                sPool = e.mNext;
+                e.mNext = null;
+                sPoolSize--;
+            }
+        }
+        if (e == null) {
+            e = new MonkeyKeyEvent();
+        }
+        e.mPooled = true;
+        e.mAction = action;
+        e.mKeyCode = code;
+        e.mMetaState = metaState;
+        e.mScancode = scancode;
+        e.mRepeatCount = repeat;
+        e.mDeviceId = device;
+        e.mDownTime = downTime;
+        e.mEventTime = eventTime;
+        e.keyEvent = null;
+        return e;
+    }
+
+    @Override
+    public void recycle() {
+        if (!mPooled) {
+            return;
+        }
+        mPooled = false;
+        keyEvent = null;
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
     public int getKeyCode() {
         return mKeyCode;
     }
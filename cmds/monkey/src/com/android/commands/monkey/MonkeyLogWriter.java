@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends log lines to files from a background thread.
+ * <p>
+ * Callers hand over text with {@link #write}, which never blocks: if the
+ * writer has fallen so far behind that its queue is full, the text is
+ * dropped and counted against its file instead. The writer thread keeps one
+ * buffered writer open per file and flushes when enough text has built up or
+ * a second has passed, so a slow sdcard costs the monkey thread nothing.
+ * <p>
+ * Once {@link #close} has been called the thread is gone for good; any later
+ * write is appended to its file directly, on the caller's thread.
+ */
+public abstract class MonkeyLogWriter {
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    // flush once this much is pending, or this long after the last flush
+    private static final int FLUSH_BYTES = 8 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static class Entry {
+        final String mFileName;
+        final String mText;
+
+        Entry(String fileName, String text) {
+            mFileName = fileName;
+            mText = text;
+        }
+    }
+
+    // tells the writer thread to flush everything and exit
+    private static final Entry CLOSE = new Entry(null, null);
+
+    private static final ArrayBlockingQueue<Entry> sQueue =
+            new ArrayBlockingQueue<Entry>(QUEUE_CAPACITY);
+
+    // guards the thread, the closed flag and the drop counts; held only
+    // around non-blocking calls
+    private static final Object sLock = new Object();
+    private static Thread sThread = null;
+    private static boolean sClosed = false;
+    private static final HashMap<String, Integer> sDropped = new HashMap<String, Integer>();
+
+    private MonkeyLogWriter() {
+    }
+
+    /**
+     * Queue text to be appended to a file.
+     *
+     * @param fileName the file to append to
+     * @param text the text, including any line terminator
+     */
+    public static void write(String fileName, String text) {
+        Entry entry = new Entry(fileName, text);
+        synchronized (sLock) {
+            if (!sClosed) {
+                if (sThread == null) {
+                    Thread thread = new Thread("monkey-log-writer") {
+                        public void run() {
+                            writeLoop();
+                        }
+                    };
+                    thread.setDaemon(true);
+                    thread.start();
+                    sThread = thread;
+                }
+                if (!sQueue.offer(entry)) {
+                    Integer dropped = sDropped.get(fileName);
+                    sDropped.put(fileName, dropped == null ? 1 : dropped + 1);
+                }
+                return;
+            }
+        }
+        writeDirectly(entry);
+    }
+
+    /**
+     * Write out everything queued so far, close the files and stop the
+     * writer thread.  Blocks until done.
+     *
+     * @return the number of writes dropped because the queue was full, by
+     *         file; empty if none were
+     */
+    public static Map<String, Integer> close() {
+        Thread thread;
+        synchronized (sLock) {
+            sClosed = true;
+            thread = sThread;
+            sThread = null;
+        }
+        if (thread != null) {
+            try {
+                sQueue.put(CLOSE);
+                thread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+        synchronized (sLock) {
+            return new HashMap<String, Integer>(sDropped);
+        }
+    }
+
+    private static void writeDirectly(Entry entry) {
+        try {
+            Writer writer = new FileWriter(entry.mFileName, true);
+            try {
+                writer.write(entry.mText);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            System.err.println("** Error writing " + entry.mFileName + ": " + e);
+        }
+    }
+
+    private static void writeLoop() {
+        HashMap<String, Writer> writers = new HashMap<String, Writer>();
+        int pending = 0;
+        long lastFlush = System.currentTimeMillis();
+        while (true) {
+            Entry entry;
+            try {
+                entry = sQueue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                entry = CLOSE;
+            }
+            if (entry == CLOSE) {
+                break;
+            }
+            if (entry != null) {
+                pending += append(writers, entry);
+            }
+            long now = System.currentTimeMillis();
+            if (pending > 0 && (pending >= FLUSH_BYTES
+                    || now - lastFlush >= FLUSH_INTERVAL_MS)) {
+                flushAll(writers);
+                pending = 0;
+                lastFlush = now;
+            }
+        }
+
+        // writes stop being queued before the close request is, so nothing
+        // can be behind it
+        for (Writer writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println("** Error closing log: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of chars written
+     */
+    private static int append(HashMap<String, Writer> writers, Entry entry) {
+        try {
+            Writer writer = writers.get(entry.mFileName);
+            if (writer == null) {
+                writer = new BufferedWriter(new FileWriter(entry.mFileName, true), BUFFER_SIZE);
+                writers.put(entry.mFileName, writer);
+            }
+            writer.write(entry.mText);
+            return entry.mText.length();
+        } catch (IOException e) {
+            System.err.println("** Error writing " + entry.mFileName + ": " + e);
+            return 0;
+        }
+    }
+
+    private static void flushAll(HashMap<String, Writer> writers) {
+        for (Writer writer : writers.values()) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("** Error flushing log: " + e);
+            }
+        }
+    }
+}
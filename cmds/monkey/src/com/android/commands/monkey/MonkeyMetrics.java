@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Records how the device responds to injection over a run.
+ * <p>
+ * For every event type we keep a histogram of the time spent in
+ * {@link MonkeyEvent#injectEvent}, with power-of-two microsecond buckets, so
+ * recording is a couple of array increments on the monkey thread. Every
+ * interval the histograms are summarised, together with the event rate,
+ * the source's queue depth, GC count and the longest stall seen by a
+ * watchdog thread, into one JSON line, and then cleared:
+ *
+ * <pre>
+ * {"uptime":123456,"interval_ms":10000,"events":1520,"events_per_sec":152.0,
+ *  "throttles":1520,"throttle_ms":7600,
+ *  "queue_depth":3,"queue_depth_max":11,"gcs":2,"stalls":1,"stall_max_ms":48,
+ *  "latency":{"key":{"count":400,"p50_us":512,"p90_us":1024,"p99_us":4096,
+ *  "max_us":3870},...}}
+ * </pre>
+ *
+ * Throttle waits are not injections: they are left out of the events, the
+ * rate and the latencies, and counted on their own with the time spent in
+ * them.
+ *
+ * The lines go to a file, or to stdout prefixed with ":Metrics: ". The most
+ * recent line can also be fetched with the network source's "metrics"
+ * command.
+ */
+public class MonkeyMetrics {
+    private static final long NANOS_PER_MICRO = 1000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private static final String[] TYPE_NAMES = {
+        "key", "pointer", "trackball", "activity", "flip", "throttle", "noop"
+    };
+
+    // bucket i holds latencies in [2^(i-1), 2^i) us; bucket 0 is < 1us
+    private static final int BUCKET_COUNT = 32;
+
+    // the watchdog wakes up this often, and counts a wakeup this late
+    // as a stall of the whole process (typically a GC pause)
+    private static final long WATCHDOG_PERIOD_MS = 5;
+    private static final long STALL_THRESHOLD_MS = 20;
+
+    // last exported line, for the network source
+    private static volatile String sLastReport = null;
+
+    private final long mInterval;
+    private final PrintWriter mOutput;
+
+    private final long[][] mLatency = new long[TYPE_NAMES.length][BUCKET_COUNT];
+    private final long[] mLatencyMax = new long[TYPE_NAMES.length];
+    private int mEvents = 0;
+    private int mThrottles = 0;
+    private long mThrottleTime = 0;
+    private int mQueueDepth = 0;
+    private int mQueueDepthMax = 0;
+    private long mIntervalStart;
+    private int mLastGcCount;
+
+    // written by the watchdog thread
+    private final Object mStallLock = new Object();
+    private int mStalls = 0;
+    private long mStallMax = 0;
+    private Thread mWatchdog;
+
+    private final StringBuilder mLine = new StringBuilder(1024);
+
+    /**
+     * @param interval how often to export, in ms
+     * @param fileName file to append the JSON lines to, or null for stdout
+     * @throws IOException if the file can not be opened
+     */
+    public MonkeyMetrics(long interval, String fileName) throws IOException {
+        mInterval = interval;
+        if (fileName != null) {
+            mOutput = new PrintWriter(new FileWriter(fileName, true));
+        } else {
+            mOutput = null;
+        }
+    }
+
+    /**
+     * Start the clock and the stall watchdog.
+     */
+    public void start() {
+        mIntervalStart = SystemClock.uptimeMillis();
+        mLastGcCount = Debug.getGlobalGcInvocationCount();
+        mWatchdog = new Thread("monkey-metrics") {
+            public void run() {
+                long last = SystemClock.uptimeMillis();
+                while (true) {
+                    try {
+                        Thread.sleep(WATCHDOG_PERIOD_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long now = SystemClock.uptimeMillis();
+                    long late = now - last - WATCHDOG_PERIOD_MS;
+                    last = now;
+                    if (late >= STALL_THRESHOLD_MS) {
+                        synchronized (mStallLock) {
+                            mStalls++;
+                            if (late > mStallMax) {
+                                mStallMax = late;
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        mWatchdog.setDaemon(true);
+        mWatchdog.start();
+    }
+
+    /**
+     * Record one injection, or one throttle wait.  Called on the monkey
+     * thread for every event.
+     *
+     * @param type the {@link MonkeyEvent} type
+     * @param latency time spent injecting, or waiting, in ns
+     * @param queueDepth events the source had queued up after this one
+     */
+    public void record(int type, long latency, int queueDepth) {
+        if (type == MonkeyEvent.EVENT_TYPE_THROTTLE) {
+            mThrottles++;
+            mThrottleTime += latency;
+        } else {
+            if (type >= 0 && type < TYPE_NAMES.length) {
+                long us = latency / NANOS_PER_MICRO;
+                int bucket = 64 - Long.numberOfLeadingZeros(us);
+                if (bucket >= BUCKET_COUNT) {
+                    bucket = BUCKET_COUNT - 1;
+                }
+                mLatency[type][bucket]++;
+                if (us > mLatencyMax[type]) {
+                    mLatencyMax[type] = us;
+                }
+            }
+            mEvents++;
+        }
+        mQueueDepth = queueDepth;
+        if (queueDepth > mQueueDepthMax) {
+            mQueueDepthMax = queueDepth;
+        }
+    }
+
+    /**
+     * Export if the interval is up.  Cheap enough to call after every event.
+     */
+    public void maybeReport() {
+        if (SystemClock.uptimeMillis() - mIntervalStart >= mInterval) {
+            report();
+        }
+    }
+
+    /**
+     * Export the current interval and start a new one.
+     */
+    public void report() {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - mIntervalStart;
+        int gcCount = Debug.getGlobalGcInvocationCount();
+        int stalls;
+        long stallMax;
+        synchronized (mStallLock) {
+            stalls = mStalls;
+            stallMax = mStallMax;
+            mStalls = 0;
+            mStallMax = 0;
+        }
+
+        StringBuilder sb = mLine;
+        sb.setLength(0);
+        sb.append("{\"uptime\":").append(now);
+        sb.append(",\"interval_ms\":").append(elapsed);
+        sb.append(",\"events\":").append(mEvents);
+        sb.append(",\"events_per_sec\":").append(elapsed > 0 ? mEvents * 1000.0f / elapsed : 0.0f);
+        sb.append(",\"throttles\":").append(mThrottles);
+        sb.append(",\"throttle_ms\":").append(mThrottleTime / NANOS_PER_MILLI);
+        sb.append(",\"queue_depth\":").append(mQueueDepth);
+        sb.append(",\"queue_depth_max\":").append(mQueueDepthMax);
+        sb.append(",\"gcs\":").append(gcCount - mLastGcCount);
+        sb.append(",\"stalls\":").append(stalls);
+        sb.append(",\"stall_max_ms\":").append(stallMax);
+        sb.append(",\"latency\":{");
+        boolean first = true;
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            long[] buckets = mLatency[type];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                count += buckets[i];
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(TYPE_NAMES[type]).append("\":{\"count\":").append(count);
+            sb.append(",\"p50_us\":").append(percentile(buckets, count, 50));
+            sb.append(",\"p90_us\":").append(percentile(buckets, count, 90));
+            sb.append(",\"p99_us\":").append(percentile(buckets, count, 99));
+            sb.append(",\"max_us\":").append(mLatencyMax[type]).append('}');
+        }
+        sb.append("}}");
+
+        String line = sb.toString();
+        sLastReport = line;
+        if (mOutput != null) {
+            mOutput.println(line);
+            mOutput.flush();
+        } else {
+            System.out.println(":Metrics: " + line);
+        }
+
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            Arrays.fill(mLatency[type], 0);
+            mLatencyMax[type] = 0;
+        }
+        mEvents = 0;
+        mThrottles = 0;
+        mThrottleTime = 0;
+        mQueueDepthMax = mQueueDepth;
+        mLastGcCount = gcCount;
+        mIntervalStart = now;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, in us.
+     */
+    private static long percentile(long[] buckets, long count, int percentile) {
+        long target = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Export the final partial interval and stop the watchdog.
+     */
+    public void stop() {
+        report();
+        if (mWatchdog != null) {
+            mWatchdog.interrupt();
+        }
+        if (mOutput != null) {
+            mOutput.close();
+        }
+    }
+
+    /**
+     * @return the most recently exported line, or null if metrics are off
+     *         or nothing has been exported yet
+     */
+    public static String getLastReport() {
+        return sLastReport;
+    }
+}
@@ -43,7 +43,19 @@ public class MonkeyMotionEvent extends MonkeyEvent {
     
     //If true, this is an intermediate step (more verbose logging, only)
     private boolean mIntermediateNote;  
-        
+
+    // recycled instances, see obtain() and recycle()
+    private static final int MAX_POOL_SIZE = 32;
+    private static final Object sPoolSync = new Object();
+    private static MonkeyMotionEvent sPool;
+    private static int sPoolSize = 0;
+    private MonkeyMotionEvent mNext;
+    private boolean mPooled;
+
+    private MonkeyMotionEvent(int type) {
+        super(type);
+    }
+
     public MonkeyMotionEvent(int type, long downAt, int action, 
             float x, float y, int metaState) {
         super(type);
@@ -72,6 +84,67 @@ public class MonkeyMotionEvent extends MonkeyEvent {
         mEdgeFlags = edgeFlags;
     }    
     
+    /**
+     * Return a motion event from the pool, or a new one if the pool is empty.
+     * Equivalent to {@link #MonkeyMotionEvent(int, long, int, float, float, int)}.
+     */
+    public static MonkeyMotionEvent obtain(int type, long downAt, int action,
+            float x, float y, int metaState) {
+        return obtain(type, downAt, -1, action, x, y, -1, -1, metaState, -1, -1, -1, -1);
+    }
+
+    /**
+     * Return a motion event from the pool, or a new one if the pool is empty.
+     * Equivalent to the full {@link MonkeyMotionEvent} constructor.
+     */
+    public static MonkeyMotionEvent obtain(int type, long downTime, long eventTime, int action,
+            float x, float y, float pressure, float size, int metaState,
+            float xPrecision, float yPrecision, int deviceId, int edgeFlags) {
+        MonkeyMotionEvent e = null;
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                e = sPool;
+                sPool = e.mNext;
+                e.mNext = null;
+                sPoolSize--;
+            }
+        }
+        if (e == null) {
+            e = new MonkeyMotionEvent(type);
+        }
+        e.eventType = type;
+        e.mPooled = true;
+        e.mDownTime = downTime;
+        e.mEventTime = eventTime;
+        e.mAction = action;
+        e.mX = x;
+        e.mY = y;
+        e.mPressure = pressure;
+        e.mSize = size;
+        e.mMetaState = metaState;
+        e.mXPrecision = xPrecision;
+        e.mYPrecision = yPrecision;
+        e.mDeviceId = deviceId;
+        e.mEdgeFlags = edgeFlags;
+        e.mIntermediateNote = false;
+        return e;
+    }
+
+    @Override
+    public void recycle() {
+        if (!mPooled) {
+            return;
+        }
+        mPooled = false;
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
     public void setIntermediateNote(boolean b) {
         mIntermediateNote = b;
     }
@@ -144,9 +217,9 @@ public class MonkeyMotionEvent extends MonkeyEvent {
             System.out.println(":Sending Pointer ACTION_" + note + 
                     " x=" + mX + " y=" + mY);
         }
+        MotionEvent me = getEvent();
         try {
             int type = this.getEventType();
-            MotionEvent me = getEvent();
             
             if ((type == MonkeyEvent.EVENT_TYPE_POINTER && 
                     !iwm.injectPointerEvent(me, false))
@@ -156,6 +229,9 @@ public class MonkeyMotionEvent extends MonkeyEvent {
             }
         } catch (RemoteException ex) {
             return MonkeyEvent.INJECT_ERROR_REMOTE_EXCEPTION;
+        } finally {
+            // the event has been parceled to the window manager by now
+            me.recycle();
         }
         return MonkeyEvent.INJECT_SUCCESS;
     }
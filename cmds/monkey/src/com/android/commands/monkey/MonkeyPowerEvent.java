@@ -16,12 +16,9 @@
 
 package com.android.commands.monkey;
 
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import android.app.IActivityManager;
 import android.content.ContentValues;
-import android.util.Log;
 import android.view.IWindowManager;
 import android.os.Build;
 
@@ -102,30 +99,20 @@ public class MonkeyPowerEvent extends MonkeyEvent {
 
         events = mLogEvents.toArray(new ContentValues[0]);
         mLogEvents.clear();
-        FileWriter writer = null;
-        try {
-            StringBuffer buffer = new StringBuffer();
-            for (int i = 0; i < events.length; ++i) {
-                ContentValues event = events[i];
-                buffer.append(MonkeyUtils.toCalendarTime(event.getAsLong("date")));
-                buffer.append(event.getAsString("tag"));
-                if (event.containsKey("value")) {
-                    String value = event.getAsString("value");
-                    buffer.append(" ");
-                    buffer.append(value.replace('\n', '/'));
-                }
-                buffer.append("\n");
-            }
-            writer = new FileWriter(LOG_FILE, true); // true = append
-            writer.write(buffer.toString());
-        } catch (IOException e) {
-            Log.w(TAG, "Can't write sdcard log file", e);
-        } finally {
-            try {
-                if (writer != null) writer.close();
-            } catch (IOException e) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < events.length; ++i) {
+            ContentValues event = events[i];
+            buffer.append(MonkeyUtils.toCalendarTime(event.getAsLong("date")));
+            buffer.append(event.getAsString("tag"));
+            if (event.containsKey("value")) {
+                String value = event.getAsString("value");
+                buffer.append(" ");
+                buffer.append(value.replace('\n', '/'));
             }
+            buffer.append("\n");
         }
+        // the sdcard write happens on the log writer thread
+        MonkeyLogWriter.write(LOG_FILE, buffer.toString());
     }
 
     @Override
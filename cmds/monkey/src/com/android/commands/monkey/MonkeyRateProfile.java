@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.util.ArrayList;
+
+/**
+ * A schedule of event rates over time, used by {@link MonkeyScheduler}.
+ * <p>
+ * A profile is a comma separated list of segments. Rates are in events
+ * (user actions) per second and durations in milliseconds. When the last
+ * segment ends the profile starts over from the first one.
+ *
+ * <pre>
+ * const:DURATION:RATE                  steady rate
+ * ramp:DURATION:FROM_RATE:TO_RATE      rate changes linearly
+ * burst:DURATION:RATE:COUNT:PAUSE      COUNT events at RATE, then PAUSE ms idle
+ * </pre>
+ *
+ * For example {@code ramp:60000:1:50,burst:30000:200:100:2000} ramps up to
+ * 50 events/s over a minute, then sends bursts of 100 events at 200 events/s
+ * for half a minute.
+ */
+public class MonkeyRateProfile {
+    private static final long NANOS_PER_MS = 1000000L;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final int SEGMENT_CONST = 0;
+    private static final int SEGMENT_RAMP = 1;
+    private static final int SEGMENT_BURST = 2;
+
+    private final int[] mTypes;
+    private final long[] mDurations; // ns
+    private final float[] mFromRates;
+    private final float[] mToRates;
+    private final int[] mBurstCounts;
+    private final long[] mBurstPauses; // ns
+    private final long mTotalDuration; // ns
+
+    // position within the current burst
+    private int mBurstIndex = 0;
+
+    private MonkeyRateProfile(ArrayList<long[]> segments, ArrayList<float[]> rates) {
+        int n = segments.size();
+        mTypes = new int[n];
+        mDurations = new long[n];
+        mFromRates = new float[n];
+        mToRates = new float[n];
+        mBurstCounts = new int[n];
+        mBurstPauses = new long[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            long[] segment = segments.get(i);
+            float[] rate = rates.get(i);
+            mTypes[i] = (int) segment[0];
+            mDurations[i] = segment[1] * NANOS_PER_MS;
+            mBurstCounts[i] = (int) segment[2];
+            mBurstPauses[i] = segment[3] * NANOS_PER_MS;
+            mFromRates[i] = rate[0];
+            mToRates[i] = rate[1];
+            total += mDurations[i];
+        }
+        mTotalDuration = total;
+    }
+
+    /**
+     * Parse a profile description.
+     *
+     * @param spec the profile, in the format described above
+     * @return the profile
+     * @throws IllegalArgumentException if the description is malformed
+     */
+    public static MonkeyRateProfile parse(String spec) {
+        if (spec == null || spec.length() == 0) {
+            throw new IllegalArgumentException("empty rate profile");
+        }
+        ArrayList<long[]> segments = new ArrayList<long[]>();
+        ArrayList<float[]> rates = new ArrayList<float[]>();
+        for (String part : spec.split(",")) {
+            String[] args = part.trim().split(":");
+            try {
+                if ("const".equals(args[0]) && args.length == 3) {
+                    float rate = parseRate(args[2]);
+                    segments.add(new long[] { SEGMENT_CONST, parseDuration(args[1]), 0, 0 });
+                    rates.add(new float[] { rate, rate });
+                } else if ("ramp".equals(args[0]) && args.length == 4) {
+                    segments.add(new long[] { SEGMENT_RAMP, parseDuration(args[1]), 0, 0 });
+                    rates.add(new float[] { parseRate(args[2]), parseRate(args[3]) });
+                } else if ("burst".equals(args[0]) && args.length == 5) {
+                    float rate = parseRate(args[2]);
+                    int count = Integer.parseInt(args[3]);
+                    long pause = Long.parseLong(args[4]);
+                    if (count <= 0 || pause < 0) {
+                        throw new IllegalArgumentException("bad burst in rate profile: " + part);
+                    }
+                    segments.add(new long[] { SEGMENT_BURST, parseDuration(args[1]), count, pause });
+                    rates.add(new float[] { rate, rate });
+                } else {
+                    throw new IllegalArgumentException("bad rate profile segment: " + part);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad number in rate profile segment: " + part);
+            }
+        }
+        return new MonkeyRateProfile(segments, rates);
+    }
+
+    private static long parseDuration(String s) {
+        long duration = Long.parseLong(s);
+        if (duration <= 0) {
+            throw new IllegalArgumentException("rate profile durations must be positive");
+        }
+        return duration;
+    }
+
+    private static float parseRate(String s) {
+        float rate = Float.parseFloat(s);
+        if (!(rate > 0.0f)) {
+            throw new IllegalArgumentException("rate profile rates must be positive");
+        }
+        return rate;
+    }
+
+    /**
+     * Return the interval to wait before the next event.
+     *
+     * @param elapsed time since the start of the run, in nanoseconds
+     * @return the interval in nanoseconds
+     */
+    public long nextInterval(long elapsed) {
+        long t = elapsed % mTotalDuration;
+        int i = 0;
+        while (t >= mDurations[i]) {
+            t -= mDurations[i];
+            i++;
+        }
+
+        float rate;
+        switch (mTypes[i]) {
+            case SEGMENT_RAMP:
+                rate = mFromRates[i] + (mToRates[i] - mFromRates[i]) * t / mDurations[i];
+                break;
+            case SEGMENT_BURST:
+                if (++mBurstIndex >= mBurstCounts[i]) {
+                    mBurstIndex = 0;
+                    return mBurstPauses[i];
+                }
+                rate = mFromRates[i];
+                break;
+            default:
+                rate = mFromRates[i];
+                break;
+        }
+        return (long) (NANOS_PER_SECOND / rate);
+    }
+}
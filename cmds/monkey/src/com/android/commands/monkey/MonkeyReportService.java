@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.os.Environment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs report commands (bugreport, procrank, dumpsys, ANR traces) in the
+ * background so that the monkey can keep injecting while they run.
+ * <p>
+ * Output is either streamed into a gzipped file on external storage, or
+ * collected and printed to stderr in one piece when the command finishes,
+ * so that concurrent reports do not interleave. Files are appended to, one
+ * gzip member per capture, so the captures of a long run that share a name
+ * (traces, meminfo and so on for every ANR) are all kept; gunzip reads the
+ * members back as one stream.
+ * <p>
+ * Requests for the same command that arrive while an earlier one is still
+ * waiting to start are merged into it: an ANR typically asks for traces,
+ * meminfo, procrank and a bugreport at once, and a burst of ANRs would
+ * otherwise queue up the same captures many times over.
+ */
+public class MonkeyReportService {
+    private static final int BUFFER_SIZE = 8192;
+
+    private class Report implements Runnable {
+        final String mName;
+        final String mCommand;
+        final long mDelay;
+        int mStatus = -1;
+        long mBytes = 0;
+        long mElapsed = 0;
+        String mError = null;
+
+        Report(String name, String command, long delay) {
+            mName = name;
+            mCommand = command;
+            mDelay = delay;
+        }
+
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                if (mDelay > 0) {
+                    Thread.sleep(mDelay);
+                }
+                // from here on a new request needs a new capture
+                synchronized (mLock) {
+                    mQueued.remove(mCommand);
+                }
+                capture();
+            } catch (Exception e) {
+                mError = e.toString();
+            }
+            synchronized (mLock) {
+                if (mQueued.get(mCommand) == this) {
+                    mQueued.remove(mCommand);
+                }
+            }
+            mElapsed = System.currentTimeMillis() - start;
+            synchronized (mLock) {
+                mPending--;
+                mFinished.add(this);
+                mLock.notifyAll();
+            }
+            if (mError != null) {
+                System.err.println("// Exception from " + mName + ":");
+                System.err.println(mError);
+            }
+        }
+
+        private void capture() throws IOException, InterruptedException {
+            if (mToFiles) {
+                // captures that share a name share a file; take turns at it
+                synchronized (fileLock(mName)) {
+                    captureOnce();
+                }
+            } else {
+                captureOnce();
+            }
+        }
+
+        private void captureOnce() throws IOException, InterruptedException {
+            ProcessBuilder builder = new ProcessBuilder(mCommand.split(" "));
+            builder.redirectErrorStream(true);
+            java.lang.Process p = builder.start();
+
+            OutputStream out;
+            ByteArrayOutputStream collected = null;
+            if (mToFiles) {
+                File file = new File(Environment.getExternalStorageDirectory(), mName + ".gz");
+                out = new GZIPOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+            } else {
+                collected = new ByteArrayOutputStream();
+                out = collected;
+            }
+
+            InputStream in = p.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    mBytes += n;
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+            mStatus = p.waitFor();
+
+            if (collected != null) {
+                // one report at a time, so they don't interleave
+                synchronized (System.err) {
+                    System.err.println(mName + ":");
+                    System.err.print(collected.toString());
+                    System.err.println("// " + mName + " status was " + mStatus);
+                }
+            } else {
+                System.err.println("// " + mName + " status was " + mStatus);
+            }
+        }
+    }
+
+    private final boolean mToFiles;
+    private final ExecutorService mExecutor;
+
+    private final Object mLock = new Object();
+    // reports that have been submitted but not started, by command
+    private final HashMap<String, Report> mQueued = new HashMap<String, Report>();
+    private final ArrayList<Report> mFinished = new ArrayList<Report>();
+    // one lock per report file name
+    private final HashMap<String, Object> mFileLocks = new HashMap<String, Object>();
+    private int mPending = 0;
+    private int mSubmitted = 0;
+    private int mMerged = 0;
+
+    /**
+     * @param threads how many reports may run at once
+     * @param toFiles write reports to gzipped files on external storage
+     *            instead of stderr
+     */
+    public MonkeyReportService(int threads, boolean toFiles) {
+        mToFiles = toFiles;
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "monkey-report");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queue a report.  Returns immediately.
+     *
+     * @param reportName tag printed with the report, and the file name when
+     *            writing to files
+     * @param command command line to execute
+     * @param delay how long to wait before starting the command, in ms
+     * @return false if the request was merged into an identical one that
+     *         has not started yet
+     */
+    public boolean submit(String reportName, String command, long delay) {
+        Report report;
+        synchronized (mLock) {
+            if (mQueued.containsKey(command)) {
+                mMerged++;
+                return false;
+            }
+            report = new Report(reportName, command, delay);
+            mQueued.put(command, report);
+            mPending++;
+            mSubmitted++;
+        }
+        mExecutor.execute(report);
+        return true;
+    }
+
+    private Object fileLock(String name) {
+        synchronized (mLock) {
+            Object lock = mFileLocks.get(name);
+            if (lock == null) {
+                lock = new Object();
+                mFileLocks.put(name, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * @return the number of reports queued or running
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending;
+        }
+    }
+
+    /**
+     * Wait for all submitted reports to finish.
+     *
+     * @param timeout the longest to wait, in ms
+     * @return true if everything finished
+     */
+    public boolean awaitCompletion(long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (mLock) {
+            while (mPending > 0) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    mLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop taking new reports.  Reports already running are not interrupted.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Print the status of every report.
+     */
+    public void dump() {
+        synchronized (mLock) {
+            System.out.println(":Reports: submitted=" + mSubmitted + " merged=" + mMerged
+                    + " pending=" + mPending);
+            for (Report report : mFinished) {
+                System.out.println(":Reports: " + report.mName + " status=" + report.mStatus
+                        + " bytes=" + report.mBytes + " ms=" + report.mElapsed
+                        + (report.mError != null ? " error=" + report.mError : ""));
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.os.SystemClock;
+
+/**
+ * Drift-free pacing of injected events.
+ * <p>
+ * A plain {@link MonkeyThrottleEvent} sleeps for a fixed time after every
+ * action, so the time spent injecting is added on top of the throttle and
+ * the real rate falls below the requested one. The scheduler instead keeps
+ * an absolute deadline on the monotonic clock and advances it by one
+ * interval per action, sleeping only for whatever is left. Lateness against
+ * each deadline is recorded so the achieved rate and jitter can be reported.
+ * <p>
+ * Script playback waits for absolute event times instead of slots. Those
+ * waits move the deadline along with them, so a throttle that follows is
+ * counted from the event, and their lateness is kept apart from that of
+ * the throttle slots.
+ */
+public class MonkeyScheduler {
+    private static final long NANOS_PER_MS = 1000000L;
+
+    // If we fall further behind than this (e.g. while a bugreport runs),
+    // start over from "now" instead of firing a burst of catch-up events.
+    private static final long MAX_LAG_NS = 1000L * NANOS_PER_MS;
+
+    // lateness histogram: 100us buckets up to 100ms, plus one overflow bucket
+    private static final long BUCKET_NS = 100000L;
+    private static final int BUCKET_COUNT = 1000;
+
+    private final MonkeyRateProfile mProfile;
+
+    private long mStartTime = -1;
+    private long mNextDeadline;
+
+    // the throttle slots, from the start of the first to the end of the last
+    private long mFirstSlot = -1;
+    private long mLastSlotWakeup;
+    private long mSlots = 0;
+    private long mRequestedTime = 0;
+    private long mResyncs = 0;
+    private final Lateness mSlotLateness = new Lateness();
+
+    private long mScriptWaits = 0;
+    // time spent in script waits since the first slot, not counted in its rate
+    private long mScriptWaitTime = 0;
+    private final Lateness mScriptLateness = new Lateness();
+
+    /**
+     * How late a kind of wakeup was, as a histogram.
+     */
+    private static class Lateness {
+        private final long[] mBuckets = new long[BUCKET_COUNT + 1];
+        private long mSamples = 0;
+        private long mMax = 0;
+
+        void add(long lateness) {
+            if (lateness < 0) {
+                lateness = 0;
+            }
+            if (lateness > mMax) {
+                mMax = lateness;
+            }
+            int bucket = (int) Math.min(lateness / BUCKET_NS, BUCKET_COUNT);
+            mBuckets[bucket]++;
+            mSamples++;
+        }
+
+        /**
+         * Lateness percentile, in ms, at bucket resolution.
+         */
+        float percentile(float percentile) {
+            if (mSamples == 0) {
+                return 0.0f;
+            }
+            long target = (long) Math.ceil(mSamples * percentile / 100.0f);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets[i];
+                if (seen >= target) {
+                    return (float) ((i + 1) * BUCKET_NS) / NANOS_PER_MS;
+                }
+            }
+            return (float) mMax / NANOS_PER_MS;
+        }
+
+        String summary() {
+            return "late p50=" + percentile(50)
+                    + "ms p90=" + percentile(90)
+                    + "ms p99=" + percentile(99)
+                    + "ms max=" + ((float) mMax / NANOS_PER_MS) + "ms";
+        }
+    }
+
+    /**
+     * @param profile the rate profile to follow, or null to use the
+     *            throttle carried by each throttle event
+     */
+    public MonkeyScheduler(MonkeyRateProfile profile) {
+        mProfile = profile;
+    }
+
+    /**
+     * Wait for the next action slot.
+     *
+     * @param throttle the requested delay in ms, used when there is no
+     *            rate profile
+     * @return false if the wait was interrupted
+     */
+    public boolean waitForNextSlot(long throttle) {
+        long now = System.nanoTime();
+        start(now);
+        if (mFirstSlot < 0) {
+            mFirstSlot = now;
+        }
+
+        long interval = (mProfile != null)
+                ? mProfile.nextInterval(now - mStartTime) : throttle * NANOS_PER_MS;
+        mNextDeadline += interval;
+        mRequestedTime += interval;
+        mSlots++;
+
+        if (now - mNextDeadline > MAX_LAG_NS) {
+            mResyncs++;
+            mNextDeadline = now;
+        }
+        if (!sleepUntil(mNextDeadline)) {
+            return false;
+        }
+        mLastSlotWakeup = System.nanoTime();
+        mSlotLateness.add(mLastSlotWakeup - mNextDeadline);
+        return true;
+    }
+
+    /**
+     * Wait until the given time on the {@link SystemClock#uptimeMillis()}
+     * time base. Used by script playback, whose event times are already
+     * absolute uptime values.
+     *
+     * @param uptime the target time in ms
+     * @return false if the wait was interrupted
+     */
+    public boolean waitUntilUptime(long uptime) {
+        long now = System.nanoTime();
+        start(now);
+        long deadline = now + (uptime - SystemClock.uptimeMillis()) * NANOS_PER_MS;
+        mScriptWaits++;
+        if (!sleepUntil(deadline)) {
+            return false;
+        }
+        long wakeup = System.nanoTime();
+        mScriptLateness.add(wakeup - deadline);
+        if (mFirstSlot >= 0) {
+            mScriptWaitTime += wakeup - now;
+        }
+        // the throttle after this event counts from it
+        mNextDeadline = deadline;
+        return true;
+    }
+
+    private void start(long now) {
+        if (mStartTime < 0) {
+            mStartTime = now;
+            mNextDeadline = now;
+        }
+    }
+
+    private boolean sleepUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                Thread.sleep(remaining / NANOS_PER_MS, (int) (remaining % NANOS_PER_MS));
+            } catch (InterruptedException e) {
+                System.out.println("** Monkey interrupted in sleep.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Print the requested and achieved rates and the lateness percentiles,
+     * of the throttle slots and of the script waits apart.
+     */
+    public void dump() {
+        float requested = 0.0f;
+        float achieved = 0.0f;
+        if (mRequestedTime > 0) {
+            requested = mSlots * 1000.0f / ((float) mRequestedTime / NANOS_PER_MS);
+        }
+        long slotTime = mLastSlotWakeup - mFirstSlot - mScriptWaitTime;
+        if (mSlots > 0 && slotTime > 0) {
+            achieved = mSlots * 1000.0f / ((float) slotTime / NANOS_PER_MS);
+        }
+        System.out.println(":Throttle: actions=" + mSlots + " requested=" + requested
+                + "/s achieved=" + achieved + "/s resyncs=" + mResyncs);
+        System.out.println(":Throttle: " + mSlotLateness.summary());
+        if (mScriptWaits > 0) {
+            System.out.println(":Throttle: script waits=" + mScriptWaits + " "
+                    + mScriptLateness.summary());
+        }
+    }
+}
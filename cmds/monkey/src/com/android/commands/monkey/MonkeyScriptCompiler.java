@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compiles a text script (see {@link MonkeySourceScript}) into the compact
+ * binary form played back by {@link MonkeySourceBinaryScript}.
+ * <p>
+ * Layout, with all integers as unsigned LEB128 varints unless noted:
+ *
+ * <pre>
+ * magic "MKYB", version byte, speed (8 byte double), event count
+ * constant count, constants...
+ * record count, records...
+ * </pre>
+ *
+ * Events that carry strings (activities, commands, power log tags, ...)
+ * are stored once in the constant table and referenced by index, so they
+ * can be built once at load time. Key and motion records store their
+ * times as zigzag deltas from the previous record; motion coordinates are
+ * stored as zigzag deltas in 1/16 pixel units, and the remaining motion
+ * fields are only written when they change.
+ */
+public class MonkeyScriptCompiler {
+    static final byte[] MAGIC = { 'M', 'K', 'Y', 'B' };
+    static final int VERSION = 1;
+
+    /** Fixed point scale used for coordinates. */
+    static final float COORDINATE_SCALE = 16.0f;
+
+    // record opcodes
+    static final int OP_KEY = 1;
+    static final int OP_POINTER = 2;
+    static final int OP_TRACKBALL = 3;
+    static final int OP_TAP = 4;
+    static final int OP_KEYPRESS = 5;
+    static final int OP_LONGPRESS = 6;
+    static final int OP_PROFILE_WAIT = 7;
+    static final int OP_DEVICE_WAKEUP = 8;
+    static final int OP_CONSTANT = 9;
+
+    // constant kinds
+    static final int CONST_FLIP = 1;
+    static final int CONST_ACTIVITY = 2;
+    static final int CONST_INSTRUMENTATION = 3;
+    static final int CONST_WAIT = 4;
+    static final int CONST_POWERLOG = 5;
+    static final int CONST_WRITEPOWERLOG = 6;
+    static final int CONST_RUNCMD = 7;
+
+    // bits marking which of the rarely changing motion fields follow
+    static final int MOTION_PRESSURE = 1 << 0;
+    static final int MOTION_SIZE = 1 << 1;
+    static final int MOTION_META = 1 << 2;
+    static final int MOTION_X_PRECISION = 1 << 3;
+    static final int MOTION_Y_PRECISION = 1 << 4;
+    static final int MOTION_DEVICE = 1 << 5;
+    static final int MOTION_EDGE_FLAGS = 1 << 6;
+
+    private double mSpeed = 1.0;
+    private int mEventCountInScript = 0;
+
+    private final ByteArrayOutputStream mRecords = new ByteArrayOutputStream();
+    private int mRecordCount = 0;
+
+    private final ArrayList<byte[]> mConstants = new ArrayList<byte[]>();
+    private final HashMap<String, Integer> mConstantIndex = new HashMap<String, Integer>();
+
+    // delta state, mirrored by the decoder
+    private final MotionState mMotion = new MotionState();
+    private long mLastKeyDownTime = 0;
+    private long mLastEventTime = 0;
+
+    /**
+     * Values carried from one motion record to the next.
+     */
+    static class MotionState {
+        long downTime = 0;
+        int x = 0;
+        int y = 0;
+        float pressure = 0;
+        float size = 0;
+        int metaState = 0;
+        float xPrecision = 0;
+        float yPrecision = 0;
+        int deviceId = 0;
+        int edgeFlags = 0;
+
+        void reset() {
+            downTime = 0;
+            x = 0;
+            y = 0;
+            pressure = 0;
+            size = 0;
+            metaState = 0;
+            xPrecision = 0;
+            yPrecision = 0;
+            deviceId = 0;
+            edgeFlags = 0;
+        }
+    }
+
+    /**
+     * Compile a text script into a binary one.
+     *
+     * @param inName the text script
+     * @param outName the file to write
+     * @return true if the script was compiled
+     */
+    public static boolean compile(String inName, String outName) {
+        MonkeyScriptCompiler compiler = new MonkeyScriptCompiler();
+        BufferedReader reader = null;
+        FileOutputStream out = null;
+        try {
+            reader = new BufferedReader(new FileReader(inName));
+            if (!compiler.readHeader(reader)) {
+                System.err.println("** Error: " + inName + " has no valid script header");
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                compiler.processLine(line.trim());
+            }
+            out = new FileOutputStream(outName);
+            compiler.write(out);
+            System.out.println("// Compiled " + compiler.mRecordCount + " records, "
+                    + compiler.mConstants.size() + " constants into " + outName);
+            return true;
+        } catch (IOException e) {
+            System.err.println("** Error compiling script: " + e);
+            return false;
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    private boolean readHeader(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            try {
+                if (line.indexOf(MonkeySourceScript.HEADER_COUNT) >= 0) {
+                    String value = line.substring(
+                            MonkeySourceScript.HEADER_COUNT.length() + 1).trim();
+                    mEventCountInScript = Integer.parseInt(value);
+                } else if (line.indexOf(MonkeySourceScript.HEADER_SPEED) >= 0) {
+                    String value = line.substring(
+                            MonkeySourceScript.HEADER_SPEED.length() + 1).trim();
+                    mSpeed = Double.parseDouble(value);
+                } else if (line.indexOf(MonkeySourceScript.STARTING_DATA_LINE) >= 0) {
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+                System.err.println(e);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void processLine(String line) {
+        int index1 = line.indexOf('(');
+        int index2 = line.indexOf(')');
+
+        if (index1 < 0 || index2 < 0) {
+            return;
+        }
+
+        String[] args = line.substring(index1 + 1, index2).split(",");
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].trim();
+        }
+
+        try {
+            compileEvent(line, args);
+        } catch (NumberFormatException e) {
+            // same as the text source: lines with bad numbers are skipped
+            System.err.println("// Skipping " + line + ": " + e);
+        }
+    }
+
+    /**
+     * Emit the records for one script line. This mirrors
+     * MonkeySourceScript.handleEvent, including which keywords stop the
+     * matching and which fall through.
+     */
+    private void compileEvent(String s, String[] args) {
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_KEY) >= 0 && args.length == 8) {
+            long downTime = Long.parseLong(args[0]);
+            long eventTime = Long.parseLong(args[1]);
+            int action = Integer.parseInt(args[2]);
+            int code = Integer.parseInt(args[3]);
+            int repeat = Integer.parseInt(args[4]);
+            int metaState = Integer.parseInt(args[5]);
+            int device = Integer.parseInt(args[6]);
+            int scancode = Integer.parseInt(args[7]);
+
+            beginRecord(OP_KEY);
+            writeSigned(downTime - mLastKeyDownTime);
+            writeSigned(eventTime - mLastEventTime);
+            writeSigned(action);
+            writeSigned(code);
+            writeSigned(repeat);
+            writeSigned(metaState);
+            writeSigned(device);
+            writeSigned(scancode);
+            mLastKeyDownTime = downTime;
+            mLastEventTime = eventTime;
+            return;
+        }
+
+        if ((s.indexOf(MonkeySourceScript.EVENT_KEYWORD_POINTER) >= 0
+                || s.indexOf(MonkeySourceScript.EVENT_KEYWORD_TRACKBALL) >= 0)
+                && args.length == 12) {
+            long downTime = Long.parseLong(args[0]);
+            long eventTime = Long.parseLong(args[1]);
+            int action = Integer.parseInt(args[2]);
+            int x = quantize(Float.parseFloat(args[3]));
+            int y = quantize(Float.parseFloat(args[4]));
+            float pressure = Float.parseFloat(args[5]);
+            float size = Float.parseFloat(args[6]);
+            int metaState = Integer.parseInt(args[7]);
+            float xPrecision = Float.parseFloat(args[8]);
+            float yPrecision = Float.parseFloat(args[9]);
+            int device = Integer.parseInt(args[10]);
+            int edgeFlags = Integer.parseInt(args[11]);
+
+            MotionState m = mMotion;
+            int changed = 0;
+            if (Float.floatToIntBits(pressure) != Float.floatToIntBits(m.pressure)) {
+                changed |= MOTION_PRESSURE;
+            }
+            if (Float.floatToIntBits(size) != Float.floatToIntBits(m.size)) {
+                changed |= MOTION_SIZE;
+            }
+            if (metaState != m.metaState) {
+                changed |= MOTION_META;
+            }
+            if (Float.floatToIntBits(xPrecision) != Float.floatToIntBits(m.xPrecision)) {
+                changed |= MOTION_X_PRECISION;
+            }
+            if (Float.floatToIntBits(yPrecision) != Float.floatToIntBits(m.yPrecision)) {
+                changed |= MOTION_Y_PRECISION;
+            }
+            if (device != m.deviceId) {
+                changed |= MOTION_DEVICE;
+            }
+            if (edgeFlags != m.edgeFlags) {
+                changed |= MOTION_EDGE_FLAGS;
+            }
+
+            beginRecord(s.indexOf("Pointer") > 0 ? OP_POINTER : OP_TRACKBALL);
+            writeUnsigned(changed);
+            writeSigned(downTime - m.downTime);
+            writeSigned(eventTime - mLastEventTime);
+            writeSigned(action);
+            writeSigned(x - m.x);
+            writeSigned(y - m.y);
+            if ((changed & MOTION_PRESSURE) != 0) {
+                writeUnsigned(Float.floatToIntBits(pressure) & 0xffffffffL);
+            }
+            if ((changed & MOTION_SIZE) != 0) {
+                writeUnsigned(Float.floatToIntBits(size) & 0xffffffffL);
+            }
+            if ((changed & MOTION_META) != 0) {
+                writeSigned(metaState);
+            }
+            if ((changed & MOTION_X_PRECISION) != 0) {
+                writeUnsigned(Float.floatToIntBits(xPrecision) & 0xffffffffL);
+            }
+            if ((changed & MOTION_Y_PRECISION) != 0) {
+                writeUnsigned(Float.floatToIntBits(yPrecision) & 0xffffffffL);
+            }
+            if ((changed & MOTION_DEVICE) != 0) {
+                writeSigned(device);
+            }
+            if ((changed & MOTION_EDGE_FLAGS) != 0) {
+                writeSigned(edgeFlags);
+            }
+
+            m.downTime = downTime;
+            m.x = x;
+            m.y = y;
+            m.pressure = pressure;
+            m.size = size;
+            m.metaState = metaState;
+            m.xPrecision = xPrecision;
+            m.yPrecision = yPrecision;
+            m.deviceId = device;
+            m.edgeFlags = edgeFlags;
+            mLastEventTime = eventTime;
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_TAP) >= 0 && args.length == 2) {
+            int x = quantize(Float.parseFloat(args[0]));
+            int y = quantize(Float.parseFloat(args[1]));
+            beginRecord(OP_TAP);
+            writeSigned(x);
+            writeSigned(y);
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_FLIP) >= 0 && args.length == 1) {
+            boolean keyboardOpen = Boolean.parseBoolean(args[0]);
+            writeConstant(CONST_FLIP, new String[] { keyboardOpen ? "1" : "0" });
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_ACTIVITY) >= 0 && args.length >= 2) {
+            String alarmTime = "0";
+            if (args.length > 2) {
+                alarmTime = Long.toString(Long.parseLong(args[2]));
+            }
+            writeConstant(CONST_ACTIVITY, new String[] { args[0], args[1], alarmTime });
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_DEVICE_WAKEUP) >= 0) {
+            beginRecord(OP_DEVICE_WAKEUP);
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_INSTRUMENTATION) >= 0
+                && args.length == 2) {
+            writeConstant(CONST_INSTRUMENTATION, new String[] { args[0], args[1] });
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_WAIT) >= 0 && args.length == 1) {
+            long sleeptime = Integer.parseInt(args[0]);
+            writeConstant(CONST_WAIT, new String[] { Long.toString(sleeptime) });
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_PROFILE_WAIT) >= 0) {
+            beginRecord(OP_PROFILE_WAIT);
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_KEYPRESS) >= 0 && args.length == 1) {
+            beginRecord(OP_KEYPRESS);
+            writeSigned(MonkeySourceRandom.getKeyCode(args[0]));
+            return;
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_LONGPRESS) >= 0) {
+            beginRecord(OP_LONGPRESS);
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_POWERLOG) >= 0 && args.length > 0) {
+            if (args.length == 1) {
+                writeConstant(CONST_POWERLOG, new String[] { args[0] });
+            } else if (args.length == 2) {
+                writeConstant(CONST_POWERLOG, new String[] { args[0], args[1] });
+            }
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_WRITEPOWERLOG) >= 0) {
+            writeConstant(CONST_WRITEPOWERLOG, new String[0]);
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_RUNCMD) >= 0 && args.length == 1) {
+            writeConstant(CONST_RUNCMD, new String[] { args[0] });
+        }
+
+        if (s.indexOf(MonkeySourceScript.EVENT_KEYWORD_INPUT_STRING) >= 0 && args.length == 1) {
+            writeConstant(CONST_RUNCMD, new String[] { "input text " + args[0] });
+            return;
+        }
+    }
+
+    private static int quantize(float coordinate) {
+        return Math.round(coordinate * COORDINATE_SCALE);
+    }
+
+    private void beginRecord(int op) {
+        mRecords.write(op);
+        mRecordCount++;
+    }
+
+    /**
+     * Emit a reference to a constant event, adding it to the table if this
+     * is the first time it is seen.
+     */
+    private void writeConstant(int kind, String[] args) {
+        StringBuilder key = new StringBuilder();
+        key.append(kind);
+        for (String arg : args) {
+            key.append('\0').append(arg);
+        }
+        Integer index = mConstantIndex.get(key.toString());
+        if (index == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(kind);
+            writeUnsigned(out, args.length);
+            for (String arg : args) {
+                byte[] bytes = utf8(arg);
+                writeUnsigned(out, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+            index = mConstants.size();
+            mConstants.add(out.toByteArray());
+            mConstantIndex.put(key.toString(), index);
+        }
+        beginRecord(OP_CONSTANT);
+        writeUnsigned(index);
+    }
+
+    private void write(FileOutputStream out) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(MAGIC, 0, MAGIC.length);
+        header.write(VERSION);
+        long speed = Double.doubleToLongBits(mSpeed);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            header.write((int) (speed >>> shift));
+        }
+        writeUnsigned(header, mEventCountInScript);
+        writeUnsigned(header, mConstants.size());
+        for (byte[] constant : mConstants) {
+            header.write(constant, 0, constant.length);
+        }
+        writeUnsigned(header, mRecordCount);
+        header.writeTo(out);
+        mRecords.writeTo(out);
+    }
+
+    private void writeUnsigned(long value) {
+        writeUnsigned(mRecords, value);
+    }
+
+    private void writeSigned(long value) {
+        writeUnsigned(mRecords, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeUnsigned(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.content.ComponentName;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+
+/**
+ * Writes the events of a run out as a script that {@link MonkeySourceScript}
+ * can play back, so a crash found by the random source can be replayed (and
+ * minimized, see monkey_minimize.py) without the seed.
+ * <p>
+ * Events are stamped with the uptime at which they were injected. Throttle
+ * events are not written; on playback the script source sleeps for the
+ * recorded gap between events instead, which covers the throttle and any
+ * time spent launching activities.
+ * <p>
+ * A replay needs every line, so unlike the run logs nothing is ever
+ * dropped: lines go into a buffered writer of the recorder's own, flushed
+ * once a second. The header is written out first with a count of 0, so a
+ * run that is killed part way still leaves a script that plays back, short
+ * of at most its last second.
+ */
+public class MonkeyScriptRecorder {
+    // the count is filled in on close, in a fixed width field
+    private static final int COUNT_WIDTH = 10;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private final String mFileName;
+    private final long mCountOffset;
+    private final Writer mOutput;
+    private long mLastFlush;
+    private final StringBuilder mLine = new StringBuilder(128);
+    // lines known to be in the file, and lines still in the buffer
+    private int mCount = 0;
+    private int mUnflushed = 0;
+
+    // down times for events that came without one
+    private long mKeyDownTime = 0;
+    private long mTrackballDownTime = 0;
+
+    /**
+     * @param fileName the script to write
+     * @throws IOException if the file can not be created
+     */
+    public MonkeyScriptRecorder(String fileName) throws IOException {
+        mFileName = fileName;
+        String first = "# recorded by monkey\n" + MonkeySourceScript.HEADER_COUNT + " ";
+        mCountOffset = first.length();
+        mOutput = new BufferedWriter(new FileWriter(fileName));
+        mOutput.write(first + padCount(0) + "\n");
+        mOutput.write(MonkeySourceScript.HEADER_SPEED + " 1.0\n");
+        mOutput.write(MonkeySourceScript.STARTING_DATA_LINE + "\n");
+        mOutput.flush();
+        mLastFlush = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Record an event.  Must be called just before the event is injected,
+     * while it is still valid; see {@link MonkeyEventSource#getNextEvent}.
+     */
+    public void record(MonkeyEvent ev) {
+        long now = SystemClock.uptimeMillis();
+        StringBuilder sb = mLine;
+        sb.setLength(0);
+
+        if (ev instanceof MonkeyKeyEvent) {
+            MonkeyKeyEvent e = (MonkeyKeyEvent) ev;
+            if (e.getAction() == KeyEvent.ACTION_DOWN) {
+                mKeyDownTime = now;
+            }
+            sb.append(MonkeySourceScript.EVENT_KEYWORD_KEY).append('(');
+            sb.append(mKeyDownTime).append(',').append(now).append(',');
+            sb.append(e.getAction()).append(',').append(e.getKeyCode());
+            sb.append(",0,0,0,0)");
+        } else if (ev instanceof MonkeyMotionEvent) {
+            MonkeyMotionEvent e = (MonkeyMotionEvent) ev;
+            long downTime = e.getDownTime();
+            if (e.getEventType() == MonkeyEvent.EVENT_TYPE_TRACKBALL) {
+                sb.append(MonkeySourceScript.EVENT_KEYWORD_TRACKBALL);
+                if (e.getAction() == MotionEvent.ACTION_DOWN) {
+                    mTrackballDownTime = now;
+                }
+                if (downTime < 0) {
+                    downTime = mTrackballDownTime;
+                }
+            } else {
+                sb.append(MonkeySourceScript.EVENT_KEYWORD_POINTER);
+            }
+            if (downTime < 0) {
+                downTime = now;
+            }
+            sb.append('(').append(downTime).append(',').append(now).append(',');
+            sb.append(e.getAction()).append(',');
+            sb.append(e.getX()).append(',').append(e.getY());
+            // pressure, size, metaState, xPrecision, yPrecision, device, edgeFlags
+            sb.append(",1.0,1.0,0,1.0,1.0,0,0)");
+        } else if (ev instanceof MonkeyActivityEvent) {
+            ComponentName app = ((MonkeyActivityEvent) ev).getComponent();
+            sb.append(MonkeySourceScript.EVENT_KEYWORD_ACTIVITY).append('(');
+            sb.append(app.getPackageName()).append(',').append(app.getClassName()).append(')');
+        } else if (ev instanceof MonkeyFlipEvent) {
+            sb.append(MonkeySourceScript.EVENT_KEYWORD_FLIP).append('(');
+            sb.append(((MonkeyFlipEvent) ev).isKeyboardOpen()).append(')');
+        } else {
+            // throttles are replaced by the recorded event times
+            return;
+        }
+        sb.append('\n');
+
+        try {
+            mOutput.append(sb);
+            mUnflushed++;
+            if (now - mLastFlush >= FLUSH_INTERVAL_MS) {
+                mLastFlush = now;
+                mOutput.flush();
+                mCount += mUnflushed;
+                mUnflushed = 0;
+            }
+        } catch (IOException e) {
+            // what was in the buffer is lost; count only what made it out
+            mUnflushed = 0;
+            System.err.println("** Error recording script: " + e);
+        }
+    }
+
+    /**
+     * Write out the rest of the script and fill in the event count.
+     */
+    public void close() {
+        try {
+            mOutput.close();
+            mCount += mUnflushed;
+            mUnflushed = 0;
+            RandomAccessFile file = new RandomAccessFile(mFileName, "rw");
+            try {
+                file.seek(mCountOffset);
+                file.writeBytes(padCount(mCount));
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            System.err.println("** Error recording script: " + e);
+        }
+        System.out.println(":Recorded: " + mCount + " events");
+    }
+
+    private static String padCount(int count) {
+        StringBuilder sb = new StringBuilder(COUNT_WIDTH);
+        sb.append(count);
+        while (sb.length() < COUNT_WIDTH) {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.os.SystemClock;
+
+/**
+ * Time-shifts recorded script events onto the current clock, and waits
+ * between them so that playback follows the recorded timing. Shared by the
+ * text and compiled script sources.
+ */
+public class MonkeyScriptTiming {
+    // a parameter that compensates the difference of real elapsed time and
+    // time in theory
+    private static final long SLEEP_COMPENSATE_DIFF = 16;
+
+    private double mSpeed = 1.0;
+
+    private long mLastRecordedDownTimeKey = 0;
+
+    private long mLastRecordedDownTimeMotion = 0;
+
+    private long mLastExportDownTimeKey = 0;
+
+    private long mLastExportDownTimeMotion = 0;
+
+    private long mLastExportEventTime = -1;
+
+    private long mLastRecordedEventTime = -1;
+
+    // paces playback against absolute deadlines, if set
+    private MonkeyScheduler mScheduler;
+
+    /**
+     * Resets the globals used to timeshift events.
+     *
+     * @param speed the playback speed factor from the script header
+     */
+    void reset(double speed) {
+        mSpeed = speed;
+        mLastRecordedDownTimeKey = 0;
+        mLastRecordedDownTimeMotion = 0;
+        mLastRecordedEventTime = -1;
+        mLastExportDownTimeKey = 0;
+        mLastExportDownTimeMotion = 0;
+        mLastExportEventTime = -1;
+    }
+
+    /**
+     * Pace playback with the given scheduler. Each event is then injected
+     * at its absolute (time-shifted) event time rather than after a relative
+     * sleep, so injection overhead does not accumulate over the script.
+     *
+     * @param scheduler the scheduler, or null for relative sleeps
+     */
+    void setScheduler(MonkeyScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Sleep for a period of given time. Used to introduce latency between
+     * events.
+     *
+     * @param time The amount of time to sleep in ms
+     */
+    private void needSleep(long time) {
+        if (time < 1) {
+            return;
+        }
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * Wait until it is time to inject an event.
+     *
+     * @param eventTime the exported (uptime based) time of the event
+     * @param expectedDelay the recorded delay since the previous event
+     */
+    private void waitForEventTime(long eventTime, long expectedDelay) {
+        if (mScheduler != null) {
+            mScheduler.waitUntilUptime(eventTime);
+        } else {
+            needSleep(expectedDelay - SLEEP_COMPENSATE_DIFF);
+        }
+    }
+
+    /**
+     * Adjust key downtime and eventtime according to both recorded values and
+     * current system time.
+     *
+     * @param e A KeyEvent
+     */
+    void adjustKeyEventTime(MonkeyKeyEvent e) {
+        if (e.getEventTime() < 0) {
+            return;
+        }
+        long thisDownTime = 0;
+        long thisEventTime = 0;
+        long expectedDelay = 0;
+
+        if (mLastRecordedEventTime <= 0) {
+            // first time event
+            thisDownTime = SystemClock.uptimeMillis();
+            thisEventTime = thisDownTime;
+        } else {
+            if (e.getDownTime() != mLastRecordedDownTimeKey) {
+                thisDownTime = e.getDownTime();
+            } else {
+                thisDownTime = mLastExportDownTimeKey;
+            }
+            expectedDelay = (long) ((e.getEventTime() - mLastRecordedEventTime) * mSpeed);
+            thisEventTime = mLastExportEventTime + expectedDelay;
+            // add sleep to simulate everything in recording
+            waitForEventTime(thisEventTime, expectedDelay);
+        }
+        mLastRecordedDownTimeKey = e.getDownTime();
+        mLastRecordedEventTime = e.getEventTime();
+        e.setDownTime(thisDownTime);
+        e.setEventTime(thisEventTime);
+        mLastExportDownTimeKey = thisDownTime;
+        mLastExportEventTime = thisEventTime;
+    }
+
+    /**
+     * Adjust motion downtime and eventtime according to both recorded values
+     * and current system time.
+     *
+     * @param e A KeyEvent
+     */
+    void adjustMotionEventTime(MonkeyMotionEvent e) {
+        if (e.getEventTime() < 0) {
+            return;
+        }
+        long thisDownTime = 0;
+        long thisEventTime = 0;
+        long expectedDelay = 0;
+
+        if (mLastRecordedEventTime <= 0) {
+            // first time event
+            thisDownTime = SystemClock.uptimeMillis();
+            thisEventTime = thisDownTime;
+        } else {
+            if (e.getDownTime() != mLastRecordedDownTimeMotion) {
+                thisDownTime = e.getDownTime();
+            } else {
+                thisDownTime = mLastExportDownTimeMotion;
+            }
+            expectedDelay = (long) ((e.getEventTime() - mLastRecordedEventTime) * mSpeed);
+            thisEventTime = mLastExportEventTime + expectedDelay;
+            // add sleep to simulate everything in recording
+            waitForEventTime(thisEventTime, expectedDelay);
+        }
+
+        mLastRecordedDownTimeMotion = e.getDownTime();
+        mLastRecordedEventTime = e.getEventTime();
+        e.setDownTime(thisDownTime);
+        e.setEventTime(thisEventTime);
+        mLastExportDownTimeMotion = thisDownTime;
+        mLastExportEventTime = thisEventTime;
+    }
+
+    /**
+     * Time-shift an event just before it is handed out, if it carries
+     * recorded times.
+     *
+     * @param ev the event
+     */
+    void adjustEventTime(MonkeyEvent ev) {
+        if (ev.getEventType() == MonkeyEvent.EVENT_TYPE_KEY) {
+            adjustKeyEventTime((MonkeyKeyEvent) ev);
+        } else if (ev.getEventType() == MonkeyEvent.EVENT_TYPE_POINTER
+                || ev.getEventType() == MonkeyEvent.EVENT_TYPE_TRACKBALL) {
+            adjustMotionEventTime((MonkeyMotionEvent) ev);
+        }
+    }
+}
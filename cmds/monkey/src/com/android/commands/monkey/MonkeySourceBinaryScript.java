@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.content.ComponentName;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Plays back a script compiled by {@link MonkeyScriptCompiler}.
+ * <p>
+ * The file is memory-mapped and decoded one record at a time into pooled
+ * events, so playback does no parsing and, once the constant table has been
+ * built in {@link #validate()}, no allocation. Like the text source, it
+ * returns null once at the end of the script and then starts over; starting
+ * over only rewinds the buffer.
+ */
+public class MonkeySourceBinaryScript implements MonkeyEventSource {
+    private static final String DEVICE_WAKEUP_PACKAGE = "com.google.android.powerutil";
+    private static final String DEVICE_WAKEUP_CLASS =
+            "com.google.android.powerutil.WakeUpScreen";
+
+    private final String mScriptFileName;
+    private final MonkeyEventQueue mQ;
+    private final MonkeyScriptTiming mTiming = new MonkeyScriptTiming();
+    private final long mProfileWaitTime;
+    private final long mDeviceSleepTime;
+    private int mVerbose = 0;
+
+    private ByteBuffer mBuffer;
+    private double mSpeed = 1.0;
+    private int mEventCountInScript = 0;
+    private int mRecordCount = 0;
+    private int mRecordsStart = 0;
+    private int mRecordsRead = 0;
+
+    // events built once at load time
+    private MonkeyEvent[] mConstants;
+    private MonkeyWaitEvent mProfileWaitEvent;
+    private MonkeyWaitEvent mLongPressWaitEvent;
+    private MonkeyActivityEvent mWakeUpEvent;
+    private MonkeyWaitEvent mWakeUpWaitEvent;
+
+    // delta state, mirrors the compiler
+    private final MonkeyScriptCompiler.MotionState mMotion =
+            new MonkeyScriptCompiler.MotionState();
+    private long mLastKeyDownTime = 0;
+    private long mLastEventTime = 0;
+
+    /**
+     * Creates a MonkeySourceBinaryScript instance.
+     *
+     * @param filename The filename of the compiled script (on the device).
+     * @param throttle The amount of time in ms to sleep between events.
+     */
+    public MonkeySourceBinaryScript(Random random, String filename, long throttle,
+            boolean randomizeThrottle, long profileWaitTime, long deviceSleepTime) {
+        mScriptFileName = filename;
+        mQ = new MonkeyEventQueue(random, throttle, randomizeThrottle);
+        mProfileWaitTime = profileWaitTime;
+        mDeviceSleepTime = deviceSleepTime;
+    }
+
+    /**
+     * Check whether a file is a compiled script.
+     *
+     * @param filename the file to check
+     * @return true if the file starts with the compiled script magic
+     */
+    public static boolean isCompiledScript(String filename) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(filename);
+            byte[] magic = new byte[MonkeyScriptCompiler.MAGIC.length];
+            if (in.read(magic) != magic.length) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != MonkeyScriptCompiler.MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Pace playback with the given scheduler.
+     *
+     * @param scheduler the scheduler, or null for relative sleeps
+     * @see MonkeySourceScript#setScheduler(MonkeyScheduler)
+     */
+    public void setScheduler(MonkeyScheduler scheduler) {
+        mTiming.setScheduler(scheduler);
+    }
+
+    public void setVerbose(int verbose) {
+        mVerbose = verbose;
+    }
+
+    /**
+     * Maps the file and reads the header and constant table.
+     *
+     * @return True if the file exists and is a valid compiled script.
+     */
+    public boolean validate() {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mScriptFileName);
+            FileChannel channel = in.getChannel();
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            System.err.println("** Error mapping " + mScriptFileName + ": " + e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        try {
+            if (!readHeader()) {
+                System.err.println("** Error: " + mScriptFileName + " is not a compiled script");
+                return false;
+            }
+        } catch (BufferUnderflowException e) {
+            System.err.println("** Error: " + mScriptFileName + " is truncated");
+            return false;
+        }
+
+        mProfileWaitEvent = new MonkeyWaitEvent(mProfileWaitTime);
+        mLongPressWaitEvent = new MonkeyWaitEvent(MonkeySourceScript.LONGPRESS_WAIT_TIME);
+        mWakeUpEvent = new MonkeyActivityEvent(
+                new ComponentName(DEVICE_WAKEUP_PACKAGE, DEVICE_WAKEUP_CLASS), mDeviceSleepTime);
+        mWakeUpWaitEvent = new MonkeyWaitEvent(mDeviceSleepTime + 3000);
+
+        rewind();
+
+        if (mVerbose > 0) {
+            System.out.println("Replaying " + mEventCountInScript + " events with speed " + mSpeed
+                    + " (" + mRecordCount + " compiled records)");
+        }
+        return true;
+    }
+
+    private boolean readHeader() {
+        for (int i = 0; i < MonkeyScriptCompiler.MAGIC.length; i++) {
+            if (mBuffer.get() != MonkeyScriptCompiler.MAGIC[i]) {
+                return false;
+            }
+        }
+        int version = mBuffer.get();
+        if (version != MonkeyScriptCompiler.VERSION) {
+            System.err.println("** Error: unsupported compiled script version " + version);
+            return false;
+        }
+        mSpeed = mBuffer.getDouble();
+        mEventCountInScript = (int) readUnsigned();
+
+        int constantCount = (int) readUnsigned();
+        mConstants = new MonkeyEvent[constantCount];
+        for (int i = 0; i < constantCount; i++) {
+            mConstants[i] = readConstant();
+            if (mConstants[i] == null) {
+                return false;
+            }
+        }
+
+        mRecordCount = (int) readUnsigned();
+        mRecordsStart = mBuffer.position();
+        return true;
+    }
+
+    private MonkeyEvent readConstant() {
+        int kind = mBuffer.get();
+        String[] args = new String[(int) readUnsigned()];
+        for (int i = 0; i < args.length; i++) {
+            byte[] bytes = new byte[(int) readUnsigned()];
+            mBuffer.get(bytes);
+            try {
+                args[i] = new String(bytes, "UTF-8");
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        switch (kind) {
+            case MonkeyScriptCompiler.CONST_FLIP:
+                return new MonkeyFlipEvent("1".equals(args[0]));
+            case MonkeyScriptCompiler.CONST_ACTIVITY: {
+                ComponentName app = new ComponentName(args[0], args[1]);
+                long alarmTime = Long.parseLong(args[2]);
+                if (alarmTime == 0) {
+                    return new MonkeyActivityEvent(app);
+                }
+                return new MonkeyActivityEvent(app, alarmTime);
+            }
+            case MonkeyScriptCompiler.CONST_INSTRUMENTATION:
+                return new MonkeyInstrumentationEvent(args[0], args[1]);
+            case MonkeyScriptCompiler.CONST_WAIT:
+                return new MonkeyWaitEvent(Long.parseLong(args[0]));
+            case MonkeyScriptCompiler.CONST_POWERLOG:
+                if (args.length == 1) {
+                    return new MonkeyPowerEvent(args[0]);
+                }
+                return new MonkeyPowerEvent(args[0], args[1]);
+            case MonkeyScriptCompiler.CONST_WRITEPOWERLOG:
+                return new MonkeyPowerEvent();
+            case MonkeyScriptCompiler.CONST_RUNCMD:
+                return new MonkeyCommandEvent(args[0]);
+            default:
+                System.err.println("** Error: unknown constant kind " + kind);
+                return null;
+        }
+    }
+
+    /**
+     * Go back to the first record and reset the delta and timing state.
+     */
+    private void rewind() {
+        mBuffer.position(mRecordsStart);
+        mRecordsRead = 0;
+        mMotion.reset();
+        mLastKeyDownTime = 0;
+        mLastEventTime = 0;
+        mTiming.reset(mSpeed);
+    }
+
+    /**
+     * Decode the next record into the event queue.
+     *
+     * @return false at the end of the script
+     */
+    private boolean decodeNext() {
+        if (mRecordsRead >= mRecordCount) {
+            return false;
+        }
+        mRecordsRead++;
+
+        int op = mBuffer.get();
+        switch (op) {
+            case MonkeyScriptCompiler.OP_KEY: {
+                long downTime = mLastKeyDownTime + readSigned();
+                long eventTime = mLastEventTime + readSigned();
+                int action = (int) readSigned();
+                int code = (int) readSigned();
+                int repeat = (int) readSigned();
+                int metaState = (int) readSigned();
+                int device = (int) readSigned();
+                int scancode = (int) readSigned();
+                mLastKeyDownTime = downTime;
+                mLastEventTime = eventTime;
+                mQ.addLast(MonkeyKeyEvent.obtain(downTime, eventTime, action, code, repeat,
+                        metaState, device, scancode));
+                break;
+            }
+            case MonkeyScriptCompiler.OP_POINTER:
+            case MonkeyScriptCompiler.OP_TRACKBALL: {
+                MonkeyScriptCompiler.MotionState m = mMotion;
+                int changed = (int) readUnsigned();
+                m.downTime += readSigned();
+                mLastEventTime += readSigned();
+                int action = (int) readSigned();
+                m.x += (int) readSigned();
+                m.y += (int) readSigned();
+                if ((changed & MonkeyScriptCompiler.MOTION_PRESSURE) != 0) {
+                    m.pressure = Float.intBitsToFloat((int) readUnsigned());
+                }
+                if ((changed & MonkeyScriptCompiler.MOTION_SIZE) != 0) {
+                    m.size = Float.intBitsToFloat((int) readUnsigned());
+                }
+                if ((changed & MonkeyScriptCompiler.MOTION_META) != 0) {
+                    m.metaState = (int) readSigned();
+                }
+                if ((changed & MonkeyScriptCompiler.MOTION_X_PRECISION) != 0) {
+                    m.xPrecision = Float.intBitsToFloat((int) readUnsigned());
+                }
+                if ((changed & MonkeyScriptCompiler.MOTION_Y_PRECISION) != 0) {
+                    m.yPrecision = Float.intBitsToFloat((int) readUnsigned());
+                }
+                if ((changed & MonkeyScriptCompiler.MOTION_DEVICE) != 0) {
+                    m.deviceId = (int) readSigned();
+                }
+                if ((changed & MonkeyScriptCompiler.MOTION_EDGE_FLAGS) != 0) {
+                    m.edgeFlags = (int) readSigned();
+                }
+                int type = (op == MonkeyScriptCompiler.OP_POINTER)
+                        ? MonkeyEvent.EVENT_TYPE_POINTER : MonkeyEvent.EVENT_TYPE_TRACKBALL;
+                mQ.addLast(MonkeyMotionEvent.obtain(type, m.downTime, mLastEventTime, action,
+                        m.x / MonkeyScriptCompiler.COORDINATE_SCALE,
+                        m.y / MonkeyScriptCompiler.COORDINATE_SCALE,
+                        m.pressure, m.size, m.metaState, m.xPrecision, m.yPrecision,
+                        m.deviceId, m.edgeFlags));
+                break;
+            }
+            case MonkeyScriptCompiler.OP_TAP: {
+                float x = readSigned() / MonkeyScriptCompiler.COORDINATE_SCALE;
+                float y = readSigned() / MonkeyScriptCompiler.COORDINATE_SCALE;
+                long downTime = SystemClock.uptimeMillis();
+                mQ.addLast(MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER, downTime,
+                        downTime, KeyEvent.ACTION_DOWN, x, y, 1, 5, 0, 1, 1, 0, 0));
+                mQ.addLast(MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER, downTime,
+                        downTime, KeyEvent.ACTION_UP, x, y, 1, 5, 0, 1, 1, 0, 0));
+                break;
+            }
+            case MonkeyScriptCompiler.OP_KEYPRESS: {
+                int keyCode = (int) readSigned();
+                mQ.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, keyCode));
+                mQ.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, keyCode));
+                break;
+            }
+            case MonkeyScriptCompiler.OP_LONGPRESS:
+                mQ.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN,
+                        KeyEvent.KEYCODE_DPAD_CENTER));
+                mQ.addLast(mLongPressWaitEvent);
+                mQ.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP,
+                        KeyEvent.KEYCODE_DPAD_CENTER));
+                break;
+            case MonkeyScriptCompiler.OP_PROFILE_WAIT:
+                mQ.addLast(mProfileWaitEvent);
+                break;
+            case MonkeyScriptCompiler.OP_DEVICE_WAKEUP:
+                mQ.addLast(mWakeUpEvent);
+                mQ.addLast(mWakeUpWaitEvent);
+                break;
+            case MonkeyScriptCompiler.OP_CONSTANT:
+                mQ.addLast(mConstants[(int) readUnsigned()]);
+                break;
+            default:
+                System.err.println("** Error: bad opcode " + op + " in " + mScriptFileName);
+                mRecordsRead = mRecordCount;
+                return false;
+        }
+        return true;
+    }
+
+    private long readUnsigned() {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = mBuffer.get();
+            result |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    private long readSigned() {
+        long value = readUnsigned();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Gets the next event to be injected from the script.
+     *
+     * @return The next event, or null once at the end of the script.
+     */
+    public MonkeyEvent getNextEvent() {
+        if (mQ.isEmpty()) {
+            boolean decoded;
+            try {
+                decoded = decodeNext();
+            } catch (BufferUnderflowException e) {
+                System.err.println("** Error: " + mScriptFileName + " is truncated");
+                decoded = false;
+            }
+            if (!decoded) {
+                rewind();
+                return null;
+            }
+        }
+
+        MonkeyEvent ev = mQ.removeFirst();
+        mTiming.adjustEventTime(ev);
+        return ev;
+    }
+
+    public int getQueueDepth() {
+        return mQ.size();
+    }
+}
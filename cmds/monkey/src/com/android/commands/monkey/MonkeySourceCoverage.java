@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Random event source that steers toward screens it hasn't explored yet.
+ * <p>
+ * The monkey's activity controller reports every activity start and resume
+ * to this source, which keeps a graph of the activities reached (the
+ * states) and the transitions seen between them. Events are generated by
+ * the same families as {@link MonkeySourceRandom}, with its percentages, but
+ * in each state the families that have led to new transitions from there
+ * are favoured and the ones that never do fade out. Once a state stops
+ * yielding anything new the source leaves it, with BACK or by launching the
+ * least explored of the main apps.
+ * <p>
+ * The controller only names the package on a resume, so the activity we
+ * are back in is inferred from the order of earlier starts.
+ */
+public class MonkeySourceCoverage implements MonkeyEventSource {
+    // leave a state after this many actions with no new transition from it
+    private static final int STALE_ACTIONS = 60;
+    // after this many BACKs that didn't get us anywhere, switch apps instead
+    private static final int MAX_BACKS = 2;
+    // how far a family's weight may be scaled, either way, by its record
+    private static final float MIN_BIAS = 0.1f;
+    private static final float MAX_BIAS = 4.0f;
+    private static final int MAX_HISTORY = 32;
+
+    private static final String UNKNOWN_STATE = "(unknown)";
+
+    private static class State {
+        final String mName;
+        int mVisits = 0;
+        int mActions = 0;
+        // actions since the last new transition out of this state
+        int mStaleActions = 0;
+        final HashSet<String> mTransitions = new HashSet<String>();
+        final int[] mTries = new int[MonkeySourceRandom.getFamilyCount()];
+        final int[] mHits = new int[MonkeySourceRandom.getFamilyCount()];
+        MonkeyAliasTable mTable;
+
+        State(String name) {
+            mName = name;
+        }
+    }
+
+    private final MonkeySourceRandom mRandomSource;
+    private final ArrayList<ComponentName> mMainApps;
+    private final Random mRandom;
+    private final MonkeyEventQueue mQ;
+    private int mVerbose = 0;
+
+    private final float[] mFactors = new float[MonkeySourceRandom.getFamilyCount()];
+    private final float[] mWeights = new float[MonkeySourceRandom.getFamilyCount()];
+
+    // activity controller callbacks, drained on the monkey thread
+    private final Object mLock = new Object();
+    private ArrayList<String> mPending = new ArrayList<String>();
+    private ArrayList<String> mDraining = new ArrayList<String>();
+
+    private final HashMap<String, State> mStates = new HashMap<String, State>();
+    private State mCurrent;
+    // recent activities, most recent last, to resolve resumes
+    private final ArrayList<String> mHistory = new ArrayList<String>();
+    private int mTransitionCount = 0;
+    private int mLastFamily = -1;
+    private int mBacks = 0;
+
+    private long mStartTime;
+    private int mEventCount = 0;
+    // event count at which each new state was reached, for the growth curve
+    private final ArrayList<Integer> mGrowth = new ArrayList<Integer>();
+
+    /**
+     * @param randomSource supplies the event families and their percentages;
+     *            its own queue is not used
+     */
+    public MonkeySourceCoverage(MonkeySourceRandom randomSource, Random random,
+            ArrayList<ComponentName> mainApps, long throttle, boolean randomizeThrottle) {
+        mRandomSource = randomSource;
+        mRandom = random;
+        mMainApps = mainApps;
+        mQ = new MonkeyEventQueue(random, throttle, randomizeThrottle);
+        mCurrent = getState(UNKNOWN_STATE);
+    }
+
+    /**
+     * Called by the activity controller, on a binder thread.
+     */
+    public void activityStarting(Intent intent, String pkg) {
+        ComponentName component = intent.getComponent();
+        String name;
+        if (component != null) {
+            name = component.flattenToShortString();
+        } else {
+            name = pkg + "/" + intent.getAction();
+        }
+        synchronized (mLock) {
+            mPending.add(name);
+        }
+    }
+
+    /**
+     * Called by the activity controller, on a binder thread.
+     */
+    public void activityResuming(String pkg) {
+        synchronized (mLock) {
+            // resumes are marked by a bare package name
+            mPending.add(pkg);
+        }
+    }
+
+    public MonkeyEvent getNextEvent() {
+        if (mQ.isEmpty()) {
+            generateEvents();
+        }
+        mEventCount++;
+        MonkeyEvent e = mQ.getFirst();
+        mQ.removeFirst();
+        return e;
+    }
+
+    public int getQueueDepth() {
+        return mQ.size();
+    }
+
+    public void setVerbose(int verbose) {
+        mVerbose = verbose;
+        mRandomSource.setVerbose(verbose);
+    }
+
+    public boolean validate() {
+        if (!mRandomSource.validate()) {
+            return false;
+        }
+        for (int i = 0; i < MonkeySourceRandom.getFamilyCount(); i++) {
+            mFactors[i] = mRandomSource.getFactor(i);
+        }
+        mStartTime = SystemClock.uptimeMillis();
+        return true;
+    }
+
+    /**
+     * Queue the launch of a main app, to start from.
+     */
+    public void generateActivity() {
+        mQ.addLast(new MonkeyActivityEvent(mMainApps.get(mRandom.nextInt(mMainApps.size()))));
+    }
+
+    private void generateEvents() {
+        updateState();
+
+        State state = mCurrent;
+        if (state.mStaleActions >= STALE_ACTIONS) {
+            escape(state);
+            return;
+        }
+
+        if (state.mTable == null) {
+            for (int i = 0; i < MonkeySourceRandom.getFamilyCount(); i++) {
+                // (hits + 1) / (tries + 2) starts at 1/2 and tends to the
+                // family's hit rate in this state
+                float bias = 2.0f * (state.mHits[i] + 1) / (state.mTries[i] + 2);
+                mWeights[i] = mFactors[i] * Math.max(MIN_BIAS, Math.min(MAX_BIAS, bias));
+            }
+            state.mTable = new MonkeyAliasTable(mWeights);
+        }
+        int family = state.mTable.next(mRandom);
+        state.mTries[family]++;
+        state.mActions++;
+        state.mStaleActions++;
+        // a tried family's bias changes, so the table needs rebuilding,
+        // but not after every single action
+        if ((state.mActions & 15) == 0) {
+            state.mTable = null;
+        }
+        mLastFamily = family;
+        mRandomSource.getFamily(family).generateEvents(mRandom, mQ);
+    }
+
+    /**
+     * Get out of a state that has stopped yielding new transitions.
+     */
+    private void escape(State state) {
+        state.mStaleActions = 0;
+        mLastFamily = -1;
+        if (mBacks < MAX_BACKS && mHistory.size() > 1) {
+            mBacks++;
+            mQ.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_BACK));
+            mQ.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_BACK));
+            return;
+        }
+        mBacks = 0;
+
+        // restart from the app we know least about
+        ComponentName target = null;
+        int fewest = Integer.MAX_VALUE;
+        for (ComponentName app : mMainApps) {
+            State entry = mStates.get(app.flattenToShortString());
+            int visits = (entry == null) ? 0 : entry.mVisits + entry.mTransitions.size();
+            if (visits < fewest || (visits == fewest && mRandom.nextBoolean())) {
+                fewest = visits;
+                target = app;
+            }
+        }
+        if (mVerbose > 1) {
+            System.out.println("    // Coverage: leaving " + state.mName + " for " + target);
+        }
+        mQ.addLast(new MonkeyActivityEvent(target));
+    }
+
+    /**
+     * Apply the transitions reported since the last call.
+     */
+    private void updateState() {
+        ArrayList<String> reported;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            reported = mPending;
+            mPending = mDraining;
+            mDraining = reported;
+        }
+        for (int i = 0; i < reported.size(); i++) {
+            String name = reported.get(i);
+            if (name.indexOf('/') < 0) {
+                name = resolveResume(name);
+            } else {
+                addHistory(name);
+            }
+            moveTo(getState(name));
+        }
+        reported.clear();
+    }
+
+    private void moveTo(State next) {
+        State from = mCurrent;
+        if (next == from) {
+            return;
+        }
+        next.mVisits++;
+        mBacks = 0;
+        // the first launch isn't a transition of the app
+        if (from.mName != UNKNOWN_STATE && from.mTransitions.add(next.mName)) {
+            mTransitionCount++;
+            from.mStaleActions = 0;
+            if (mLastFamily >= 0) {
+                from.mHits[mLastFamily]++;
+                from.mTable = null;
+            }
+        }
+        mCurrent = next;
+    }
+
+    private State getState(String name) {
+        State state = mStates.get(name);
+        if (state == null) {
+            state = new State(name);
+            mStates.put(name, state);
+            if (name != UNKNOWN_STATE) {
+                mGrowth.add(mEventCount);
+                if (mVerbose > 0) {
+                    System.out.println(":Coverage: new state " + name + " after " + mEventCount
+                            + " events, " + (mStates.size() - 1) + " states");
+                }
+            }
+        }
+        return state;
+    }
+
+    private void addHistory(String name) {
+        mHistory.add(name);
+        if (mHistory.size() > MAX_HISTORY) {
+            mHistory.remove(0);
+        }
+    }
+
+    /**
+     * Work out which activity of a package has come back to the front.
+     * Coming back to the package we are in means the top activity finished
+     * and we are in the one that started it; otherwise it is the package's
+     * most recent activity.
+     */
+    private String resolveResume(String pkg) {
+        int top = mHistory.size() - 1;
+        if (top >= 1 && inPackage(mHistory.get(top), pkg)
+                && inPackage(mHistory.get(top - 1), pkg)) {
+            mHistory.remove(top);
+            return mHistory.get(top - 1);
+        }
+        for (int i = top; i >= 0; i--) {
+            String name = mHistory.get(i);
+            if (inPackage(name, pkg)) {
+                // bring it back to the top
+                mHistory.remove(i);
+                mHistory.add(name);
+                return name;
+            }
+        }
+        String name = pkg + "/";
+        addHistory(name);
+        return name;
+    }
+
+    private static boolean inPackage(String name, String pkg) {
+        return name.length() > pkg.length() && name.charAt(pkg.length()) == '/'
+                && name.startsWith(pkg);
+    }
+
+    /**
+     * Print the states reached and how coverage grew over the run.
+     */
+    public void dump() {
+        updateState();
+        int states = mStates.size() - 1;
+        long elapsed = SystemClock.uptimeMillis() - mStartTime;
+        System.out.println(":Coverage: states=" + states + " transitions=" + mTransitionCount
+                + " events=" + mEventCount + " ms=" + elapsed);
+        StringBuilder growth = new StringBuilder(":Coverage: growth (events:states)");
+        for (int i = 0; i < mGrowth.size(); i++) {
+            growth.append(' ').append(mGrowth.get(i)).append(':').append(i + 1);
+        }
+        System.out.println(growth.toString());
+        for (State state : mStates.values()) {
+            if (state.mName == UNKNOWN_STATE) {
+                continue;
+            }
+            System.out.println(":Coverage:   " + state.mName + " visits=" + state.mVisits
+                    + " actions=" + state.mActions + " out=" + state.mTransitions.size());
+        }
+    }
+}
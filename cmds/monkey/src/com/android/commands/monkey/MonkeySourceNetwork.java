@@ -272,7 +272,8 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
                     Log.e(TAG, "Not a number: " + sleepStr, e);
                     return EARG;
                 }
-                queue.enqueueEvent(new MonkeyThrottleEvent(sleep));
+                // an explicit sleep, not to be reshaped by a rate profile
+                queue.enqueueEvent(new MonkeyThrottleEvent(sleep, false));
                 return OK;
             }
             return EARG;
@@ -377,12 +378,27 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
         }
     }
 
+    /**
+     * Command to fetch the most recent metrics line.
+     */
+    private static class MetricsCommand implements MonkeyCommand {
+        // metrics
+        public MonkeyCommandReturn translateCommand(List<String> command,
+                                                    CommandQueue queue) {
+            String report = MonkeyMetrics.getLastReport();
+            if (report == null) {
+                return new MonkeyCommandReturn(false, "no metrics");
+            }
+            return new MonkeyCommandReturn(true, report);
+        }
+    }
+
     /**
      * Force the device to wake up.
      *
      * @return true if woken up OK.
      */
-    private static final boolean wake() {
+    static final boolean wake() {
         IPowerManager pm =
                 IPowerManager.Stub.asInterface(ServiceManager.getService(Context.POWER_SERVICE));
         try {
@@ -395,7 +411,7 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
     }
 
     // This maps from command names to command implementations.
-    private static final Map<String, MonkeyCommand> COMMAND_MAP = new HashMap<String, MonkeyCommand>();
+    static final Map<String, MonkeyCommand> COMMAND_MAP = new HashMap<String, MonkeyCommand>();
 
     static {
         // Add in all the commands we support
@@ -410,16 +426,17 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
         COMMAND_MAP.put("type", new TypeCommand());
         COMMAND_MAP.put("listvar", new MonkeySourceNetworkVars.ListVarCommand());
         COMMAND_MAP.put("getvar", new MonkeySourceNetworkVars.GetVarCommand());
+        COMMAND_MAP.put("metrics", new MetricsCommand());
     }
 
     // QUIT command
-    private static final String QUIT = "quit";
+    static final String QUIT = "quit";
     // DONE command
-    private static final String DONE = "done";
+    static final String DONE = "done";
 
     // command response strings
-    private static final String OK_STR = "OK";
-    private static final String ERROR_STR = "ERROR";
+    static final String OK_STR = "OK";
+    static final String ERROR_STR = "ERROR";
 
     public static interface CommandQueue {
         /**
@@ -436,7 +453,7 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
 
     // Queue of Events to be processed.  This allows commands to push
     // multiple events into the queue to be processed.
-    private static class CommandQueueImpl implements CommandQueue{
+    static class CommandQueueImpl implements CommandQueue{
         private final Queue<MonkeyEvent> queuedEvents = new LinkedList<MonkeyEvent>();
 
         public void enqueueEvent(MonkeyEvent e) {
@@ -451,6 +468,13 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
         public MonkeyEvent getNextQueuedEvent() {
             return queuedEvents.poll();
         }
+
+        /**
+         * @returns the number of events still queued.
+         */
+        public int size() {
+            return queuedEvents.size();
+        }
     };
 
     private final CommandQueueImpl commandQueue = new CommandQueueImpl();
@@ -519,7 +543,7 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
      * @param line the line to parse
      * @return the List of elements
      */
-    private static List<String> commandLineSplit(String line) {
+    static List<String> commandLineSplit(String line) {
         ArrayList<String> result = new ArrayList<String>();
         StringTokenizer tok = new StringTokenizer(line);
 
@@ -694,4 +718,8 @@ public class MonkeySourceNetwork implements MonkeyEventSource {
         // we have no pre-conditions to validate
         return true;
     }
+
+    public int getQueueDepth() {
+        return commandQueue.size();
+    }
 }
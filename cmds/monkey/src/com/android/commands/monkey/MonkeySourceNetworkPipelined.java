@@ -0,0 +1,354 @@
+/*
+ * Copyright 2010, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.commands.monkey;
+
+import android.util.Log;
+
+import com.android.commands.monkey.MonkeySourceNetwork.CommandQueueImpl;
+import com.android.commands.monkey.MonkeySourceNetwork.MonkeyCommand;
+import com.android.commands.monkey.MonkeySourceNetwork.MonkeyCommandReturn;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A pipelined variant of {@link MonkeySourceNetwork}.
+ * <p>
+ * The plain network source reads one command, answers it and only then reads
+ * the next, so every command costs a full round trip to the host. Here each
+ * connection has its own reader thread that buffers incoming lines, so a
+ * client can stream commands without waiting for the answers. Responses are
+ * tagged with a per-connection sequence number, counting from 1 for the
+ * first command sent on the connection (comments do not count):
+ *
+ * <pre>
+ * 1 OK
+ * 2 ERROR:Invalid Argument
+ * 3 OK:value
+ * </pre>
+ *
+ * Any number of clients can be connected at once. Their commands are merged
+ * round robin, one command per client per turn, so a fast client cannot
+ * starve the others. Commands are still translated and injected on the
+ * monkey thread; the reader threads only do I/O.
+ */
+public class MonkeySourceNetworkPipelined implements MonkeyEventSource {
+    private static final String TAG = "MonkeyStub";
+
+    // Commands buffered per client before its reader thread blocks.  This
+    // bounds memory and pushes back on a client that outruns the injector.
+    private static final int MAX_PENDING_COMMANDS = 256;
+
+    /**
+     * One connected client.
+     */
+    private class Client implements Runnable {
+        private final Socket mSocket;
+        private final BufferedReader mInput;
+        private final PrintWriter mOutput;
+        private final LinkedList<String> mPending = new LinkedList<String>();
+        private int mSequence = 0;
+        // set by the reader thread when the stream ends
+        private boolean mEof = false;
+        // set before we close the socket under the reader thread
+        private volatile boolean mClosing = false;
+
+        Client(Socket socket) throws IOException {
+            mSocket = socket;
+            mInput = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            // no auto-flush; responses are flushed once the client's
+            // pending commands have been drained
+            mOutput = new PrintWriter(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        public void run() {
+            try {
+                String line;
+                while ((line = mInput.readLine()) != null) {
+                    synchronized (mLock) {
+                        while (mPending.size() >= MAX_PENDING_COMMANDS && !mClosed) {
+                            mLock.wait();
+                        }
+                        if (mClosed) {
+                            return;
+                        }
+                        mPending.add(line);
+                        mLock.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                // closing the socket ends a blocked readLine() this way
+                if (!mClosing) {
+                    Log.e(TAG, "Got IOException from client", e);
+                }
+            } catch (InterruptedException e) {
+                // fall through and treat as end of stream
+            }
+            synchronized (mLock) {
+                mEof = true;
+                mLock.notifyAll();
+            }
+        }
+
+        void respond(MonkeyCommandReturn ret) {
+            mOutput.print(mSequence);
+            mOutput.print(' ');
+            mOutput.print(ret.wasSuccessful()
+                    ? MonkeySourceNetwork.OK_STR : MonkeySourceNetwork.ERROR_STR);
+            if (ret.hasMessage()) {
+                mOutput.print(':');
+                mOutput.print(ret.getMessage());
+            }
+            mOutput.print('\n');
+        }
+
+        void close() {
+            mClosing = true;
+            mOutput.flush();
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Got IOException closing client", e);
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    // guarded by mLock
+    private final ArrayList<Client> mClients = new ArrayList<Client>();
+    private boolean mClosed = false;
+
+    // only touched by the monkey thread
+    private int mNextClient = 0;
+    private final CommandQueueImpl mCommandQueue = new CommandQueueImpl();
+    private boolean mStarted = false;
+
+    private final ServerSocket mServerSocket;
+
+    public MonkeySourceNetworkPipelined(int port) throws IOException {
+        // Only bind this to local host.  This means that you can only
+        // talk to the monkey locally, or though adb port forwarding.
+        mServerSocket = new ServerSocket(port,
+                                         0, // default backlog
+                                         InetAddress.getLocalHost());
+    }
+
+    /**
+     * Accept clients until the source is shut down.
+     */
+    private void startServer() {
+        Thread acceptor = new Thread("monkey-accept") {
+            public void run() {
+                while (true) {
+                    Client client;
+                    try {
+                        client = new Client(mServerSocket.accept());
+                    } catch (IOException e) {
+                        synchronized (mLock) {
+                            if (!mClosed) {
+                                Log.e(TAG, "Got IOException from server", e);
+                            }
+                        }
+                        return;
+                    }
+                    // Wake the device up in preparation for doing some
+                    // commands.
+                    MonkeySourceNetwork.wake();
+                    synchronized (mLock) {
+                        if (mClosed) {
+                            client.close();
+                            return;
+                        }
+                        mClients.add(client);
+                    }
+                    Thread reader = new Thread(client, "monkey-client");
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting clients and disconnect the ones we have.
+     */
+    private void stopServer() {
+        synchronized (mLock) {
+            mClosed = true;
+            for (Client client : mClients) {
+                client.close();
+            }
+            mClients.clear();
+            mLock.notifyAll();
+        }
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Got IOException shutting down!", e);
+        }
+    }
+
+    /**
+     * Wait for the next command, taking clients in turn.  Clients that have
+     * disconnected and have nothing left to run are dropped.
+     *
+     * @param command receives the command line
+     * @return the client that sent it
+     */
+    private Client nextCommand(String[] command) throws InterruptedException {
+        synchronized (mLock) {
+            while (true) {
+                int count = mClients.size();
+                for (int i = 0; i < count; i++) {
+                    int index = (mNextClient + i) % count;
+                    Client client = mClients.get(index);
+                    if (!client.mPending.isEmpty()) {
+                        command[0] = client.mPending.removeFirst();
+                        mNextClient = index + 1;
+                        // the reader may be waiting for room
+                        mLock.notifyAll();
+                        return client;
+                    }
+                    if (client.mEof) {
+                        Log.d(TAG, "Connection dropped.");
+                        client.close();
+                        mClients.remove(index);
+                        // start over, the indices have moved
+                        break;
+                    }
+                }
+                if (count == mClients.size()) {
+                    mLock.wait();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush responses for every client whose pipeline has drained, so the
+     * host sees answers in batches rather than one packet per command.
+     */
+    private void flushIdleClients() {
+        synchronized (mLock) {
+            for (Client client : mClients) {
+                if (client.mPending.isEmpty()) {
+                    client.mOutput.flush();
+                }
+            }
+        }
+    }
+
+    public MonkeyEvent getNextEvent() {
+        if (!mStarted) {
+            startServer();
+            mStarted = true;
+        }
+
+        String[] command = new String[1];
+        try {
+            while (true) {
+                // Events from the last command go out before we look at
+                // the next one, so a client's commands stay in order.
+                MonkeyEvent queuedEvent = mCommandQueue.getNextQueuedEvent();
+                if (queuedEvent != null) {
+                    return queuedEvent;
+                }
+
+                flushIdleClients();
+                Client client = nextCommand(command);
+                String line = command[0];
+
+                // Comments aren't a command, so we don't echo anything
+                // back to the user.
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                client.mSequence++;
+
+                if (MonkeySourceNetwork.DONE.equals(line)) {
+                    synchronized (mLock) {
+                        client.close();
+                        mClients.remove(client);
+                    }
+                    // return a noop event so we keep executing the main loop
+                    return new MonkeyNoopEvent();
+                }
+
+                if (MonkeySourceNetwork.QUIT.equals(line)) {
+                    Log.d(TAG, "Quit requested");
+                    client.respond(MonkeySourceNetwork.OK);
+                    stopServer();
+                    return null;
+                }
+
+                translateCommand(client, line);
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted waiting for commands", e);
+            stopServer();
+            return null;
+        }
+    }
+
+    /**
+     * Translate the given command line into MonkeyEvents and answer the
+     * client.
+     */
+    private void translateCommand(Client client, String commandLine) {
+        List<String> parts = MonkeySourceNetwork.commandLineSplit(commandLine);
+        MonkeyCommandReturn ret = MonkeySourceNetwork.ERROR;
+        if (parts.size() > 0) {
+            MonkeyCommand command = MonkeySourceNetwork.COMMAND_MAP.get(parts.get(0));
+            if (command != null) {
+                ret = command.translateCommand(parts, mCommandQueue);
+            }
+        }
+        // Unlike the unpipelined protocol, an unknown command still gets an
+        // answer, or the client's sequence numbers would drift.
+        client.respond(ret);
+    }
+
+    public void setVerbose(int verbose) {
+        // We're not particualy verbose
+    }
+
+    public boolean validate() {
+        // we have no pre-conditions to validate
+        return true;
+    }
+
+    public int getQueueDepth() {
+        int depth = mCommandQueue.size();
+        synchronized (mLock) {
+            for (Client client : mClients) {
+                depth += client.mPending.size();
+            }
+        }
+        return depth;
+    }
+}
@@ -180,22 +180,36 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         "TAG_LAST_KEYCODE"      // EOL.  used to keep the lists in sync
     };
 
-    public static final int FACTOR_TOUCH        = 0;
-    public static final int FACTOR_MOTION       = 1;
-    public static final int FACTOR_TRACKBALL    = 2;
-    public static final int FACTOR_NAV          = 3;
-    public static final int FACTOR_MAJORNAV     = 4;
-    public static final int FACTOR_SYSOPS       = 5;
-    public static final int FACTOR_APPSWITCH    = 6;
-    public static final int FACTOR_FLIP         = 7;
-    public static final int FACTOR_ANYTHING     = 8;
-    public static final int FACTORZ_COUNT       = 9;    // should be last+1
+    /**
+     * An entry in the list of event families: the name of its --pct- option,
+     * what it generates, its default percentage, and how to make its
+     * generator for a source.
+     */
+    abstract static class FamilyEntry {
+        final String mName;
+        final String mDescription;
+        final float mDefaultFactor;
+
+        FamilyEntry(String name, String description, float defaultFactor) {
+            mName = name;
+            mDescription = description;
+            mDefaultFactor = defaultFactor;
+        }
+
+        abstract MonkeyEventFamily create(MonkeySourceRandom source);
+    }
 
+    /** the families, in the order their factors are kept and picked from */
+    private static final ArrayList<FamilyEntry> sFamilies = new ArrayList<FamilyEntry>();
 
     /** percentages for each type of event.  These will be remapped to working
      * values after we read any optional values.
      **/
-    private float[] mFactors = new float[FACTORZ_COUNT];
+    private float[] mFactors = new float[sFamilies.size()];
+    /** the event family for each factor */
+    private final MonkeyEventFamily[] mFamilies = new MonkeyEventFamily[sFamilies.size()];
+    /** picks a family by factor, built once the factors are final */
+    private MonkeyAliasTable mFamilyTable;
     private ArrayList<ComponentName> mMainApps;
     private int mEventCount = 0;  //total number of events generated so far
     private MonkeyEventQueue mQ;
@@ -237,15 +251,11 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         // default values for random distributions
         // note, these are straight percentages, to match user input (cmd line args)
         // but they will be converted to 0..1 values before the main loop runs.
-        mFactors[FACTOR_TOUCH] = 15.0f;
-        mFactors[FACTOR_MOTION] = 10.0f;
-        mFactors[FACTOR_TRACKBALL] = 15.0f;
-        mFactors[FACTOR_NAV] = 25.0f;
-        mFactors[FACTOR_MAJORNAV] = 15.0f;
-        mFactors[FACTOR_SYSOPS] = 2.0f;
-        mFactors[FACTOR_APPSWITCH] = 2.0f;
-        mFactors[FACTOR_FLIP] = 1.0f;
-        mFactors[FACTOR_ANYTHING] = 15.0f;
+        for (int i = 0; i < mFamilies.length; i++) {
+            FamilyEntry entry = sFamilies.get(i);
+            mFactors[i] = entry.mDefaultFactor;
+            mFamilies[i] = entry.create(this);
+        }
 
         mRandom = random;
         mMainApps = MainApps;
@@ -260,7 +270,7 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         float userSum = 0.0f;
         float defaultSum = 0.0f;
         int defaultCount = 0;
-        for (int i = 0; i < FACTORZ_COUNT; ++i) {
+        for (int i = 0; i < mFactors.length; ++i) {
             if (mFactors[i] <= 0.0f) {   // user values are zero or negative
                 userSum -= mFactors[i];
             } else {
@@ -286,9 +296,9 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         float defaultsAdjustment = defaultsTarget / defaultSum;
 
         // fix all values, by adjusting defaults, or flipping user values back to >0
-        for (int i = 0; i < FACTORZ_COUNT; ++i) {
+        for (int i = 0; i < mFactors.length; ++i) {
             if (mFactors[i] <= 0.0f) {   // user values are zero or negative
-                mFactors[i] = -mFactors[i];
+                mFactors[i] = Math.abs(mFactors[i]);
             } else {
                 mFactors[i] *= defaultsAdjustment;
             }
@@ -297,8 +307,8 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         // if verbose, show factors
         if (mVerbose > 0) {
             System.out.println("// Event percentages:");
-            for (int i = 0; i < FACTORZ_COUNT; ++i) {
-                System.out.println("//   " + i + ": " + mFactors[i] + "%");
+            for (int i = 0; i < mFactors.length; ++i) {
+                System.out.println("//   " + sFamilies.get(i).mName + ": " + mFactors[i] + "%");
             }
         }
 
@@ -306,35 +316,65 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             return false;
         }
 
-        // finally, normalize and convert to running sum
-        float sum = 0.0f;
-        for (int i = 0; i < FACTORZ_COUNT; ++i) {
-            sum += mFactors[i] / 100.0f;
-            mFactors[i] = sum;
-        }
+        // finally, build the table that picks a family for each action
+        mFamilyTable = new MonkeyAliasTable(mFactors);
         return true;
     }
 
-    private static boolean validateKeyCategory(String catName, int[] keys, float factor) {
-        if (factor < 0.1f) {
-            return true;
-        }
-        for (int i = 0; i < keys.length; ++i) {
-            if (PHYSICAL_KEY_EXISTS[keys[i]]) {
-                return true;
+    /**
+     * See if any key exists for non-zero factors.
+     */
+    private boolean validateKeys() {
+        for (int i = 0; i < mFamilies.length; i++) {
+            if (mFactors[i] >= 0.1f && mFamilies[i] instanceof KeyFamily
+                    && !((KeyFamily) mFamilies[i]).hasPhysicalKey()) {
+                System.err.println("** " + sFamilies.get(i).mDescription
+                        + " have no physical keys but with factor " + mFactors[i] + "%.");
+                return false;
             }
         }
-        System.err.println("** " + catName + " has no physical keys but with factor " + factor + "%.");
-        return false;
+        return true;
     }
 
     /**
-     * See if any key exists for non-zero factors.
+     * Add an event family.  Its --pct- option, its default share of the mix
+     * and its place in the alias table all come from the entry.
      */
-    private boolean validateKeys() {
-        return validateKeyCategory("NAV_KEYS", NAV_KEYS, mFactors[FACTOR_NAV])
-            && validateKeyCategory("MAJOR_NAV_KEYS", MAJOR_NAV_KEYS, mFactors[FACTOR_MAJORNAV])
-            && validateKeyCategory("SYS_KEYS", SYS_KEYS, mFactors[FACTOR_SYSOPS]);
+    static void registerFamily(FamilyEntry entry) {
+        sFamilies.add(entry);
+    }
+
+    /**
+     * @return the number of event families, and so of factors
+     */
+    public static int getFamilyCount() {
+        return sFamilies.size();
+    }
+
+    /**
+     * @return the name a family's --pct- option goes by
+     */
+    public static String getFamilyName(int index) {
+        return sFamilies.get(index).mName;
+    }
+
+    /**
+     * @return what a family generates, for messages
+     */
+    public static String getFamilyDescription(int index) {
+        return sFamilies.get(index).mDescription;
+    }
+
+    /**
+     * @return the index of the family with a --pct- name, or -1 if none has it
+     */
+    public static int findFamily(String name) {
+        for (int i = 0; i < sFamilies.size(); i++) {
+            if (sFamilies.get(i).mName.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -343,7 +383,7 @@ public class MonkeySourceRandom implements MonkeyEventSource {
      * @param factors percentages for each type of event
      */
     public void setFactors(float factors[]) {
-        int c = FACTORZ_COUNT;
+        int c = mFactors.length;
         if (factors.length < c) {
             c = factors.length;
         }
@@ -355,22 +395,38 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         mFactors[index] = v;
     }
 
+    /**
+     * @return the generator for a factor, for sources that choose the family
+     *         themselves
+     */
+    MonkeyEventFamily getFamily(int index) {
+        return mFamilies[index];
+    }
+
+    /**
+     * @return the percentage for a factor; final once {@link #validate()}
+     *         has passed
+     */
+    float getFactor(int index) {
+        return mFactors[index];
+    }
+
     /**
      * Generates a random motion event. This method counts a down, move, and up as multiple events.
      *
+     * Long presses and flings have their own families, see {@link LongPressFamily} and
+     * {@link FlingFamily}.
+     *
      * TODO:  Test & fix the selectors when non-zero percentages
-     * TODO:  Longpress.
-     * TODO:  Fling.
      * TODO:  Meta state
-     * TODO:  More useful than the random walk here would be to pick a single random direction
-     * and distance, and divvy it up into a random number of segments.  (This would serve to
-     * generate fling gestures, which are important).
      *
      * @param random Random number source for positioning
+     * @param queue The queue to add the events to
      * @param motionEvent If false, touch/release.  If true, touch/move/release.
      *
      */
-    private void generateMotionEvent(Random random, boolean motionEvent){
+    private void generateMotionEvent(Random random, MonkeyEventQueue queue,
+            boolean motionEvent) {
 
         Display display = WindowManagerImpl.getDefault().getDefaultDisplay();
 
@@ -382,10 +438,10 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             downAt = eventTime;
         }
 
-        MonkeyMotionEvent e = new MonkeyMotionEvent(MonkeyEvent.EVENT_TYPE_POINTER,
+        MonkeyMotionEvent e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
                 downAt, MotionEvent.ACTION_DOWN, x, y, 0);
         e.setIntermediateNote(false);
-        mQ.addLast(e);
+        queue.addLast(e);
 
         // sometimes we'll move during the touch
         if (motionEvent) {
@@ -395,18 +451,18 @@ public class MonkeySourceRandom implements MonkeyEventSource {
                 x = (x + (random.nextInt() % 10)) % display.getWidth();
                 y = (y + (random.nextInt() % 10)) % display.getHeight();
 
-                e = new MonkeyMotionEvent(MonkeyEvent.EVENT_TYPE_POINTER,
+                e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
                         downAt, MotionEvent.ACTION_MOVE, x, y, 0);
                 e.setIntermediateNote(true);
-                mQ.addLast(e);
+                queue.addLast(e);
             }
         }
 
         // TODO generate some slop in the up event
-        e = new MonkeyMotionEvent(MonkeyEvent.EVENT_TYPE_POINTER,
+        e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
                 downAt, MotionEvent.ACTION_UP, x, y, 0);
         e.setIntermediateNote(false);
-        mQ.addLast(e);
+        queue.addLast(e);
     }
 
     /**
@@ -421,9 +477,10 @@ public class MonkeySourceRandom implements MonkeyEventSource {
      * generate fling gestures, which are important).
      *
      * @param random Random number source for positioning
+     * @param queue The queue to add the events to
      *
      */
-    private void generateTrackballEvent(Random random) {
+    private void generateTrackballEvent(Random random, MonkeyEventQueue queue) {
         Display display = WindowManagerImpl.getDefault().getDefaultDisplay();
 
         boolean drop = false;
@@ -435,10 +492,10 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             int dY = random.nextInt(10) - 5;
 
 
-            e = new MonkeyMotionEvent(MonkeyEvent.EVENT_TYPE_TRACKBALL, -1,
+            e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_TRACKBALL, -1,
                     MotionEvent.ACTION_MOVE, dX, dY, 0);
             e.setIntermediateNote(i > 0);
-            mQ.addLast(e);
+            queue.addLast(e);
         }
 
         // 10% of trackball moves end with a click
@@ -446,66 +503,235 @@ public class MonkeySourceRandom implements MonkeyEventSource {
             long downAt = SystemClock.uptimeMillis();
 
 
-            e = new MonkeyMotionEvent(MonkeyEvent.EVENT_TYPE_TRACKBALL, downAt,
+            e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_TRACKBALL, downAt,
                     MotionEvent.ACTION_DOWN, 0, 0, 0);
             e.setIntermediateNote(true);
-            mQ.addLast(e);
+            queue.addLast(e);
 
 
-            e = new MonkeyMotionEvent(MonkeyEvent.EVENT_TYPE_TRACKBALL, downAt,
+            e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_TRACKBALL, downAt,
                     MotionEvent.ACTION_UP, 0, 0, 0);
             e.setIntermediateNote(false);
-            mQ.addLast(e);
+            queue.addLast(e);
         }
     }
 
     /**
-     * generate a random event based on mFactor
+     * Touch, with or without moving before the release.
      */
-    private void generateEvents() {
-        float cls = mRandom.nextFloat();
-        int lastKey = 0;
-
-        boolean touchEvent = cls < mFactors[FACTOR_TOUCH];
-        boolean motionEvent = !touchEvent && (cls < mFactors[FACTOR_MOTION]);
-        if (touchEvent || motionEvent) {
-            generateMotionEvent(mRandom, motionEvent);
-            return;
+    private class TouchFamily implements MonkeyEventFamily {
+        private final boolean mMove;
+
+        TouchFamily(boolean move) {
+            mMove = move;
         }
 
-        if (cls < mFactors[FACTOR_TRACKBALL]) {
-            generateTrackballEvent(mRandom);
-            return;
+        public void generateEvents(Random random, MonkeyEventQueue queue) {
+            generateMotionEvent(random, queue, mMove);
         }
+    }
 
-        // The remaining event categories are injected as key events
-        do {
-            if (cls < mFactors[FACTOR_NAV]) {
-                lastKey = NAV_KEYS[mRandom.nextInt(NAV_KEYS.length)];
-            } else if (cls < mFactors[FACTOR_MAJORNAV]) {
-                lastKey = MAJOR_NAV_KEYS[mRandom.nextInt(MAJOR_NAV_KEYS.length)];
-            } else if (cls < mFactors[FACTOR_SYSOPS]) {
-                lastKey = SYS_KEYS[mRandom.nextInt(SYS_KEYS.length)];
-            } else if (cls < mFactors[FACTOR_APPSWITCH]) {
-                MonkeyActivityEvent e = new MonkeyActivityEvent(mMainApps.get(
-                        mRandom.nextInt(mMainApps.size())));
-                mQ.addLast(e);
-                return;
-            } else if (cls < mFactors[FACTOR_FLIP]) {
-                MonkeyFlipEvent e = new MonkeyFlipEvent(mKeyboardOpen);
-                mKeyboardOpen = !mKeyboardOpen;
-                mQ.addLast(e);
-                return;
-            } else {
-                lastKey = 1 + mRandom.nextInt(KeyEvent.getMaxKeyCode() - 1);
+    private class TrackballFamily implements MonkeyEventFamily {
+        public void generateEvents(Random random, MonkeyEventQueue queue) {
+            generateTrackballEvent(random, queue);
+        }
+    }
+
+    /**
+     * Press and release one key from a set, or any key if the set is null.
+     * Keys the device doesn't have are skipped.
+     */
+    private static class KeyFamily implements MonkeyEventFamily {
+        private final int[] mKeys;
+
+        KeyFamily(int[] keys) {
+            mKeys = keys;
+        }
+
+        /**
+         * @return whether the device has any of the keys
+         */
+        boolean hasPhysicalKey() {
+            if (mKeys == null) {
+                return true;
+            }
+            for (int i = 0; i < mKeys.length; ++i) {
+                if (PHYSICAL_KEY_EXISTS[mKeys[i]]) {
+                    return true;
+                }
             }
-        } while (!PHYSICAL_KEY_EXISTS[lastKey]);
+            return false;
+        }
 
-        MonkeyKeyEvent e = new MonkeyKeyEvent(KeyEvent.ACTION_DOWN, lastKey);
-        mQ.addLast(e);
+        public void generateEvents(Random random, MonkeyEventQueue queue) {
+            int key;
+            do {
+                if (mKeys != null) {
+                    key = mKeys[random.nextInt(mKeys.length)];
+                } else {
+                    key = 1 + random.nextInt(KeyEvent.getMaxKeyCode() - 1);
+                }
+            } while (!PHYSICAL_KEY_EXISTS[key]);
+
+            queue.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, key));
+            queue.addLast(MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, key));
+        }
+    }
 
-        e = new MonkeyKeyEvent(KeyEvent.ACTION_UP, lastKey);
-        mQ.addLast(e);
+    private class AppSwitchFamily implements MonkeyEventFamily {
+        public void generateEvents(Random random, MonkeyEventQueue queue) {
+            queue.addLast(new MonkeyActivityEvent(mMainApps.get(
+                    random.nextInt(mMainApps.size()))));
+        }
+    }
+
+    private class FlipFamily implements MonkeyEventFamily {
+        public void generateEvents(Random random, MonkeyEventQueue queue) {
+            queue.addLast(new MonkeyFlipEvent(mKeyboardOpen));
+            mKeyboardOpen = !mKeyboardOpen;
+        }
+    }
+
+    /**
+     * A quick straight stroke in one direction.  Unlike the random walk of
+     * a touch with motion, the moves are evenly spaced along a line and are
+     * injected back to back (moves aren't throttled), so the view sees a
+     * high release velocity.
+     */
+    private static class FlingFamily implements MonkeyEventFamily {
+        private static final int MIN_STEPS = 3;
+        private static final int MAX_STEPS = 8;
+
+        public void generateEvents(Random random, MonkeyEventQueue queue) {
+            Display display = WindowManagerImpl.getDefault().getDefaultDisplay();
+            int width = display.getWidth();
+            int height = display.getHeight();
+
+            float x = random.nextInt(width);
+            float y = random.nextInt(height);
+            // a stroke of between a quarter and a half of the shorter side
+            double angle = random.nextDouble() * 2 * Math.PI;
+            float length = Math.min(width, height) * (0.25f + random.nextFloat() * 0.25f);
+            int steps = MIN_STEPS + random.nextInt(MAX_STEPS - MIN_STEPS + 1);
+            float dx = (float) (Math.cos(angle) * length / steps);
+            float dy = (float) (Math.sin(angle) * length / steps);
+            long downAt = SystemClock.uptimeMillis();
+
+            MonkeyMotionEvent e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
+                    downAt, MotionEvent.ACTION_DOWN, x, y, 0);
+            e.setIntermediateNote(false);
+            queue.addLast(e);
+
+            for (int i = 0; i < steps; i++) {
+                x = Math.max(0, Math.min(width - 1, x + dx));
+                y = Math.max(0, Math.min(height - 1, y + dy));
+                e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
+                        downAt, MotionEvent.ACTION_MOVE, x, y, 0);
+                e.setIntermediateNote(true);
+                queue.addLast(e);
+            }
+
+            e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
+                    downAt, MotionEvent.ACTION_UP, x, y, 0);
+            e.setIntermediateNote(false);
+            queue.addLast(e);
+        }
+    }
+
+    /**
+     * Touch and hold in one place, long enough to trigger a long press.
+     */
+    private static class LongPressFamily implements MonkeyEventFamily {
+        // never changes and isn't pooled, so every long press can queue it
+        private final MonkeyWaitEvent mWait =
+                new MonkeyWaitEvent(MonkeySourceScript.LONGPRESS_WAIT_TIME);
+
+        public void generateEvents(Random random, MonkeyEventQueue queue) {
+            Display display = WindowManagerImpl.getDefault().getDefaultDisplay();
+            float x = random.nextInt(display.getWidth());
+            float y = random.nextInt(display.getHeight());
+            long downAt = SystemClock.uptimeMillis();
+
+            MonkeyMotionEvent e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
+                    downAt, MotionEvent.ACTION_DOWN, x, y, 0);
+            e.setIntermediateNote(false);
+            queue.addLast(e);
+
+            queue.addLast(mWait);
+
+            e = MonkeyMotionEvent.obtain(MonkeyEvent.EVENT_TYPE_POINTER,
+                    downAt, MotionEvent.ACTION_UP, x, y, 0);
+            e.setIntermediateNote(false);
+            queue.addLast(e);
+        }
+    }
+
+    // The families, in the order they have always had: a run with a given
+    // seed picks the same families as long as the order stays.
+    static {
+        registerFamily(new FamilyEntry("touch", "touch events", 15.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return source.new TouchFamily(false);
+            }
+        });
+        registerFamily(new FamilyEntry("motion", "motion events", 10.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return source.new TouchFamily(true);
+            }
+        });
+        registerFamily(new FamilyEntry("trackball", "trackball events", 15.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return source.new TrackballFamily();
+            }
+        });
+        registerFamily(new FamilyEntry("nav", "nav events", 25.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return new KeyFamily(NAV_KEYS);
+            }
+        });
+        registerFamily(new FamilyEntry("majornav", "major nav events", 15.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return new KeyFamily(MAJOR_NAV_KEYS);
+            }
+        });
+        registerFamily(new FamilyEntry("syskeys", "system (key) operations", 2.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return new KeyFamily(SYS_KEYS);
+            }
+        });
+        registerFamily(new FamilyEntry("appswitch", "app switch events", 2.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return source.new AppSwitchFamily();
+            }
+        });
+        registerFamily(new FamilyEntry("flip", "keyboard flips", 1.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return source.new FlipFamily();
+            }
+        });
+        registerFamily(new FamilyEntry("anyevent", "any events", 15.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return new KeyFamily(null);
+            }
+        });
+        // off unless asked for, so the default mix stays as it was
+        registerFamily(new FamilyEntry("fling", "fling events", 0.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return new FlingFamily();
+            }
+        });
+        registerFamily(new FamilyEntry("longpress", "long press events", 0.0f) {
+            MonkeyEventFamily create(MonkeySourceRandom source) {
+                return new LongPressFamily();
+            }
+        });
+    }
+
+    /**
+     * generate a random event based on mFactor
+     */
+    private void generateEvents() {
+        mFamilies[mFamilyTable.next(mRandom)].generateEvents(mRandom, mQ);
     }
 
     public boolean validate() {
@@ -539,4 +765,8 @@ public class MonkeySourceRandom implements MonkeyEventSource {
         mQ.removeFirst();
         return e;
     }
+
+    public int getQueueDepth() {
+        return mQ.size();
+    }
 }
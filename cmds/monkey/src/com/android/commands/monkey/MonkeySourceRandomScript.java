@@ -27,13 +27,13 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
     private int mVerbose = 0;
 
     /** The source for the setup script if it exists */
-    private MonkeySourceScript mSetupSource = null;
+    private MonkeyEventSource mSetupSource = null;
 
-    /** The list of MonkeySourceScript instances to be played in random order */
-    private ArrayList<MonkeySourceScript> mScriptSources = new ArrayList<MonkeySourceScript>();
+    /** The list of script sources to be played in random order */
+    private ArrayList<MonkeyEventSource> mScriptSources = new ArrayList<MonkeyEventSource>();
 
     /** The current source, set to the setup source and then a random script */
-    private MonkeySourceScript mCurrentSource = null;
+    private MonkeyEventSource mCurrentSource = null;
 
     /** The random number generator */
     private Random mRandom;
@@ -55,13 +55,13 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
             long throttle, boolean randomizeThrottle, Random random, long profileWaitTime,
             long deviceSleepTime, boolean randomizeScript) {
         if (setupFileName != null) {
-            mSetupSource = new MonkeySourceScript(random, setupFileName, throttle,
+            mSetupSource = createScriptSource(random, setupFileName, throttle,
                     randomizeThrottle, profileWaitTime, deviceSleepTime);
             mCurrentSource = mSetupSource;
         }
 
         for (String fileName: scriptFileNames) {
-            mScriptSources.add(new MonkeySourceScript(random, fileName, throttle,
+            mScriptSources.add(createScriptSource(random, fileName, throttle,
                     randomizeThrottle, profileWaitTime, deviceSleepTime));
         }
 
@@ -69,6 +69,24 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
         mRandomizeScript = randomizeScript;
     }
 
+    /**
+     * Creates a source for one script file, compiled or text.
+     *
+     * @param fileName The name of the script file on the device.
+     * @return A MonkeySourceBinaryScript if the file is compiled, otherwise a
+     *         MonkeySourceScript.
+     */
+    private static MonkeyEventSource createScriptSource(Random random, String fileName,
+            long throttle, boolean randomizeThrottle, long profileWaitTime,
+            long deviceSleepTime) {
+        if (MonkeySourceBinaryScript.isCompiledScript(fileName)) {
+            return new MonkeySourceBinaryScript(random, fileName, throttle, randomizeThrottle,
+                    profileWaitTime, deviceSleepTime);
+        }
+        return new MonkeySourceScript(random, fileName, throttle, randomizeThrottle,
+                profileWaitTime, deviceSleepTime);
+    }
+
     /**
      * Creates a MonkeySourceRandomScript instance without an additional setup script.
      *
@@ -129,11 +147,36 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
             mSetupSource.setVerbose(verbose);
         }
 
-        for (MonkeySourceScript source: mScriptSources) {
+        for (MonkeyEventSource source: mScriptSources) {
             source.setVerbose(verbose);
         }
     }
 
+    /**
+     * Sets the playback scheduler for all sub event sources.
+     *
+     * @param scheduler The scheduler, or null for relative sleeps.
+     *
+     * @see MonkeySourceScript#setScheduler(MonkeyScheduler)
+     */
+    public void setScheduler(MonkeyScheduler scheduler) {
+        if (mSetupSource != null) {
+            setScheduler(mSetupSource, scheduler);
+        }
+
+        for (MonkeyEventSource source: mScriptSources) {
+            setScheduler(source, scheduler);
+        }
+    }
+
+    private static void setScheduler(MonkeyEventSource source, MonkeyScheduler scheduler) {
+        if (source instanceof MonkeySourceBinaryScript) {
+            ((MonkeySourceBinaryScript) source).setScheduler(scheduler);
+        } else {
+            ((MonkeySourceScript) source).setScheduler(scheduler);
+        }
+    }
+
     /**
      * Validates that all the underlying event sources are valid
      *
@@ -146,7 +189,7 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
             return false;
         }
 
-        for (MonkeySourceScript source: mScriptSources) {
+        for (MonkeyEventSource source: mScriptSources) {
             if (!source.validate()) {
                 return false;
             }
@@ -154,4 +197,8 @@ public class MonkeySourceRandomScript implements MonkeyEventSource {
 
         return true;
     }
+
+    public int getQueueDepth() {
+        return (mCurrentSource != null) ? mCurrentSource.getQueueDepth() : 0;
+    }
 }
@@ -54,70 +54,56 @@ public class MonkeySourceScript implements MonkeyEventSource {
 
     private MonkeyEventQueue mQ;
 
-    private static final String HEADER_COUNT = "count=";
+    static final String HEADER_COUNT = "count=";
 
-    private static final String HEADER_SPEED = "speed=";
+    static final String HEADER_SPEED = "speed=";
 
-    private long mLastRecordedDownTimeKey = 0;
-
-    private long mLastRecordedDownTimeMotion = 0;
-
-    private long mLastExportDownTimeKey = 0;
-
-    private long mLastExportDownTimeMotion = 0;
-
-    private long mLastExportEventTime = -1;
-
-    private long mLastRecordedEventTime = -1;
+    private final MonkeyScriptTiming mTiming = new MonkeyScriptTiming();
 
     private static final boolean THIS_DEBUG = false;
 
-    // a parameter that compensates the difference of real elapsed time and
-    // time in theory
-    private static final long SLEEP_COMPENSATE_DIFF = 16;
-
     // maximum number of events that we read at one time
     private static final int MAX_ONE_TIME_READS = 100;
 
     // event key word in the capture log
-    private static final String EVENT_KEYWORD_POINTER = "DispatchPointer";
+    static final String EVENT_KEYWORD_POINTER = "DispatchPointer";
 
-    private static final String EVENT_KEYWORD_TRACKBALL = "DispatchTrackball";
+    static final String EVENT_KEYWORD_TRACKBALL = "DispatchTrackball";
 
-    private static final String EVENT_KEYWORD_KEY = "DispatchKey";
+    static final String EVENT_KEYWORD_KEY = "DispatchKey";
 
-    private static final String EVENT_KEYWORD_FLIP = "DispatchFlip";
+    static final String EVENT_KEYWORD_FLIP = "DispatchFlip";
 
-    private static final String EVENT_KEYWORD_KEYPRESS = "DispatchPress";
+    static final String EVENT_KEYWORD_KEYPRESS = "DispatchPress";
 
-    private static final String EVENT_KEYWORD_ACTIVITY = "LaunchActivity";
+    static final String EVENT_KEYWORD_ACTIVITY = "LaunchActivity";
 
-    private static final String EVENT_KEYWORD_INSTRUMENTATION = "LaunchInstrumentation";
+    static final String EVENT_KEYWORD_INSTRUMENTATION = "LaunchInstrumentation";
 
-    private static final String EVENT_KEYWORD_WAIT = "UserWait";
+    static final String EVENT_KEYWORD_WAIT = "UserWait";
 
-    private static final String EVENT_KEYWORD_LONGPRESS = "LongPress";
+    static final String EVENT_KEYWORD_LONGPRESS = "LongPress";
 
-    private static final String EVENT_KEYWORD_POWERLOG = "PowerLog";
+    static final String EVENT_KEYWORD_POWERLOG = "PowerLog";
 
-    private static final String EVENT_KEYWORD_WRITEPOWERLOG = "WriteLog";
+    static final String EVENT_KEYWORD_WRITEPOWERLOG = "WriteLog";
 
-    private static final String EVENT_KEYWORD_RUNCMD = "RunCmd";
+    static final String EVENT_KEYWORD_RUNCMD = "RunCmd";
 
-    private static final String EVENT_KEYWORD_TAP = "Tap";
+    static final String EVENT_KEYWORD_TAP = "Tap";
 
-    private static final String EVENT_KEYWORD_PROFILE_WAIT = "ProfileWait";
+    static final String EVENT_KEYWORD_PROFILE_WAIT = "ProfileWait";
 
-    private static final String EVENT_KEYWORD_DEVICE_WAKEUP = "DeviceWakeUp";
+    static final String EVENT_KEYWORD_DEVICE_WAKEUP = "DeviceWakeUp";
 
-    private static final String EVENT_KEYWORD_INPUT_STRING = "DispatchString";
+    static final String EVENT_KEYWORD_INPUT_STRING = "DispatchString";
 
     // a line at the end of the header
-    private static final String STARTING_DATA_LINE = "start data >>";
+    static final String STARTING_DATA_LINE = "start data >>";
 
     private boolean mFileOpened = false;
 
-    private static int LONGPRESS_WAIT_TIME = 2000; // wait time for the long
+    static final int LONGPRESS_WAIT_TIME = 2000; // wait time for the long
 
     private long mProfileWaitTime = 5000; //Wait time for each user profile
 
@@ -143,18 +129,6 @@ public class MonkeySourceScript implements MonkeyEventSource {
         mDeviceSleepTime = deviceSleepTime;
     }
 
-    /**
-     * Resets the globals used to timeshift events.
-     */
-    private void resetValue() {
-        mLastRecordedDownTimeKey = 0;
-        mLastRecordedDownTimeMotion = 0;
-        mLastRecordedEventTime = -1;
-        mLastExportDownTimeKey = 0;
-        mLastExportDownTimeMotion = 0;
-        mLastExportEventTime = -1;
-    }
-
     /**
      * Reads the header of the script file.
      *
@@ -240,7 +214,7 @@ public class MonkeySourceScript implements MonkeyEventSource {
                 int device = Integer.parseInt(args[6]);
                 int scancode = Integer.parseInt(args[7]);
 
-                MonkeyKeyEvent e = new MonkeyKeyEvent(downTime, eventTime, action, code, repeat,
+                MonkeyKeyEvent e = MonkeyKeyEvent.obtain(downTime, eventTime, action, code, repeat,
                         metaState, device, scancode);
                 System.out.println(" Key code " + code + "\n");
 
@@ -271,7 +245,7 @@ public class MonkeySourceScript implements MonkeyEventSource {
                 if (s.indexOf("Pointer") > 0) {
                     type = MonkeyEvent.EVENT_TYPE_POINTER;
                 }
-                MonkeyMotionEvent e = new MonkeyMotionEvent(type, downTime, eventTime, action, x,
+                MonkeyMotionEvent e = MonkeyMotionEvent.obtain(type, downTime, eventTime, action, x,
                         y, pressure, size, metaState, xPrecision, yPrecision, device, edgeFlags);
                 mQ.addLast(e);
             } catch (NumberFormatException e) {
@@ -297,11 +271,11 @@ public class MonkeySourceScript implements MonkeyEventSource {
                 int type = MonkeyEvent.EVENT_TYPE_POINTER;
 
                 MonkeyMotionEvent e1 =
-                        new MonkeyMotionEvent(type, downTime, downTime, KeyEvent.ACTION_DOWN, x,
+                        MonkeyMotionEvent.obtain(type, downTime, downTime, KeyEvent.ACTION_DOWN, x,
                                 y, pressure, size, metaState, xPrecision, yPrecision, device,
                                 edgeFlags);
                 MonkeyMotionEvent e2 =
-                        new MonkeyMotionEvent(type, downTime, downTime, KeyEvent.ACTION_UP, x,
+                        MonkeyMotionEvent.obtain(type, downTime, downTime, KeyEvent.ACTION_UP, x,
                                 y, pressure, size, metaState, xPrecision, yPrecision, device,
                                 edgeFlags);
                 mQ.addLast(e1);
@@ -396,9 +370,9 @@ public class MonkeySourceScript implements MonkeyEventSource {
         if (s.indexOf(EVENT_KEYWORD_KEYPRESS) >= 0 && args.length == 1) {
             String key_name = args[0];
             int keyCode = MonkeySourceRandom.getKeyCode(key_name);
-            MonkeyKeyEvent e = new MonkeyKeyEvent(KeyEvent.ACTION_DOWN, keyCode);
+            MonkeyKeyEvent e = MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, keyCode);
             mQ.addLast(e);
-            e = new MonkeyKeyEvent(KeyEvent.ACTION_UP, keyCode);
+            e = MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, keyCode);
             mQ.addLast(e);
             return;
         }
@@ -406,11 +380,11 @@ public class MonkeySourceScript implements MonkeyEventSource {
         // Handle longpress events
         if (s.indexOf(EVENT_KEYWORD_LONGPRESS) >= 0) {
             MonkeyKeyEvent e;
-            e = new MonkeyKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_CENTER);
+            e = MonkeyKeyEvent.obtain(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_CENTER);
             mQ.addLast(e);
             MonkeyWaitEvent we = new MonkeyWaitEvent(LONGPRESS_WAIT_TIME);
             mQ.addLast(we);
-            e = new MonkeyKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DPAD_CENTER);
+            e = MonkeyKeyEvent.obtain(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DPAD_CENTER);
             mQ.addLast(e);
         }
 
@@ -508,8 +482,8 @@ public class MonkeySourceScript implements MonkeyEventSource {
         }
 
         if (!mFileOpened) {
-            resetValue();
             readHeader();
+            mTiming.reset(mSpeed);
         }
 
         linesRead = readLines();
@@ -519,22 +493,6 @@ public class MonkeySourceScript implements MonkeyEventSource {
         }
     }
 
-    /**
-     * Sleep for a period of given time. Used to introduce latency between
-     * events.
-     *
-     * @param time The amount of time to sleep in ms
-     */
-    private void needSleep(long time) {
-        if (time < 1) {
-            return;
-        }
-        try {
-            Thread.sleep(time);
-        } catch (InterruptedException e) {
-        }
-    }
-
     /**
      * Checks if the file can be opened and if the header is valid.
      *
@@ -560,78 +518,14 @@ public class MonkeySourceScript implements MonkeyEventSource {
     }
 
     /**
-     * Adjust key downtime and eventtime according to both recorded values and
-     * current system time.
+     * Pace playback with the given scheduler. Each event is then injected
+     * at its absolute (time-shifted) event time rather than after a relative
+     * sleep, so injection overhead does not accumulate over the script.
      *
-     * @param e A KeyEvent
+     * @param scheduler the scheduler, or null for relative sleeps
      */
-    private void adjustKeyEventTime(MonkeyKeyEvent e) {
-        if (e.getEventTime() < 0) {
-            return;
-        }
-        long thisDownTime = 0;
-        long thisEventTime = 0;
-        long expectedDelay = 0;
-
-        if (mLastRecordedEventTime <= 0) {
-            // first time event
-            thisDownTime = SystemClock.uptimeMillis();
-            thisEventTime = thisDownTime;
-        } else {
-            if (e.getDownTime() != mLastRecordedDownTimeKey) {
-                thisDownTime = e.getDownTime();
-            } else {
-                thisDownTime = mLastExportDownTimeKey;
-            }
-            expectedDelay = (long) ((e.getEventTime() - mLastRecordedEventTime) * mSpeed);
-            thisEventTime = mLastExportEventTime + expectedDelay;
-            // add sleep to simulate everything in recording
-            needSleep(expectedDelay - SLEEP_COMPENSATE_DIFF);
-        }
-        mLastRecordedDownTimeKey = e.getDownTime();
-        mLastRecordedEventTime = e.getEventTime();
-        e.setDownTime(thisDownTime);
-        e.setEventTime(thisEventTime);
-        mLastExportDownTimeKey = thisDownTime;
-        mLastExportEventTime = thisEventTime;
-    }
-
-    /**
-     * Adjust motion downtime and eventtime according to both recorded values
-     * and current system time.
-     *
-     * @param e A KeyEvent
-     */
-    private void adjustMotionEventTime(MonkeyMotionEvent e) {
-        if (e.getEventTime() < 0) {
-            return;
-        }
-        long thisDownTime = 0;
-        long thisEventTime = 0;
-        long expectedDelay = 0;
-
-        if (mLastRecordedEventTime <= 0) {
-            // first time event
-            thisDownTime = SystemClock.uptimeMillis();
-            thisEventTime = thisDownTime;
-        } else {
-            if (e.getDownTime() != mLastRecordedDownTimeMotion) {
-                thisDownTime = e.getDownTime();
-            } else {
-                thisDownTime = mLastExportDownTimeMotion;
-            }
-            expectedDelay = (long) ((e.getEventTime() - mLastRecordedEventTime) * mSpeed);
-            thisEventTime = mLastExportEventTime + expectedDelay;
-            // add sleep to simulate everything in recording
-            needSleep(expectedDelay - SLEEP_COMPENSATE_DIFF);
-        }
-
-        mLastRecordedDownTimeMotion = e.getDownTime();
-        mLastRecordedEventTime = e.getEventTime();
-        e.setDownTime(thisDownTime);
-        e.setEventTime(thisEventTime);
-        mLastExportDownTimeMotion = thisDownTime;
-        mLastExportEventTime = thisEventTime;
+    public void setScheduler(MonkeyScheduler scheduler) {
+        mTiming.setScheduler(scheduler);
     }
 
     /**
@@ -663,12 +557,11 @@ public class MonkeySourceScript implements MonkeyEventSource {
             return null;
         }
 
-        if (ev.getEventType() == MonkeyEvent.EVENT_TYPE_KEY) {
-            adjustKeyEventTime((MonkeyKeyEvent) ev);
-        } else if (ev.getEventType() == MonkeyEvent.EVENT_TYPE_POINTER
-                || ev.getEventType() == MonkeyEvent.EVENT_TYPE_TRACKBALL) {
-            adjustMotionEventTime((MonkeyMotionEvent) ev);
-        }
+        mTiming.adjustEventTime(ev);
         return ev;
     }
+
+    public int getQueueDepth() {
+        return mQ.size();
+    }
 }
@@ -27,11 +27,45 @@ import android.view.IWindowManager;
  */
 public class MonkeyThrottleEvent extends MonkeyEvent {
     private long mThrottle; 
+    private final boolean mScheduled;
         
     public MonkeyThrottleEvent(long throttle) {
+        this(throttle, true);
+    }  
+
+    /**
+     * @param throttle the time to sleep, in milliseconds
+     * @param scheduled false for an explicit sleep, which a
+     *            {@link MonkeyScheduler} must leave as it is
+     */
+    public MonkeyThrottleEvent(long throttle, boolean scheduled) {
         super(MonkeyEvent.EVENT_TYPE_THROTTLE);
         mThrottle = throttle;
-    }  
+        mScheduled = scheduled;
+    }
+
+    /**
+     * @return true if a scheduler may pace this throttle as one of its slots
+     */
+    public boolean isScheduled() {
+        return mScheduled;
+    }
+
+    /**
+     * @return the time to sleep, in milliseconds
+     */
+    public long getThrottle() {
+        return mThrottle;
+    }
+
+    /**
+     * Reuse this event for a different delay.
+     *
+     * @param throttle the time to sleep, in milliseconds
+     */
+    public void setThrottle(long throttle) {
+        mThrottle = throttle;
+    }
 
     @Override
     public int injectEvent(IWindowManager iwm, IActivityManager iam, int verbose) {
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches the tombstone directory for new native crash dumps.
+ * <p>
+ * The kernel tells us (through inotify, on the FileObserver thread) when
+ * debuggerd finishes writing a tombstone, and we raise a flag. The monkey
+ * loop only has to test and clear that flag, with no directory listing or
+ * allocation per event.
+ * <p>
+ * debuggerd creates the directory with the first tombstone, so if it
+ * doesn't exist yet we watch its parent until it shows up.
+ */
+public class MonkeyTombstoneWatcher {
+    private static final int TOMBSTONE_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO;
+
+    private final File mDirectory;
+    private final AtomicBoolean mNewTombstone = new AtomicBoolean(false);
+
+    private final FileObserver mObserver;
+    private final FileObserver mParentObserver;
+
+    public MonkeyTombstoneWatcher(File directory) {
+        mDirectory = directory;
+        mObserver = new FileObserver(directory.getPath(), TOMBSTONE_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null) {
+                    mNewTombstone.set(true);
+                }
+            }
+        };
+        mParentObserver = new FileObserver(directory.getParent(),
+                FileObserver.CREATE | FileObserver.MOVED_TO) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (mDirectory.getName().equals(path)) {
+                    stopWatching();
+                    mObserver.startWatching();
+                    // a tombstone may have landed before we started watching
+                    String[] tombstones = mDirectory.list();
+                    if (tombstones != null && tombstones.length > 0) {
+                        mNewTombstone.set(true);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Start watching.  Tombstones that are already there are not reported.
+     */
+    public void start() {
+        if (mDirectory.isDirectory()) {
+            mObserver.startWatching();
+        } else {
+            mParentObserver.startWatching();
+            // close the race with the directory being created just now
+            if (mDirectory.isDirectory()) {
+                mParentObserver.stopWatching();
+                mObserver.startWatching();
+            }
+        }
+    }
+
+    public void stop() {
+        mParentObserver.stopWatching();
+        mObserver.stopWatching();
+    }
+
+    /**
+     * Check for, and clear, the new-tombstone flag.
+     *
+     * @return true if a tombstone has been written since the last call
+     */
+    public boolean checkNewTombstones() {
+        return mNewTombstone.getAndSet(false);
+    }
+}
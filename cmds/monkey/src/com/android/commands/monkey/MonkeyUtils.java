@@ -16,26 +16,97 @@
 
 package com.android.commands.monkey;
 
-import java.text.SimpleDateFormat;
+import java.util.Calendar;
 
 /**
  * Misc utilities.
  */
 public abstract class MonkeyUtils {
 
-    private static final java.util.Date DATE = new java.util.Date();
-    private static final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat(
-        "yyyy-MM-dd HH:mm:ss.SSS ");
+    private static final long MS_PER_MINUTE = 60 * 1000L;
+
+    /**
+     * Per-thread formatting state.  The "yyyy-MM-dd HH:mm:" part only changes
+     * once a minute, so it is kept and only the seconds and milliseconds are
+     * formatted each time.  Being per thread, this needs no lock.
+     */
+    private static class TimeFormatter {
+        final Calendar mCalendar = Calendar.getInstance();
+        final StringBuilder mBuilder = new StringBuilder(24);
+        final char[] mPrefix = new char[17];
+        long mMinuteStart = -1;
+
+        String format(long time) {
+            long minuteStart = time - floorMod(time, MS_PER_MINUTE);
+            if (minuteStart != mMinuteStart) {
+                mCalendar.setTimeInMillis(minuteStart);
+                StringBuilder sb = mBuilder;
+                sb.setLength(0);
+                sb.append(mCalendar.get(Calendar.YEAR));
+                sb.append('-');
+                appendTwoDigits(sb, mCalendar.get(Calendar.MONTH) + 1);
+                sb.append('-');
+                appendTwoDigits(sb, mCalendar.get(Calendar.DAY_OF_MONTH));
+                sb.append(' ');
+                appendTwoDigits(sb, mCalendar.get(Calendar.HOUR_OF_DAY));
+                sb.append(':');
+                appendTwoDigits(sb, mCalendar.get(Calendar.MINUTE));
+                sb.append(':');
+                if (sb.length() != mPrefix.length) {
+                    // a year outside 1000-9999; don't bother caching it
+                    mMinuteStart = -1;
+                    appendSeconds(sb, time - minuteStart);
+                    return sb.toString();
+                }
+                sb.getChars(0, mPrefix.length, mPrefix, 0);
+                mMinuteStart = minuteStart;
+            }
+            StringBuilder sb = mBuilder;
+            sb.setLength(0);
+            sb.append(mPrefix);
+            appendSeconds(sb, time - minuteStart);
+            return sb.toString();
+        }
+    }
+
+    private static final ThreadLocal<TimeFormatter> FORMATTER = new ThreadLocal<TimeFormatter>() {
+        @Override
+        protected TimeFormatter initialValue() {
+            return new TimeFormatter();
+        }
+    };
 
     private MonkeyUtils() {
     }
 
+    private static long floorMod(long x, long y) {
+        long mod = x % y;
+        return (mod < 0) ? mod + y : mod;
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10));
+        sb.append((char) ('0' + value % 10));
+    }
+
+    // "ss.SSS ", from the milliseconds into the minute
+    private static void appendSeconds(StringBuilder sb, long ms) {
+        int millis = (int) ms;
+        appendTwoDigits(sb, millis / 1000);
+        sb.append('.');
+        int fraction = millis % 1000;
+        sb.append((char) ('0' + fraction / 100));
+        appendTwoDigits(sb, fraction % 100);
+        sb.append(' ');
+    }
+
     /**
-     * Return calendar time in pretty string.
+     * Return calendar time in pretty string, formatted as
+     * "yyyy-MM-dd HH:mm:ss.SSS ".  Safe to call from any thread without
+     * locking.
      */
-    public static synchronized String toCalendarTime(long time) {
-        DATE.setTime(time);
-        return DATE_FORMATTER.format(DATE);
+    public static String toCalendarTime(long time) {
+        return FORMATTER.get().format(time);
     }
 
 }
@@ -31,6 +31,10 @@ public class MonkeyWaitEvent extends MonkeyEvent {
         mWaitTime = waitTime;
     }
 
+    public long getWaitTime() {
+        return mWaitTime;
+    }
+
     @Override
     public int injectEvent(IWindowManager iwm, IActivityManager iam, int verbose) {
         if (verbose > 1) {
@@ -0,0 +1,34 @@
+#
+# Copyright (C) 2010 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Host benchmark of the random source's event selection:
+#   java -jar $ANDROID_HOST_OUT/framework/monkey-benchmarks.jar [draws]
+#
+# The event families themselves need the framework, so only the alias
+# table is built in from ../../src.
+
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := $(call all-java-files-under,src) \
+    ../../src/com/android/commands/monkey/MonkeyAliasTable.java
+
+LOCAL_JAR_MANIFEST := manifest.txt
+
+LOCAL_MODULE := monkey-benchmarks
+LOCAL_MODULE_TAGS := eng
+
+include $(BUILD_HOST_JAVA_LIBRARY)
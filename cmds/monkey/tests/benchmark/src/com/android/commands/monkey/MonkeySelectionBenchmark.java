@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.commands.monkey;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures how many events a second the random source can pick a family
+ * for, with the {@link MonkeyAliasTable} it uses and with the walk up a
+ * cumulative array that it replaced, and checks that the alias table's
+ * picks come out in proportion to the weights.
+ * <p>
+ * The default event mix is measured, and wider ones with random weights,
+ * since the walk slows with the number of families and the table doesn't.
+ * <p>
+ * Usage: java -jar monkey-benchmarks.jar [draws]
+ */
+public class MonkeySelectionBenchmark {
+    private static final int DEFAULT_DRAWS = 20000000;
+    private static final int RUNS = 5;
+    // the largest gap allowed between a family's share and its weight
+    private static final double TOLERANCE = 1e-3;
+
+    // the random source's defaults, in the order its families are registered
+    private static final float[] DEFAULT_WEIGHTS = {
+        15.0f, 10.0f, 15.0f, 25.0f, 15.0f, 2.0f, 2.0f, 1.0f, 15.0f, 0.0f, 0.0f
+    };
+    private static final int[] WIDER = { 32, 128 };
+
+    public static void main(String[] args) {
+        int draws = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DRAWS;
+
+        run("default mix", DEFAULT_WEIGHTS, draws);
+        Random random = new Random(42);
+        for (int n : WIDER) {
+            float[] weights = new float[n];
+            for (int i = 0; i < n; i++) {
+                weights[i] = 1.0f + random.nextInt(100);
+            }
+            run(n + " families", weights, draws);
+        }
+    }
+
+    private static void run(String name, float[] weights, int draws) {
+        MonkeyAliasTable table = new MonkeyAliasTable(weights);
+        float[] cumulative = cumulative(weights);
+        int[] counts = new int[weights.length];
+
+        // warm up, then take the best of a few runs
+        drawTable(table, draws / 10, counts);
+        drawCumulative(cumulative, draws / 10);
+        long tableTime = Long.MAX_VALUE;
+        long cumulativeTime = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            Arrays.fill(counts, 0);
+            tableTime = Math.min(tableTime, drawTable(table, draws, counts));
+            cumulativeTime = Math.min(cumulativeTime, drawCumulative(cumulative, draws));
+        }
+
+        double error = maxError(weights, counts, draws);
+        System.out.println(String.format("%s: alias table %.1f M events/s,"
+                + " cumulative walk %.1f M events/s; largest share error %.1e%s",
+                name, draws * 1e3 / tableTime, draws * 1e3 / cumulativeTime, error,
+                error > TOLERANCE ? " (TOO LARGE)" : ""));
+    }
+
+    private static long drawTable(MonkeyAliasTable table, int draws, int[] counts) {
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < draws; i++) {
+            counts[table.next(random)]++;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long drawCumulative(float[] cumulative, int draws) {
+        Random random = new Random(1);
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < draws; i++) {
+            float cls = random.nextFloat();
+            int family = 0;
+            while (family < cumulative.length - 1 && cls >= cumulative[family]) {
+                family++;
+            }
+            sink += family;
+        }
+        long time = System.nanoTime() - start;
+        if (sink == -1) {
+            // keeps the loop from being optimized away
+            System.out.println(sink);
+        }
+        return time;
+    }
+
+    /**
+     * The running sums of the weights, scaled to end at 1, as the random
+     * source used to keep them.
+     */
+    private static float[] cumulative(float[] weights) {
+        float total = 0.0f;
+        for (float weight : weights) {
+            total += weight;
+        }
+        float[] cumulative = new float[weights.length];
+        float sum = 0.0f;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i] / total;
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+
+    private static double maxError(float[] weights, int[] counts, int draws) {
+        double total = 0.0;
+        for (float weight : weights) {
+            total += weight;
+        }
+        double error = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            error = Math.max(error, Math.abs((double) counts[i] / draws - weights[i] / total));
+        }
+        return error;
+    }
+}